@@ -0,0 +1,36 @@
+package be.allersma.gedcom.benchmarks;
+
+import be.allersma.gedcom.migrator.GedcomGenerator;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.parser.ModelParser;
+import org.xml.sax.SAXParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The GEDCOM files the benchmarks run on. The same number of families always gives the same file,
+ * so results of different runs can be compared.
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param families Number of families, with three times as many people
+     */
+    static byte[] generate(int families) {
+        GedcomGenerator.Options options = GedcomGenerator.Options.defaults()
+                .people(families * 3)
+                .families(families);
+        return new GedcomGenerator(options).generate().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static Gedcom parse(byte[] file) throws SAXParseException, IOException {
+        Gedcom gedcom = new ModelParser().parseGedcom(new ByteArrayInputStream(file));
+        gedcom.createIndexes();
+        gedcom.updateReferences();
+        return gedcom;
+    }
+}
@@ -0,0 +1,45 @@
+package be.allersma.gedcom.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, always with the gc profiler, so every result
+ * comes with its allocation rate (<code>gc.alloc.rate.norm</code> is the number of bytes per operation).
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        if (commandLine.getProfilers().stream().noneMatch(profiler -> profiler.getKlass().equals("gc")
+                || profiler.getKlass().equals(GCProfiler.class.getName()))) {
+            options.addProfiler(GCProfiler.class);
+        }
+        // Debug logging of the migration would end up in the results
+        List<String> jvmArgs = new ArrayList<>(commandLine.getJvmArgsAppend().orElse(Collections.emptyList()));
+        jvmArgs.add("-Dlog4j2.configurationFile=log4j2-benchmarks.xml");
+        options.jvmArgsAppend(jvmArgs.toArray(new String[0]));
+
+        Runner runner = new Runner(options.build());
+        if (commandLine.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+}
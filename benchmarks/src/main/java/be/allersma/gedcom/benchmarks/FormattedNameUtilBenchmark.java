@@ -0,0 +1,47 @@
+package be.allersma.gedcom.benchmarks;
+
+import be.allersma.gedcom.migrator.utils.FormattedNameUtil;
+import org.folg.gedcom.model.Name;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormattedNameUtilBenchmark {
+    @Param({"Jan /Fokkens/", "Anna Maria /van der Berg/ Jr.", "Grietje \"Grietje\" /de Vries/", "Hendrik"})
+    public String value;
+
+    private Name name;
+
+    @Setup
+    public void create() {
+        name = new Name();
+        name.setValue(value);
+    }
+
+    /**
+     * Parsing only fills in the parts that are missing, so they are cleared first.
+     */
+    @Benchmark
+    public Name parseNameValue() {
+        name.setGiven(null);
+        name.setSurname(null);
+        name.setSuffix(null);
+        return FormattedNameUtil.parseNameValue(name);
+    }
+}
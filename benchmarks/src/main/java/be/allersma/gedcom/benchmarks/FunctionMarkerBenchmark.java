@@ -0,0 +1,110 @@
+package be.allersma.gedcom.benchmarks;
+
+import be.allersma.gedcom.migrator.FunctionMarker;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FunctionMarkerBenchmark {
+    @Param({"1000"})
+    public int families;
+
+    private Gedcom gedcom;
+    private List<FunctionMarker.Branch<Person>> people;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void parse() throws SAXParseException, IOException {
+        gedcom = BenchmarkData.parse(BenchmarkData.generate(families));
+        people = FunctionMarker.createMarkerTree(gedcom).get("getPeople");
+    }
+
+    /**
+     * Every branch keeps which of its getters returned a value, so the people get new branches before every
+     * call to {@link FunctionMarkerBenchmark#getUnmarkedItems(Branches)}.
+     */
+    @State(Scope.Thread)
+    public static class Branches {
+        @Param({"false", "true"})
+        public boolean ignoreNullFields;
+
+        private List<FunctionMarker.Branch<Person>> people;
+
+        @Setup(Level.Invocation)
+        public void create(FunctionMarkerBenchmark benchmark) {
+            FunctionMarker.Options options = FunctionMarker.Options.defaults().ignoreNullFields(ignoreNullFields);
+            people = FunctionMarker.createMarkerTree(benchmark.gedcom, options).get("getPeople");
+            people.forEach(person -> person.mark("getNames"));
+        }
+    }
+
+    /**
+     * How much of the people a walk over a marker tree tracks, where 1 is all of them.
+     */
+    @State(Scope.Thread)
+    public static class Sample {
+        @Param({"1", "0.01"})
+        public double fraction;
+    }
+
+    @Benchmark
+    public FunctionMarker.Branch<Gedcom> createMarkerTree() {
+        return FunctionMarker.createMarkerTree(gedcom);
+    }
+
+    @Benchmark
+    public FunctionMarker.Branch<Gedcom> createMarkerTreePerPath() {
+        return FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults().perPath(true));
+    }
+
+    @Benchmark
+    public Optional<Object> invoke() {
+        FunctionMarker.Branch<Person> person = people.get(next);
+        next = next + 1 == people.size() ? 0 : next + 1;
+        return person.invoke("getNames");
+    }
+
+    /**
+     * Walks all people of a tree that ignores null fields and marks per path, like a migration does, and
+     * takes the report.
+     */
+    @Benchmark
+    public Map<String, List<String>> walkPerPath(Sample sample) {
+        FunctionMarker.Branch<Gedcom> tree = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults()
+                .ignoreNullFields(true)
+                .perPath(true)
+                .sample(sample.fraction, 100));
+        tree.<Person>stream("getPeople").forEach(person -> person.stream("getNames")
+                .forEach(name -> name.get("getValue")));
+        return tree.getCoverage().getUnmarkedItems();
+    }
+
+    @Benchmark
+    public List<String> getUnmarkedItems(Branches branches) {
+        return FunctionMarker.getUnmarkedItems(branches.people);
+    }
+}
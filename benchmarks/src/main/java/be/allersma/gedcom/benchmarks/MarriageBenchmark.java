@@ -0,0 +1,91 @@
+package be.allersma.gedcom.benchmarks;
+
+import be.allersma.gedcom.migrator.FamilyGraph;
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import be.allersma.gedcom.sqlite.Marriage;
+import org.folg.gedcom.model.EventFact;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every call handles the marriage of the next family, so the results are per marriage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarriageBenchmark {
+    @Param({"1000"})
+    public int families;
+
+    private Gedcom gedcom;
+    private XrefRegistry registry;
+    private FamilyGraph graph;
+    private final PlaceGazetteer places = new PlaceGazetteer();
+    private List<Family> familyList;
+    private int[] familyIds;
+    private Marriage[] marriages;
+    private int next = 0;
+
+    @Setup
+    public void parse() throws SAXParseException, IOException {
+        gedcom = BenchmarkData.parse(BenchmarkData.generate(families));
+        registry = new XrefRegistry().registerAll(gedcom);
+        graph = FamilyGraph.of(gedcom, registry);
+        familyList = gedcom.getFamilies();
+        familyIds = new int[familyList.size()];
+        marriages = new Marriage[familyList.size()];
+        for (int i = 0; i < familyList.size(); i++) {
+            familyIds[i] = registry.getId(RecordType.FAM, familyList.get(i).getId());
+            marriages[i] = Marriage.generateMarriage(graph, places, familyIds[i], marriage(i)).orElseThrow();
+        }
+    }
+
+    @Benchmark
+    public Optional<Marriage> generateMarriage() {
+        int family = next();
+        return Marriage.generateMarriage(gedcom, registry, places, familyList.get(family), marriage(family));
+    }
+
+    @Benchmark
+    public Optional<Marriage> generateMarriageFromGraph() {
+        int family = next();
+        return Marriage.generateMarriage(graph, places, familyIds[family], marriage(family));
+    }
+
+    @Benchmark
+    public String toQuery() {
+        return marriages[next()].toQuery("marriages");
+    }
+
+    private EventFact marriage(int family) {
+        return familyList.get(family).getEventsFacts().get(0);
+    }
+
+    private int next() {
+        int result = next;
+        next = next + 1 == familyList.size() ? 0 : next + 1;
+        return result;
+    }
+}
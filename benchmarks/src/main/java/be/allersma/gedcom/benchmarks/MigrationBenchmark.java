@@ -0,0 +1,135 @@
+package be.allersma.gedcom.benchmarks;
+
+import be.allersma.gedcom.migrator.FamilyGraph;
+import be.allersma.gedcom.migrator.FunctionMarker;
+import be.allersma.gedcom.migrator.GedcomStreamReader;
+import be.allersma.gedcom.migrator.Pipeline;
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import be.allersma.gedcom.sqlite.Marriage;
+import be.allersma.gedcom.sqlite.OutputSink;
+import org.folg.gedcom.model.EventFact;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The whole migration of a file, from the bytes of the file to the rows in the output, the same way
+ * <code>Main</code> does it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MigrationBenchmark {
+    @Param({"10000"})
+    public int families;
+
+    @Param({"SQL", "SQLITE"})
+    public OutputSink.Format format;
+
+    private byte[] file;
+    private Path directory;
+    private String output;
+
+    @Setup
+    public void generate() throws IOException {
+        file = BenchmarkData.generate(families);
+        directory = Files.createTempDirectory("gedcom-benchmark");
+        output = directory.resolve(format == OutputSink.Format.SQL ? "marriages.sql" : "marriages.db").toString();
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public long tree() throws SAXParseException, IOException {
+        Gedcom gedcom = BenchmarkData.parse(file);
+        XrefRegistry registry = new XrefRegistry().registerAll(gedcom);
+        FunctionMarker.Branch<Gedcom> tree = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults()
+                .ignoreNullFields(true)
+                .perPath(true));
+        List<FunctionMarker.Branch<Family>> familyBranches = tree.get("getFamilies");
+        FamilyGraph graph = FamilyGraph.of(gedcom, registry);
+        PlaceGazetteer places = new PlaceGazetteer();
+
+        Pipeline.Transform<Family, Marriage> generateMarriages = (family, result) -> {
+            int familyId = registry.getId(RecordType.FAM, family.getId());
+            for (EventFact fact : family.getEventsFacts()) {
+                Marriage.generateMarriage(graph, places, familyId, fact).ifPresent(result);
+            }
+        };
+
+        try (OutputSink sink = OutputSink.open(output, format, false)) {
+            sink.begin(Marriage.schema("marriages"));
+            try (Pipeline<Family, Marriage> pipeline = new Pipeline<>(generateMarriages, marriage -> marriage.write(sink),
+                    Pipeline.Options.defaults())) {
+                for (FunctionMarker.Branch<Family> family : familyBranches) {
+                    pipeline.submit(family.getValue());
+                    family.mark("getEventsFacts").mark("getNotes");
+                }
+                pipeline.close();
+                return pipeline.getWritten();
+            }
+        }
+    }
+
+    @Benchmark
+    public long stream() throws SAXParseException, IOException {
+        XrefRegistry registry = new XrefRegistry();
+        PlaceGazetteer places = new PlaceGazetteer();
+        long[] written = new long[1];
+        try (OutputSink sink = OutputSink.open(output, format, false)) {
+            sink.begin(Marriage.schema("marriages"));
+            new GedcomStreamReader()
+                    .on(Family.class, family -> {
+                        try {
+                            for (EventFact fact : family.getEventsFacts()) {
+                                Optional<Marriage> marriage = Marriage.generateMarriage(registry, places, family, fact);
+                                if (marriage.isPresent()) {
+                                    marriage.get().write(sink);
+                                    written[0]++;
+                                }
+                            }
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    })
+                    .read(new InputStreamReader(new ByteArrayInputStream(file), StandardCharsets.UTF_8));
+        }
+        return written[0];
+    }
+}
@@ -0,0 +1,33 @@
+package be.allersma.gedcom.migrator;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Bitset operations on a plain long array. When concurrent, bits are set atomically so no marks
+ * get lost when several threads mark the same word, and reads see the latest value.
+ */
+final class Bits {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private Bits() {
+    }
+
+    static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    static void set(long[] words, int index, boolean concurrent) {
+        long bit = 1L << index;
+        if (concurrent) {
+            WORDS.getAndBitwiseOr(words, index >>> 6, bit);
+        } else {
+            words[index >>> 6] |= bit;
+        }
+    }
+
+    static boolean isSet(long[] words, int index, boolean concurrent) {
+        long word = concurrent ? (long) WORDS.getVolatile(words, index >>> 6) : words[index >>> 6];
+        return (word & (1L << index)) != 0;
+    }
+}
@@ -0,0 +1,187 @@
+package be.allersma.gedcom.migrator;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view on a list of Gedcom model objects, that wraps an element in a
+ * {@link FunctionMarker.Branch} only when it is accessed. This way invoking something
+ * like <code>getPeople</code> doesn't create a branch for every person up front.
+ * <p>
+ * When caching is enabled, every element is wrapped at most once, so the marks made on a branch
+ * are still there when the same element is accessed again. Otherwise, which is when marking per path, the marks
+ * are kept by the node anyway, and only whether an element has been recorded and is tracked is kept: two bits per
+ * element. Either way, every element is recorded once, no matter how often it is accessed.
+ * <p>
+ * The view keeps the size the source list had when the view was created, the way the branches that used to be
+ * created up front did: elements added to the source list later are not in the view.
+ */
+class BranchList<E> extends AbstractList<FunctionMarker.Branch<E>> implements RandomAccess {
+    private static final VarHandle CACHE;
+    private static final VarHandle RECORDED;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(FunctionMarker.Branch[].class);
+
+    static {
+        try {
+            CACHE = MethodHandles.lookup().findVarHandle(BranchList.class, "cache", FunctionMarker.Branch[].class);
+            RECORDED = MethodHandles.lookup().findVarHandle(BranchList.class, "recorded", long[].class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final List<E> source;
+    private final PathNode parent;
+    private final FunctionMarker.Leaf leaf;
+    private final boolean cached;
+    private final int size;
+    private FunctionMarker.Branch<E>[] cache;
+    /**
+     * Per element, bit <code>2 * index</code> tells whether it has been recorded, the bit after it whether it is
+     * tracked
+     */
+    private long[] recorded;
+
+    /**
+     * @param parent The node of the branch that returned the source list
+     * @param leaf The function that returned the source list
+     */
+    BranchList(List<E> source, PathNode parent, FunctionMarker.Leaf leaf, boolean cached) {
+        this.source = source;
+        this.parent = parent;
+        this.leaf = leaf;
+        this.cached = cached;
+        this.size = source.size();
+    }
+
+    @Override
+    public FunctionMarker.Branch<E> get(int index) {
+        return branch(Objects.checkIndex(index, size), source.get(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Walks the source list with its own iterator, so linked lists are not accessed by index.
+     */
+    @Override
+    public Iterator<FunctionMarker.Branch<E>> iterator() {
+        Iterator<E> values = source.iterator();
+        return new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size && values.hasNext();
+            }
+
+            @Override
+            public FunctionMarker.Branch<E> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return branch(index++, values.next());
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private FunctionMarker.Branch<E> branch(int index, E value) {
+        if (!cached) {
+            return uncachedBranch(index, value);
+        }
+        if (parent.isConcurrent()) {
+            return concurrentBranch(index, value);
+        }
+
+        if (cache == null) {
+            cache = new FunctionMarker.Branch[size];
+        }
+        FunctionMarker.Branch<E> branch = cache[index];
+        if (branch == null) {
+            branch = new FunctionMarker.Branch<>(value, parent.child(leaf, value.getClass()));
+            cache[index] = branch;
+        }
+        return branch;
+    }
+
+    /**
+     * Wraps an element in a new branch, but only records it on the first access.
+     */
+    private FunctionMarker.Branch<E> uncachedBranch(int index, E value) {
+        PathNode node = parent.child(leaf, value.getClass());
+        boolean concurrent = parent.isConcurrent();
+        long[] bits = concurrent ? (long[]) RECORDED.getVolatile(this) : recorded;
+        if (bits == null) {
+            long[] created = new long[Bits.words(size * 2)];
+            bits = concurrent ? (long[]) RECORDED.compareAndExchange(this, null, created) : null;
+            if (bits == null) {
+                bits = created;
+                recorded = created;
+            }
+        }
+
+        int bit = index * 2;
+        if (!Bits.isSet(bits, bit, concurrent)) {
+            if (!concurrent) {
+                record(bits, bit, node, value);
+            } else {
+                // Only one thread may record the element, and the others must see whether it is tracked
+                synchronized (this) {
+                    if (!Bits.isSet(bits, bit, true)) {
+                        record(bits, bit, node, value);
+                    }
+                }
+            }
+        }
+        return new FunctionMarker.Branch<>(value, node, Bits.isSet(bits, bit + 1, concurrent));
+    }
+
+    /**
+     * The tracked bit is set before the recorded bit, so other threads never see one without the other.
+     */
+    private void record(long[] bits, int bit, PathNode node, E value) {
+        boolean concurrent = parent.isConcurrent();
+        if (node.record(value)) {
+            Bits.set(bits, bit + 1, concurrent);
+        }
+        Bits.set(bits, bit, concurrent);
+    }
+
+    /**
+     * Every thread must get the same branch for an element, otherwise marks of one thread would get lost. Creating a
+     * branch records it, so only one thread may create it.
+     */
+    @SuppressWarnings("unchecked")
+    private FunctionMarker.Branch<E> concurrentBranch(int index, E value) {
+        FunctionMarker.Branch<E>[] branches = (FunctionMarker.Branch<E>[]) CACHE.getVolatile(this);
+        if (branches == null) {
+            FunctionMarker.Branch<E>[] created = new FunctionMarker.Branch[size];
+            branches = (FunctionMarker.Branch<E>[]) CACHE.compareAndExchange(this, null, created);
+            if (branches == null) {
+                branches = created;
+            }
+        }
+
+        FunctionMarker.Branch<E> branch = (FunctionMarker.Branch<E>) SLOTS.getVolatile(branches, index);
+        if (branch == null) {
+            synchronized (this) {
+                branch = (FunctionMarker.Branch<E>) SLOTS.getVolatile(branches, index);
+                if (branch == null) {
+                    branch = new FunctionMarker.Branch<>(value, parent.child(leaf, value.getClass()));
+                    SLOTS.setVolatile(branches, index, branch);
+                }
+            }
+        }
+        return branch;
+    }
+}
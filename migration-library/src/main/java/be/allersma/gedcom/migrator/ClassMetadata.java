@@ -0,0 +1,143 @@
+package be.allersma.gedcom.migrator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Reflection data of a class, shared by all {@link FunctionMarker.Branch}es that wrap an instance of that class.
+ * Scanning the methods of a class is expensive, so it is done once per class instead of once per branch.
+ */
+final class ClassMetadata {
+    private static final Logger logger = LogManager.getLogger(ClassMetadata.class);
+    static final String MODEL_PACKAGE = "org.folg.gedcom.model";
+
+    private static final FunctionMarker.Leaf[] NO_LEAVES = new FunctionMarker.Leaf[0];
+    private static final ConcurrentMap<Class<?>, ClassMetadata> registry = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final FunctionMarker.Leaf[] leaves;
+    private final Map<String, FunctionMarker.Leaf[]> leavesByName;
+    private final int markWords;
+    private final ConcurrentMap<String, String> markAllHashes = new ConcurrentHashMap<>();
+
+    private ClassMetadata(Class<?> type) {
+        Method[] methods = type.getMethods();
+        this.type = type;
+        this.leaves = new FunctionMarker.Leaf[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            leaves[i] = new FunctionMarker.Leaf(methods[i], i);
+        }
+        this.markWords = Bits.words(leaves.length);
+
+        // Overloaded methods share a name, the first one is the one that gets invoked.
+        this.leavesByName = new HashMap<>();
+        for (FunctionMarker.Leaf leaf : leaves) {
+            leavesByName.merge(leaf.name, new FunctionMarker.Leaf[] { leaf }, (existing, added) -> {
+                FunctionMarker.Leaf[] merged = Arrays.copyOf(existing, existing.length + 1);
+                merged[existing.length] = added[0];
+                return merged;
+            });
+        }
+    }
+
+    static ClassMetadata of(Class<?> type) {
+        ClassMetadata metadata = registry.get(type);
+        return metadata != null ? metadata : registry.computeIfAbsent(type, ClassMetadata::new);
+    }
+
+    /**
+     * Follows a path like <code>/getPeople/getNames</code> from the given root class.
+     * @return The metadata of the class found at the end of the path, or null if the path doesn't exist.
+     */
+    static ClassMetadata resolve(Class<?> root, String path) {
+        ClassMetadata metadata = of(root);
+        if (path.isEmpty()) {
+            return metadata;
+        }
+        if (!path.startsWith("/")) {
+            return null;
+        }
+
+        for (String name : path.substring(1).split("/")) {
+            FunctionMarker.Leaf leaf = metadata.find(name);
+            if (leaf == null || leaf.modelType == null) {
+                return null;
+            }
+            metadata = of(leaf.modelType);
+        }
+        return metadata;
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    FunctionMarker.Leaf[] getLeaves() {
+        return leaves;
+    }
+
+    /**
+     * @return The amount of longs needed for a bitset with one bit per leaf.
+     */
+    int getMarkWords() {
+        return markWords;
+    }
+
+    /**
+     * The hash only depends on the path and the functions of the class, so it is computed once
+     * per path and shared by all branches and trees.
+     * @see FunctionMarker.Branch#markAll(String)
+     */
+    String getMarkAllHash(String path) {
+        String hash = markAllHashes.get(path);
+        return hash != null ? hash : markAllHashes.computeIfAbsent(path, this::computeMarkAllHash);
+    }
+
+    private String computeMarkAllHash(String path) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Unable to create digest. This should never happen!");
+            throw new RuntimeException(e);
+        }
+
+        String input = path + Arrays.stream(leaves).map(leaf -> leaf.name).collect(Collectors.joining());
+        byte[] hashedLeaves = digest.digest(input.getBytes());
+        BigInteger hashRepresentation = new BigInteger(1, hashedLeaves);
+        StringBuilder hash = new StringBuilder(hashRepresentation.toString(16));
+
+        // Add preceding 0s to make it 32 bit
+        while (hash.length() < 32) {
+            hash.insert(0, "0");
+        }
+
+        return hash.toString();
+    }
+
+    /**
+     * @return The first leaf with the given name, or null if there is none.
+     */
+    FunctionMarker.Leaf find(String name) {
+        FunctionMarker.Leaf[] found = leavesByName.get(name);
+        return found == null ? null : found[0];
+    }
+
+    /**
+     * @return All leaves with the given name, or an empty array if there are none.
+     */
+    FunctionMarker.Leaf[] findAll(String name) {
+        return leavesByName.getOrDefault(name, NO_LEAVES);
+    }
+}
@@ -0,0 +1,37 @@
+package be.allersma.gedcom.migrator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed amount of counters. When concurrent, every counter is striped over the threads that increment it
+ * and the stripes are only summed when the counter is read, so threads don't contend on the same memory.
+ */
+final class Counters {
+    private final long[] plain;
+    private final LongAdder[] striped;
+
+    Counters(int size, boolean concurrent) {
+        if (concurrent) {
+            this.plain = null;
+            this.striped = new LongAdder[size];
+            for (int i = 0; i < size; i++) {
+                striped[i] = new LongAdder();
+            }
+        } else {
+            this.plain = new long[size];
+            this.striped = null;
+        }
+    }
+
+    void increment(int index) {
+        if (plain != null) {
+            plain[index]++;
+        } else {
+            striped[index].increment();
+        }
+    }
+
+    long get(int index) {
+        return plain != null ? plain[index] : striped[index].sum();
+    }
+}
@@ -0,0 +1,439 @@
+package be.allersma.gedcom.migrator;
+
+import org.folg.gedcom.model.ChildRef;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.SpouseRef;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The relations between people and families, in primitive arrays. People and families are identified by their
+ * ids of a {@link XrefRegistry}. Every relation is stored in compressed sparse row form: an array of offsets
+ * per id, and one array with the related ids of all ids after each other. This takes a few ints per relation
+ * and looking up a relation is a matter of two array reads.
+ * <p>
+ * The relations are taken from the HUSB, WIFE and CHIL references of the families. The graph can't be changed
+ * once it has been built, so it can be shared between threads. A {@link Traversal} can't.
+ */
+public class FamilyGraph {
+    private static final int[] EMPTY = new int[0];
+
+    private final int maxPerson;
+    private final int maxFamily;
+    // Per family
+    private final int[] partnerOffsets;
+    private final int[] partners;
+    private final int[] childOffsets;
+    private final int[] children;
+    // Per person
+    private final int[] spouseFamilyOffsets;
+    private final int[] spouseFamilies;
+    private final int[] childFamilyOffsets;
+    private final int[] childFamilies;
+
+    private FamilyGraph(int maxPerson, int maxFamily, int[] partnerOffsets, int[] partners,
+                        int[] childOffsets, int[] children) {
+        this.maxPerson = maxPerson;
+        this.maxFamily = maxFamily;
+        this.partnerOffsets = partnerOffsets;
+        this.partners = partners;
+        this.childOffsets = childOffsets;
+        this.children = children;
+        this.spouseFamilyOffsets = new int[maxPerson + 2];
+        this.spouseFamilies = new int[partners.length];
+        this.childFamilyOffsets = new int[maxPerson + 2];
+        this.childFamilies = new int[children.length];
+        invert(partnerOffsets, partners, spouseFamilyOffsets, spouseFamilies);
+        invert(childOffsets, children, childFamilyOffsets, childFamilies);
+    }
+
+    /**
+     * Builds the graph of all families of a parsed Gedcom. References to people that are not in the
+     * registry are left out.
+     */
+    public static FamilyGraph of(Gedcom gedcom, XrefRegistry registry) {
+        Builder builder = new Builder(registry);
+        for (Family family : gedcom.getFamilies()) {
+            builder.add(family);
+        }
+        return builder.build();
+    }
+
+    public int getMaxPerson() {
+        return maxPerson;
+    }
+
+    public int getMaxFamily() {
+        return maxFamily;
+    }
+
+    /**
+     * @return The husbands and wives of a family, husbands first
+     */
+    public int[] getFamilyPartners(int family) {
+        return isFamily(family) ? slice(partnerOffsets, partners, family) : EMPTY;
+    }
+
+    public int[] getFamilyChildren(int family) {
+        return isFamily(family) ? slice(childOffsets, children, family) : EMPTY;
+    }
+
+    /**
+     * @return The families in which the person is a husband or a wife
+     */
+    public int[] getSpouseFamilies(int person) {
+        return isPerson(person) ? slice(spouseFamilyOffsets, spouseFamilies, person) : EMPTY;
+    }
+
+    /**
+     * @return The families in which the person is a child
+     */
+    public int[] getChildFamilies(int person) {
+        return isPerson(person) ? slice(childFamilyOffsets, childFamilies, person) : EMPTY;
+    }
+
+    /**
+     * @return The partners of all families in which the person is a child, without duplicates
+     */
+    public int[] getParents(int person) {
+        return isPerson(person) ? collect(childFamilyOffsets, childFamilies, partnerOffsets, partners, person, 0) : EMPTY;
+    }
+
+    /**
+     * @return The children of all families in which the person is a partner, without duplicates
+     */
+    public int[] getChildren(int person) {
+        return isPerson(person) ? collect(spouseFamilyOffsets, spouseFamilies, childOffsets, children, person, 0) : EMPTY;
+    }
+
+    /**
+     * @return The other partners of all families in which the person is a partner, without duplicates
+     */
+    public int[] getSpouses(int person) {
+        return isPerson(person) ? collect(spouseFamilyOffsets, spouseFamilies, partnerOffsets, partners, person, person) : EMPTY;
+    }
+
+    /**
+     * @return All ancestors up to the given amount of generations, nearest generations first
+     */
+    public int[] getAncestors(int person, int maxGenerations) {
+        return traversal().ancestors(person, maxGenerations);
+    }
+
+    /**
+     * @return All descendants up to the given amount of generations, nearest generations first
+     */
+    public int[] getDescendants(int person, int maxGenerations) {
+        return traversal().descendants(person, maxGenerations);
+    }
+
+    /**
+     * A traversal keeps its buffers between walks, so walking the ancestors of every person with the same
+     * traversal doesn't allocate anything but the results.
+     */
+    public Traversal traversal() {
+        return new Traversal();
+    }
+
+    private boolean isPerson(int person) {
+        return person > 0 && person <= maxPerson;
+    }
+
+    private boolean isFamily(int family) {
+        return family > 0 && family <= maxFamily;
+    }
+
+    private static int[] slice(int[] offsets, int[] values, int id) {
+        return Arrays.copyOfRange(values, offsets[id], offsets[id + 1]);
+    }
+
+    /**
+     * Collects the values of the families of a person, for example the partners of the families in which
+     * the person is a child.
+     */
+    private static int[] collect(int[] familyOffsets, int[] families, int[] valueOffsets, int[] values,
+                                 int person, int exclude) {
+        int from = familyOffsets[person];
+        int to = familyOffsets[person + 1];
+        if (from == to) {
+            return EMPTY;
+        }
+
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            size += valueOffsets[families[i] + 1] - valueOffsets[families[i]];
+        }
+        int[] result = new int[size];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            for (int j = valueOffsets[families[i]]; j < valueOffsets[families[i] + 1]; j++) {
+                int value = values[j];
+                if (value != exclude && !contains(result, count, value)) {
+                    result[count++] = value;
+                }
+            }
+        }
+        return count == size ? result : Arrays.copyOf(result, count);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turns the relation from families to people into the one from people to families, with a counting sort.
+     * The families of a person end up in increasing order.
+     */
+    private static void invert(int[] offsets, int[] values, int[] invertedOffsets, int[] inverted) {
+        for (int value : values) {
+            invertedOffsets[value + 1]++;
+        }
+        for (int i = 1; i < invertedOffsets.length; i++) {
+            invertedOffsets[i] += invertedOffsets[i - 1];
+        }
+
+        int[] next = Arrays.copyOf(invertedOffsets, invertedOffsets.length);
+        for (int family = 0; family + 1 < offsets.length; family++) {
+            for (int i = offsets[family]; i < offsets[family + 1]; i++) {
+                inverted[next[values[i]]++] = family;
+            }
+        }
+    }
+
+    /**
+     * Receives the people that are found while walking the graph.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * @param generation 1 for parents or children, 2 for grandparents or grandchildren, and so on
+         */
+        void visit(int person, int generation);
+    }
+
+    /**
+     * Walks ancestors or descendants breadth first, so every person is visited once, at the nearest generation
+     * it can be reached in, even when the same ancestor can be reached along several lines.
+     */
+    public final class Traversal {
+        private final int[] seen = new int[maxPerson + 1];
+        private int stamp = 0;
+        private int[] current = new int[16];
+        private int[] next = new int[16];
+        private int[] found = new int[16];
+        private int foundCount;
+        private final Visitor collector = this::add;
+
+        private Traversal() {
+        }
+
+        public int[] ancestors(int person, int maxGenerations) {
+            foundCount = 0;
+            walk(person, maxGenerations, true, collector);
+            return Arrays.copyOf(found, foundCount);
+        }
+
+        public int[] descendants(int person, int maxGenerations) {
+            foundCount = 0;
+            walk(person, maxGenerations, false, collector);
+            return Arrays.copyOf(found, foundCount);
+        }
+
+        public void ancestors(int person, int maxGenerations, Visitor visitor) {
+            walk(person, maxGenerations, true, visitor);
+        }
+
+        public void descendants(int person, int maxGenerations, Visitor visitor) {
+            walk(person, maxGenerations, false, visitor);
+        }
+
+        private void add(int person, int generation) {
+            if (foundCount == found.length) {
+                found = Arrays.copyOf(found, foundCount * 2);
+            }
+            found[foundCount++] = person;
+        }
+
+        private void walk(int person, int maxGenerations, boolean up, Visitor visitor) {
+            if (!isPerson(person)) {
+                return;
+            }
+            if (++stamp == 0) {
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+
+            int[] familyOffsets = up ? childFamilyOffsets : spouseFamilyOffsets;
+            int[] families = up ? childFamilies : spouseFamilies;
+            int[] valueOffsets = up ? partnerOffsets : childOffsets;
+            int[] values = up ? partners : children;
+
+            seen[person] = stamp;
+            current[0] = person;
+            int currentCount = 1;
+            for (int generation = 1; generation <= maxGenerations && currentCount > 0; generation++) {
+                int nextCount = 0;
+                for (int c = 0; c < currentCount; c++) {
+                    int from = current[c];
+                    for (int i = familyOffsets[from]; i < familyOffsets[from + 1]; i++) {
+                        int family = families[i];
+                        for (int j = valueOffsets[family]; j < valueOffsets[family + 1]; j++) {
+                            int relative = values[j];
+                            if (seen[relative] == stamp) {
+                                continue;
+                            }
+                            seen[relative] = stamp;
+                            if (nextCount == next.length) {
+                                next = Arrays.copyOf(next, nextCount * 2);
+                            }
+                            next[nextCount++] = relative;
+                            visitor.visit(relative, generation);
+                        }
+                    }
+                }
+
+                int[] swap = current;
+                current = next;
+                next = swap;
+                currentCount = nextCount;
+            }
+        }
+    }
+
+    /**
+     * Collects families one at a time, for example while streaming a Gedcom file. Ids of families must be
+     * unique, but don't have to be added in order.
+     */
+    public static class Builder {
+        private final XrefRegistry registry;
+        private int[] familyIds = new int[64];
+        private int[] partnerCounts = new int[64];
+        private int[] childCounts = new int[64];
+        private int[] partners = new int[128];
+        private int[] children = new int[128];
+        private int families = 0;
+        private int partnerCount = 0;
+        private int childCount = 0;
+        private int maxPerson = 0;
+        private int maxFamily = 0;
+
+        /**
+         * @param registry Used to look up the ids of the references when adding a {@link Family}
+         */
+        public Builder(XrefRegistry registry) {
+            this.registry = registry;
+        }
+
+        public Builder add(Family family) {
+            int id = registry.getId(RecordType.FAM, family.getId());
+            if (id == XrefRegistry.NONE) {
+                return this;
+            }
+
+            int[] partnerIds = new int[family.getHusbandRefs().size() + family.getWifeRefs().size()];
+            int count = 0;
+            count = addRefs(family.getHusbandRefs(), partnerIds, count);
+            count = addRefs(family.getWifeRefs(), partnerIds, count);
+
+            int[] childIds = new int[family.getChildRefs().size()];
+            int childIndex = 0;
+            for (ChildRef child : family.getChildRefs()) {
+                int childId = registry.getId(RecordType.INDI, child.getRef());
+                if (childId != XrefRegistry.NONE) {
+                    childIds[childIndex++] = childId;
+                }
+            }
+
+            return add(id, Arrays.copyOf(partnerIds, count), Arrays.copyOf(childIds, childIndex));
+        }
+
+        public Builder add(int family, int[] familyPartners, int[] familyChildren) {
+            if (family <= 0) {
+                throw new IllegalArgumentException("Invalid family id " + family);
+            }
+            if (families == familyIds.length) {
+                familyIds = Arrays.copyOf(familyIds, families * 2);
+                partnerCounts = Arrays.copyOf(partnerCounts, families * 2);
+                childCounts = Arrays.copyOf(childCounts, families * 2);
+            }
+            familyIds[families] = family;
+            partnerCounts[families] = familyPartners.length;
+            childCounts[families] = familyChildren.length;
+            families++;
+            maxFamily = Math.max(maxFamily, family);
+
+            partners = append(partners, partnerCount, familyPartners);
+            partnerCount += familyPartners.length;
+            children = append(children, childCount, familyChildren);
+            childCount += familyChildren.length;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If a family has been added more than once
+         */
+        public FamilyGraph build() {
+            int[] partnerOffsets = new int[maxFamily + 2];
+            int[] childOffsets = new int[maxFamily + 2];
+            long[] added = new long[Bits.words(maxFamily + 1)];
+            for (int i = 0; i < families; i++) {
+                if (Bits.isSet(added, familyIds[i], false)) {
+                    throw new IllegalArgumentException("Family " + familyIds[i] + " has been added more than once");
+                }
+                Bits.set(added, familyIds[i], false);
+                partnerOffsets[familyIds[i] + 1] = partnerCounts[i];
+                childOffsets[familyIds[i] + 1] = childCounts[i];
+            }
+            for (int i = 1; i < partnerOffsets.length; i++) {
+                partnerOffsets[i] += partnerOffsets[i - 1];
+                childOffsets[i] += childOffsets[i - 1];
+            }
+
+            // Families have been added in any order, so put their relations at their offsets
+            int[] sortedPartners = new int[partnerCount];
+            int[] sortedChildren = new int[childCount];
+            int partnerFrom = 0;
+            int childFrom = 0;
+            for (int i = 0; i < families; i++) {
+                System.arraycopy(partners, partnerFrom, sortedPartners, partnerOffsets[familyIds[i]], partnerCounts[i]);
+                System.arraycopy(children, childFrom, sortedChildren, childOffsets[familyIds[i]], childCounts[i]);
+                partnerFrom += partnerCounts[i];
+                childFrom += childCounts[i];
+            }
+
+            int people = Math.max(maxPerson, registry.getMaxId(RecordType.INDI));
+            return new FamilyGraph(people, maxFamily, partnerOffsets, sortedPartners, childOffsets, sortedChildren);
+        }
+
+        private int addRefs(List<SpouseRef> refs, int[] ids, int count) {
+            for (SpouseRef ref : refs) {
+                int person = registry.getId(RecordType.INDI, ref.getRef());
+                if (person != XrefRegistry.NONE) {
+                    ids[count++] = person;
+                }
+            }
+            return count;
+        }
+
+        private int[] append(int[] target, int size, int[] values) {
+            for (int value : values) {
+                if (value <= 0) {
+                    throw new IllegalArgumentException("Invalid person id " + value);
+                }
+                maxPerson = Math.max(maxPerson, value);
+            }
+            if (size + values.length > target.length) {
+                target = Arrays.copyOf(target, Math.max(target.length * 2, size + values.length));
+            }
+            System.arraycopy(values, 0, target, size, values.length);
+            return target;
+        }
+    }
+}
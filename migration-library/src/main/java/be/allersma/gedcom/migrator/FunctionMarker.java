@@ -4,15 +4,19 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folg.gedcom.model.Gedcom;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 /**
  * A field marker can be used to mark fields that have been read before.
@@ -30,106 +34,385 @@ public class FunctionMarker {
     }
 
     /**
-     * Setting ignoreNullFields to true is more costly performance-wise.
+     * Setting ignoreNullFields to true is more costly performance-wise, since every unmarked getter
+     * has to be invoked once per branch when creating a report.
      * @param ignoreNullFields When looking for unmarked items, ignore check on all getters that return
      *                         null. Also ignores empty {@link List}.
      */
     public static Branch<Gedcom> createMarkerTree(Gedcom gedcom, boolean ignoreNullFields) {
-        return new Branch<>(gedcom, "", ignoreNullFields);
+        return createMarkerTree(gedcom, Options.defaults().ignoreNullFields(ignoreNullFields));
+    }
+
+    public static Branch<Gedcom> createMarkerTree(Gedcom gedcom, Options options) {
+        PathCoverage coverage = new PathCoverage(options);
+        return new Branch<>(gedcom, coverage.node("", ClassMetadata.of(gedcom.getClass())));
+    }
+
+    /**
+     * Same as {@link FunctionMarker#getUnmarkedItems(Collection, ForkJoinPool)}, using the common pool.
+     */
+    public static List<String> getUnmarkedItems(Collection<? extends Branch<?>> branches) {
+        return getUnmarkedItems(branches, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Collects the unmarked items of many branches, like all people of a tree, without duplicates.
+     * The branches are checked in parallel. Once a function has been found unmarked in one branch,
+     * it is not evaluated again for the others, which saves most of the work when ignoring null fields.
+     * Branches that are not {@link Branch#isTracked()} are left out, which is logged.
+     * @return The unmarked items, in the order of the functions of the first branch.
+     */
+    public static List<String> getUnmarkedItems(Collection<? extends Branch<?>> branches, ForkJoinPool pool) {
+        Set<String> found = ConcurrentHashMap.newKeySet();
+        LongAdder untracked = new LongAdder();
+        pool.submit(() -> branches.parallelStream().forEach((Branch<?> branch) -> {
+            if (branch.node.isPerPath()) {
+                found.addAll(branch.node.getUnmarkedItems());
+                return;
+            } else if (!branch.tracked) {
+                untracked.increment();
+                return;
+            }
+            for (Leaf leaf : branch.node.getMetadata().getLeaves()) {
+                if (!found.contains(leaf.name) && branch.isUnmarkedItem(leaf)) {
+                    found.add(leaf.name);
+                }
+            }
+        })).join();
+
+        List<String> result = new ArrayList<>(found.size());
+        if (!branches.isEmpty()) {
+            Branch<?> first = branches.iterator().next();
+            for (Leaf leaf : first.node.getMetadata().getLeaves()) {
+                if (found.remove(leaf.name)) {
+                    result.add(leaf.name);
+                }
+            }
+        }
+        found.stream().sorted().forEach(result::add);
+        if (untracked.sum() > 0) {
+            logger.info("Sampled unmarked items: {} of {} branches have not been tracked", untracked.sum(),
+                    branches.size());
+        }
+        return result;
+    }
+
+    /**
+     * Checks a whole set of stored security hashes at once, for example at startup. This tells which
+     * calls to {@link Branch#markAll(String)} will be refused, before any record has been migrated.
+     * Paths are resolved from {@link Gedcom} using the declared return types of the functions.
+     * @param hashes Security hashes by path, as obtained from {@link Branch#getMarkAllHash()}
+     * @return The paths of which the hash is different, or which don't exist (anymore).
+     */
+    public static Set<String> validateMarkAllHashes(Map<String, String> hashes) {
+        Set<String> invalid = new TreeSet<>();
+        hashes.forEach((path, hash) -> {
+            ClassMetadata metadata = ClassMetadata.resolve(Gedcom.class, path);
+            if (metadata == null) {
+                logger.error("Path '{}' does not exist.", path);
+                invalid.add(path);
+            } else if (!metadata.getMarkAllHash(path).equals(hash)) {
+                logger.error("Hash of '{}' is different! Fields have changed.", path);
+                invalid.add(path);
+            }
+        });
+        return invalid;
+    }
+
+    /**
+     * Same as {@link FunctionMarker#validateMarkAllHashes(Map)}, with the paths as keys of the bundle.
+     */
+    public static Set<String> validateMarkAllHashes(ResourceBundle hashes) {
+        Map<String, String> map = new HashMap<>();
+        for (String path : hashes.keySet()) {
+            map.put(path, hashes.getString(path));
+        }
+        return validateMarkAllHashes(map);
+    }
+
+    /**
+     * Settings of a marker tree. Options are immutable, every setter returns a new instance.
+     */
+    public static final class Options {
+        private final boolean ignoreNullFields;
+        private final boolean perPath;
+        private final boolean concurrent;
+        private final double sampleFraction;
+        private final int sampleFirst;
+
+        private Options(boolean ignoreNullFields, boolean perPath, boolean concurrent, double sampleFraction,
+                        int sampleFirst) {
+            this.ignoreNullFields = ignoreNullFields;
+            this.perPath = perPath;
+            this.concurrent = concurrent;
+            this.sampleFraction = sampleFraction;
+            this.sampleFirst = sampleFirst;
+        }
+
+        public static Options defaults() {
+            return new Options(false, false, false, 1, 0);
+        }
+
+        /**
+         * @see FunctionMarker#createMarkerTree(Gedcom, boolean)
+         */
+        public Options ignoreNullFields(boolean ignoreNullFields) {
+            return new Options(ignoreNullFields, perPath, concurrent, sampleFraction, sampleFirst);
+        }
+
+        /**
+         * By default every branch keeps its own marks, so the unmarked items have to be collected from all
+         * branches. When marking per path, all branches at the same path, like <code>/getPeople</code>,
+         * share their marks in a {@link PathCoverage}. This uses far less memory for large trees, and the
+         * report can be taken from {@link Branch#getCoverage()} directly. Branches of list elements are then
+         * no longer cached, since they don't hold any state.
+         */
+        public Options perPath(boolean perPath) {
+            return new Options(ignoreNullFields, perPath, concurrent, sampleFraction, sampleFirst);
+        }
+
+        /**
+         * Makes the tree safe to use from several threads, for example when walking <code>getPeople</code>
+         * with a parallel stream. Marks are set atomically and the counters of {@link PathCoverage} are
+         * striped per thread and summed when reading them. This costs a little on every mark, so only
+         * enable it when the tree is actually shared between threads.
+         */
+        public Options concurrent(boolean concurrent) {
+            return new Options(ignoreNullFields, perPath, concurrent, sampleFraction, sampleFirst);
+        }
+
+        /**
+         * Only tracks some of the records at every path: the first records, and an evenly spread fraction of
+         * the records after those. The first record of every class at a path is always tracked. Records that
+         * are not tracked can be used as always, but the functions invoked on them are not counted nor marked,
+         * which saves most of the cost of a marker tree. Reports then only cover the tracked records, see
+         * {@link PathCoverage#isSampled()}.
+         * @param fraction Of the records after the first ones, between 0 and 1. With 1 all records are tracked.
+         * @param first How many records at every path are tracked before sampling starts
+         */
+        public Options sample(double fraction, int first) {
+            if (!(fraction >= 0 && fraction <= 1)) {
+                throw new IllegalArgumentException("The fraction must be between 0 and 1, got " + fraction);
+            }
+            if (first < 0) {
+                throw new IllegalArgumentException("The amount of first records can't be negative, got " + first);
+            }
+            return new Options(ignoreNullFields, perPath, concurrent, fraction, first);
+        }
+
+        public boolean isIgnoreNullFields() {
+            return ignoreNullFields;
+        }
+
+        public boolean isPerPath() {
+            return perPath;
+        }
+
+        public boolean isConcurrent() {
+            return concurrent;
+        }
+
+        public boolean isSampled() {
+            return sampleFraction < 1;
+        }
+
+        public double getSampleFraction() {
+            return sampleFraction;
+        }
+
+        public int getSampleFirst() {
+            return sampleFirst;
+        }
     }
 
     public static class Branch<T> {
+        private static final VarHandle PRESENCE;
+
+        static {
+            try {
+                PRESENCE = MethodHandles.lookup().findVarHandle(Branch.class, "presence", long[].class);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
         T value;
-        private final boolean ignoreNullFields;
-        private final List<Leaf> leaves;
-        private final String path;
+        private final PathNode node;
+        private final boolean tracked;
+        private final long[] marks;
+        private long[] presence;
 
-        private Branch(T value, String path, boolean ignoreNullFields) {
+        /**
+         * Creates a branch, and records it at its node.
+         */
+        Branch(T value, PathNode node) {
+            this(value, node, node.record(value));
+        }
+
+        /**
+         * Creates a branch for a value that has been recorded before, see {@link PathNode#record(Object)}.
+         */
+        Branch(T value, PathNode node, boolean tracked) {
             this.value = value;
-            this.path = path.isEmpty() ? "" : "/" + path;
-            this.ignoreNullFields = ignoreNullFields;
-            this.leaves = Arrays.stream(value.getClass().getMethods())
-                    .map(Leaf::new)
-                    .collect(Collectors.toList());
+            this.node = node;
+            this.tracked = tracked;
+            this.marks = node.isPerPath() || !tracked ? null : new long[node.getMetadata().getMarkWords()];
         }
 
         public Optional<Object> invoke(String name, Object... args) {
-            List<Leaf> match = leaves.stream()
-                    .filter(leaf -> name.equals(leaf.name))
-                    .collect(Collectors.toList());
+            Leaf leaf = node.getMetadata().find(name);
+            if (leaf == null) {
+                return Optional.empty();
+            }
 
-            if (match.isEmpty()) {
+            try {
+                return Optional.ofNullable(wrap(leaf, leaf.invoke(value, args)));
+            } catch (IllegalAccessException | InvocationTargetException e) {
                 return Optional.empty();
             }
+        }
 
-            if (match.size() > 1) {
-                logger.warn("More than one match found. Should never happen. Taking first one ...");
+        /**
+         * Same as {@link Branch#invoke(String, Object...)} for functions without arguments, but without
+         * wrapping the result in an {@link Optional}. Use this in hot loops.
+         * @return The (wrapped) result, or null if the function doesn't exist, failed or returned null.
+         */
+        @SuppressWarnings("unchecked")
+        public <R> R get(String name) {
+            Leaf leaf = node.getMetadata().find(name);
+            if (leaf == null) {
+                return null;
             }
 
             try {
-                Object result = match.get(0).method.invoke(value, args);
-                match.get(0).marked = true;
-                if ("org.folg.gedcom.model".equals(match.get(0).method.getReturnType().getPackageName())) {
-                    return Optional.of(new Branch<>(result, getPath() + match.get(0).name, ignoreNullFields));
-                } else if ("java.util.List".equals(match.get(0).method.getReturnType().getName())) {
-                    Type[] actualType = ((ParameterizedType)match.get(0).method.getGenericReturnType()).getActualTypeArguments();
-                    if (actualType.length == 1 && actualType[0].getTypeName() != null) {
-                        if (actualType[0].getTypeName().startsWith("org.folg.gedcom.model")) {
-                            return Optional.of(
-                                    ((List)result).stream()
-                                            .map(entry -> new Branch<>(entry, getPath() + match.get(0).name, ignoreNullFields))
-                                            .collect(Collectors.toList())
-                            );
-                        } else {
-                            return Optional.of(result);
-                        }
-                    } else {
-                        logger.error("Expected only one actual type argument. Got {}.", actualType.length);
-                        return Optional.empty();
-                    }
-                } else {
-                    return Optional.of(result);
+                return (R) wrap(leaf, leaf.invoke(value));
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Streams the elements of a function that returns a list of Gedcom model objects. Every element is
+         * wrapped in a new branch when the stream reaches it, and dropped again afterwards. So different from
+         * {@link Branch#invoke(String, Object...)}, marks made on the streamed branches are not kept by this branch.
+         * @return The streamed branches, or an empty stream if the function doesn't return a list of model objects.
+         */
+        @SuppressWarnings("unchecked")
+        public <E> Stream<Branch<E>> stream(String name) {
+            Leaf leaf = node.getMetadata().find(name);
+            if (leaf == null || leaf.kind != Leaf.Kind.MODEL_LIST) {
+                return Stream.empty();
+            }
+
+            try {
+                Object result = leaf.invoke(value);
+                hit(leaf, result);
+                if (result == null) {
+                    return Stream.empty();
                 }
+                return new BranchList<>((List<E>)result, node, leaf, false).stream();
             } catch (IllegalAccessException | InvocationTargetException e) {
-                return Optional.empty();
+                return Stream.empty();
+            }
+        }
+
+        private Object wrap(Leaf leaf, Object result) {
+            hit(leaf, result);
+            if (result == null) {
+                return null;
+            }
+
+            switch (leaf.kind) {
+                case MODEL_OBJECT:
+                    return new Branch<>(result, node.child(leaf, result.getClass()));
+                case MODEL_LIST:
+                    return new BranchList<>((List<?>)result, node, leaf, !node.isPerPath());
+                case INVALID:
+                    logger.error("Expected only one actual type argument for '{}'.", leaf.name);
+                    return null;
+                default:
+                    return result;
+            }
+        }
+
+        private void hit(Leaf leaf, Object result) {
+            if (tracked) {
+                node.hit(leaf, result);
+                mark(leaf);
             }
         }
 
+        /**
+         * When marking per path, this gives the unmarked items of all tracked branches at the path of this branch.
+         * Otherwise, a branch that is not tracked has no unmarked items.
+         */
         public List<String> getUnmarkedItems() {
-            if (!ignoreNullFields) {
-                return leaves.stream()
-                        .filter(leaf -> !leaf.marked)
-                        .map(leaf -> leaf.name)
-                        .collect(Collectors.toList());
-            } else {
-                return leaves.stream()
-                        .filter(leaf -> !leaf.marked)
-                        .filter(leaf -> leaf.method.getParameterCount() == 0)
-                        .filter(getter -> {
-                            try {
-                                return getter.method.invoke(value) != null;
-                            } catch (IllegalAccessException | InvocationTargetException e) {
-                                return false;
-                            }
-                        })
-                        .filter(getter -> {
-                            if ("java.util.List".equals(getter.method.getReturnType().getName())) {
-                                try {
-                                    return !((List<?>)getter.method.invoke(value)).isEmpty();
-                                } catch (IllegalAccessException | InvocationTargetException e) {
-                                    return false;
-                                }
-                            } else {
-                                return true;
-                            }
-                        })
-                        .map(getter -> getter.name)
-                        .collect(Collectors.toList());
+            if (node.isPerPath()) {
+                return node.getUnmarkedItems();
+            }
+            if (!tracked) {
+                return new ArrayList<>();
+            }
+
+            List<String> result = new ArrayList<>();
+            for (Leaf leaf : node.getMetadata().getLeaves()) {
+                if (isUnmarkedItem(leaf)) {
+                    result.add(leaf.name);
+                }
             }
+            return result;
+        }
+
+        private boolean isUnmarkedItem(Leaf leaf) {
+            return !isMarked(leaf) && (!node.getOptions().isIgnoreNullFields() || isPresent(leaf));
+        }
+
+        /**
+         * Every getter is evaluated at most once per branch, the outcome is kept for later reports.
+         * The first half of {@link Branch#presence} tells which getters have been evaluated,
+         * the second half which of them returned a value.
+         */
+        private boolean isPresent(Leaf leaf) {
+            int words = node.getMetadata().getMarkWords();
+            boolean concurrent = node.isConcurrent();
+            long[] cache = presence;
+            if (cache == null) {
+                long[] created = new long[words * 2];
+                cache = concurrent ? (long[]) PRESENCE.compareAndExchange(this, null, created) : null;
+                if (cache == null) {
+                    cache = created;
+                    presence = created;
+                }
+            }
+
+            int present = (words << 6) + leaf.index;
+            if (!Bits.isSet(cache, leaf.index, concurrent)) {
+                // The outcome is stored before the evaluated bit, so other threads never see one without the other.
+                if (leaf.isPresentOn(value)) {
+                    Bits.set(cache, present, concurrent);
+                }
+                Bits.set(cache, leaf.index, concurrent);
+            }
+            return Bits.isSet(cache, present, concurrent);
         }
 
         public String getPath() {
-            return this.path;
+            return node.getPath();
+        }
+
+        /**
+         * @return Whether the functions of this branch are counted and marked, which is always the case unless the
+         * tree only tracks a sample, see {@link Options#sample(double, int)}
+         */
+        public boolean isTracked() {
+            return tracked;
+        }
+
+        /**
+         * @return The usage statistics of the whole tree this branch belongs to.
+         */
+        public PathCoverage getCoverage() {
+            return node.getCoverage();
         }
 
         /**
@@ -156,7 +439,9 @@ public class FunctionMarker {
                 return;
             }
 
-            leaves.forEach(leaf -> leaf.marked = true);
+            for (Leaf leaf : node.getMetadata().getLeaves()) {
+                mark(leaf);
+            }
         }
 
         /**
@@ -164,25 +449,7 @@ public class FunctionMarker {
          * @return An SHA-512 Hash
          */
         public String getMarkAllHash() {
-            MessageDigest digest;
-            try {
-                digest = MessageDigest.getInstance("SHA-512");
-            } catch (NoSuchAlgorithmException e) {
-                logger.error("Unable to create digest. This should never happen!");
-                throw new RuntimeException(e);
-            }
-
-            String input = getPath() + leaves.stream().map(leaf -> leaf.name).collect(Collectors.joining());
-            byte[] hashedLeaves = digest.digest(input.getBytes());
-            BigInteger hashRepresentation = new BigInteger(1, hashedLeaves);
-            StringBuilder hash = new StringBuilder(hashRepresentation.toString(16));
-
-            // Add preceding 0s to make it 32 bit
-            while (hash.length() < 32) {
-                hash.insert(0, "0");
-            }
-
-            return hash.toString();
+            return node.getMarkAllHash();
         }
 
         /**
@@ -191,13 +458,30 @@ public class FunctionMarker {
          * @param function The name of the function
          */
         public Branch<T> mark(String function) {
-            leaves.stream()
-                    .filter(leaf -> function.equals(leaf.name))
-                    .forEach(leaf -> leaf.marked = true);
+            for (Leaf leaf : node.getMetadata().findAll(function)) {
+                mark(leaf);
+            }
 
             return this;
         }
 
+        private void mark(Leaf leaf) {
+            if (!tracked) {
+                return;
+            } else if (marks == null) {
+                node.mark(leaf);
+            } else {
+                Bits.set(marks, leaf.index, node.isConcurrent());
+            }
+        }
+
+        private boolean isMarked(Leaf leaf) {
+            if (marks == null) {
+                return node.isMarked(leaf);
+            }
+            return Bits.isSet(marks, leaf.index, node.isConcurrent());
+        }
+
         /**
          * Only get the value when you really need it. Usually {@link Branch#invoke(String, Object...)}
          * should do the job.
@@ -207,15 +491,164 @@ public class FunctionMarker {
         }
     }
 
+    /**
+     * A public method of a class. Leaves are created once per class and shared by all branches
+     * of that class, see {@link ClassMetadata}. Whether a leaf has been marked is stored in the branch,
+     * or in the {@link PathCoverage} when marking per path.
+     */
     public static class Leaf {
-        Method method;
-        String name;
-        boolean marked;
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType SPREADER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+        final Method method;
+        final String name;
+        final int index;
+        final Kind kind;
+        final Class<?> modelType;
+        final boolean returnsList;
+        private final MethodHandle getter;
+        private final MethodHandle spreader;
 
-        private Leaf(Method method) {
+        Leaf(Method method, int index) {
             this.method = method;
             this.name = method.getName();
-            this.marked = false;
+            this.index = index;
+            this.kind = Kind.of(method);
+            this.modelType = modelType(method, kind);
+            this.returnsList = "java.util.List".equals(method.getReturnType().getName());
+
+            MethodHandle handle;
+            try {
+                handle = MethodHandles.publicLookup().unreflect(method).asFixedArity();
+            } catch (IllegalAccessException e) {
+                // Declared in a class that is not public. Invoking will fail the same way it did with reflection.
+                handle = null;
+            }
+            this.getter = handle != null && method.getParameterCount() == 0 ? handle.asType(GETTER_TYPE) : null;
+            this.spreader = handle != null
+                    ? handle.asSpreader(Object[].class, method.getParameterCount()).asType(SPREADER_TYPE)
+                    : null;
+        }
+
+        /**
+         * @return The declared class of the model object or list element, or null when not returning model objects.
+         */
+        private static Class<?> modelType(Method method, Kind kind) {
+            if (kind == Kind.MODEL_OBJECT) {
+                return method.getReturnType();
+            } else if (kind == Kind.MODEL_LIST) {
+                Type element = ((ParameterizedType)method.getGenericReturnType()).getActualTypeArguments()[0];
+                return element instanceof Class ? (Class<?>) element : null;
+            }
+            return null;
+        }
+
+        boolean isGetter() {
+            return method.getParameterCount() == 0;
+        }
+
+        /**
+         * @return Whether this is a getter that returns something other than null or an empty {@link List}
+         */
+        boolean isPresentOn(Object target) {
+            if (!isGetter()) {
+                return false;
+            }
+
+            try {
+                Object result = invoke(target);
+                if (result == null) {
+                    return false;
+                }
+                return !returnsList || !((List<?>)result).isEmpty();
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Same as {@link Method#invoke(Object, Object...)}: whatever the function throws is wrapped in an
+         * {@link InvocationTargetException}, except for errors.
+         */
+        Object invoke(Object target) throws IllegalAccessException, InvocationTargetException {
+            if (getter == null) {
+                return method.invoke(target);
+            }
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+
+        /**
+         * @throws IllegalArgumentException If the arguments don't fit the parameters of the function
+         */
+        Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+            if (args.length == 0 && isGetter()) {
+                return invoke(target);
+            }
+            if (spreader == null) {
+                return method.invoke(target, args);
+            }
+            checkArguments(args);
+            try {
+                return (Object) spreader.invokeExact(target, args);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+
+        /**
+         * The spreader would throw a {@link ClassCastException} for wrong arguments, which can't be told apart from
+         * one thrown by the function itself, so the arguments are checked up front.
+         */
+        private void checkArguments(Object[] args) {
+            Class<?>[] types = method.getParameterTypes();
+            if (args.length != types.length) {
+                throw new IllegalArgumentException("'" + name + "' expects " + types.length + " arguments, got "
+                        + args.length);
+            }
+            for (int i = 0; i < types.length; i++) {
+                if (args[i] == null ? types[i].isPrimitive()
+                        : !MethodType.methodType(types[i]).wrap().returnType().isInstance(args[i])) {
+                    throw new IllegalArgumentException("Argument " + i + " of '" + name + "' is not a "
+                            + types[i].getName());
+                }
+            }
+        }
+
+        /**
+         * Tells what {@link Branch#invoke(String, Object...)} should do with the return value of a leaf.
+         */
+        enum Kind {
+            /** A Gedcom model object, which is wrapped in a new branch. */
+            MODEL_OBJECT,
+            /** A list of Gedcom model objects, of which every element is wrapped in a new branch. */
+            MODEL_LIST,
+            /** A list of which the element type could not be determined. */
+            INVALID,
+            /** Any other value, which is returned as is. */
+            VALUE;
+
+            static Kind of(Method method) {
+                if (ClassMetadata.MODEL_PACKAGE.equals(method.getReturnType().getPackageName())) {
+                    return MODEL_OBJECT;
+                } else if ("java.util.List".equals(method.getReturnType().getName())
+                        && method.getGenericReturnType() instanceof ParameterizedType) {
+                    Type[] actualType = ((ParameterizedType)method.getGenericReturnType()).getActualTypeArguments();
+                    if (actualType.length != 1 || actualType[0].getTypeName() == null) {
+                        return INVALID;
+                    }
+                    return actualType[0].getTypeName().startsWith(ClassMetadata.MODEL_PACKAGE) ? MODEL_LIST : VALUE;
+                } else {
+                    return VALUE;
+                }
+            }
         }
     }
 }
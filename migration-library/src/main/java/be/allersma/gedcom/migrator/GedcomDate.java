@@ -0,0 +1,551 @@
+package be.allersma.gedcom.migrator;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Gedcom 5.5.1 date value as the range of days it can be, in Julian day numbers: the days since 1 January
+ * 4713 BC in the Julian calendar, which is the same day in every calendar. "12 JAN 1799" is a single day,
+ * "1799" is every day of that year and "BET 1801 AND 1805" runs from the first day of 1801 to the last day of
+ * 1805, so dates of any kind can be compared and sorted as numbers.
+ * <p>
+ * Dates in the Gregorian, Julian, Hebrew and French republican calendars are understood, as are the modifiers
+ * ABT, CAL, EST, BEF, AFT, BET ... AND, FROM ... TO and INT. "BEF" and "TO" have no lower bound, "AFT" and
+ * "FROM" without "TO" have no upper bound. Approximate dates keep the range of the date itself: "ABT 1850" is
+ * 1850, and {@link GedcomDate#getModifier()} tells that it is not exact.
+ */
+public final class GedcomDate implements Comparable<GedcomDate> {
+    /**
+     * The lower bound of a date that has none, like "BEF 1850".
+     */
+    public static final int NO_LOWER = Integer.MIN_VALUE;
+    /**
+     * The upper bound of a date that has none, like "AFT 1850".
+     */
+    public static final int NO_UPPER = Integer.MAX_VALUE;
+    private static final int CACHE_SIZE = 1 << 16;
+    private static final Map<String, Optional<GedcomDate>> cache = new ConcurrentHashMap<>();
+
+    private final int lower;
+    private final int upper;
+    private final Precision precision;
+    private final Modifier modifier;
+
+    /**
+     * How exact the dates in a value are. For a range, the least exact of both ends.
+     */
+    public enum Precision {
+        DAY, MONTH, YEAR
+    }
+
+    public enum Modifier {
+        EXACT, ABOUT, CALCULATED, ESTIMATED, BEFORE, AFTER, BETWEEN, FROM, TO, FROM_TO, INTERPRETED
+    }
+
+    GedcomDate(int lower, int upper, Precision precision, Modifier modifier) {
+        this.lower = lower;
+        this.upper = upper;
+        this.precision = precision;
+        this.modifier = modifier;
+    }
+
+    /**
+     * Parses a date value. Values that are parsed often, like the years that many events have in common, are
+     * parsed once: the results of the first {@value CACHE_SIZE} different values are kept.
+     * @return The date, or empty if the value is null, only a phrase like "(in the war)", or not a valid date
+     */
+    public static Optional<GedcomDate> parse(String value) {
+        if (value == null) {
+            return Optional.empty();
+        }
+        Optional<GedcomDate> result = cache.get(value);
+        if (result == null) {
+            result = parseUncached(value);
+            if (cache.size() < CACHE_SIZE) {
+                cache.put(value, result);
+            }
+        }
+        return result;
+    }
+
+    static Optional<GedcomDate> parseUncached(String value) {
+        List<String> tokens = tokenize(value);
+        if (tokens.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String first = tokens.get(0);
+        List<String> rest = tokens.subList(1, tokens.size());
+        switch (first) {
+            case "ABT":
+                return single(rest, Modifier.ABOUT);
+            case "CAL":
+                return single(rest, Modifier.CALCULATED);
+            case "EST":
+                return single(rest, Modifier.ESTIMATED);
+            case "INT":
+                return single(rest, Modifier.INTERPRETED);
+            case "BEF":
+                return single(rest, Modifier.BEFORE)
+                        .map(date -> new GedcomDate(NO_LOWER, date.lower - 1, date.precision, Modifier.BEFORE));
+            case "AFT":
+                return single(rest, Modifier.AFTER)
+                        .map(date -> new GedcomDate(date.upper + 1, NO_UPPER, date.precision, Modifier.AFTER));
+            case "TO":
+                return single(rest, Modifier.TO)
+                        .map(date -> new GedcomDate(NO_LOWER, date.upper, date.precision, Modifier.TO));
+            case "BET":
+                return pair(rest, "AND", Modifier.BETWEEN);
+            case "FROM":
+                return rest.contains("TO")
+                        ? pair(rest, "TO", Modifier.FROM_TO)
+                        : single(rest, Modifier.FROM)
+                                .map(date -> new GedcomDate(date.lower, NO_UPPER, date.precision, Modifier.FROM));
+            default:
+                return single(tokens, Modifier.EXACT);
+        }
+    }
+
+    /**
+     * @return The first day it can be, or {@link GedcomDate#NO_LOWER}
+     */
+    public int getLower() {
+        return lower;
+    }
+
+    /**
+     * @return The last day it can be, or {@link GedcomDate#NO_UPPER}
+     */
+    public int getUpper() {
+        return upper;
+    }
+
+    public boolean hasLower() {
+        return lower != NO_LOWER;
+    }
+
+    public boolean hasUpper() {
+        return upper != NO_UPPER;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public Modifier getModifier() {
+        return modifier;
+    }
+
+    /**
+     * @return The Julian day number of a day in the Gregorian calendar, with 0 for 1 BC, -1 for 2 BC and so on
+     */
+    public static int julianDay(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay() + 2_440_588);
+    }
+
+    /**
+     * @return The day in the Gregorian calendar of a Julian day number
+     */
+    public static LocalDate toLocalDate(int julianDay) {
+        return LocalDate.ofEpochDay(julianDay - 2_440_588L);
+    }
+
+    /**
+     * Earlier dates come first. Dates without a lower bound come before those with one, and of two dates that
+     * start on the same day, the shorter one comes first.
+     */
+    @Override
+    public int compareTo(GedcomDate other) {
+        int result = Integer.compare(lower, other.lower);
+        return result != 0 ? result : Integer.compare(upper, other.upper);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GedcomDate)) {
+            return false;
+        }
+        GedcomDate other = (GedcomDate) o;
+        return lower == other.lower && upper == other.upper && precision == other.precision
+                && modifier == other.modifier;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lower, upper, precision, modifier);
+    }
+
+    @Override
+    public String toString() {
+        return modifier + " " + (hasLower() ? toLocalDate(lower) : "") + ".." + (hasUpper() ? toLocalDate(upper) : "")
+                + " (" + precision + ")";
+    }
+
+    /**
+     * Splits a value on whitespace, in upper case. A calendar escape like "@#DFRENCH R@" is a single token, and
+     * a phrase in parentheses ends the value.
+     */
+    private static List<String> tokenize(String value) {
+        List<String> tokens = new ArrayList<>();
+        String upper = value.toUpperCase(Locale.ROOT);
+        int i = 0;
+        while (i < upper.length()) {
+            char c = upper.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                break;
+            } else {
+                int end = i;
+                if (upper.startsWith("@#", i)) {
+                    end = upper.indexOf('@', i + 2);
+                    end = end < 0 ? upper.length() : end + 1;
+                } else {
+                    while (end < upper.length() && !Character.isWhitespace(upper.charAt(end)) && upper.charAt(end) != '(') {
+                        end++;
+                    }
+                }
+                tokens.add(upper.substring(i, end));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+
+    private static Optional<GedcomDate> single(List<String> tokens, Modifier modifier) {
+        return date(tokens).map(date -> new GedcomDate(date.lower, date.upper, date.precision, modifier));
+    }
+
+    /**
+     * Two dates separated by a keyword, like "1801 AND 1805". Dates in the wrong order are swapped.
+     */
+    private static Optional<GedcomDate> pair(List<String> tokens, String separator, Modifier modifier) {
+        int index = tokens.indexOf(separator);
+        if (index < 0) {
+            return Optional.empty();
+        }
+        Optional<GedcomDate> from = date(tokens.subList(0, index));
+        Optional<GedcomDate> to = date(tokens.subList(index + 1, tokens.size()));
+        if (from.isEmpty() || to.isEmpty()) {
+            return Optional.empty();
+        }
+        GedcomDate a = from.get();
+        GedcomDate b = to.get();
+        Precision precision = a.precision.compareTo(b.precision) >= 0 ? a.precision : b.precision;
+        return Optional.of(new GedcomDate(Math.min(a.lower, b.lower), Math.max(a.upper, b.upper), precision, modifier));
+    }
+
+    /**
+     * A date without a modifier: an optional calendar escape, then a year, a month and a year, or a day, a month
+     * and a year. A year may be followed by B.C., and a Gregorian year may be a dual year like 1699/00.
+     */
+    private static Optional<GedcomDate> date(List<String> tokens) {
+        Calendar calendar = Calendar.GREGORIAN;
+        int start = 0;
+        if (!tokens.isEmpty() && tokens.get(0).startsWith("@#")) {
+            calendar = Calendar.of(tokens.get(0));
+            if (calendar == null) {
+                return Optional.empty();
+            }
+            start = 1;
+        }
+        int end = tokens.size();
+        boolean beforeChrist = end > start && isBeforeChrist(tokens.get(end - 1));
+        if (beforeChrist) {
+            end--;
+        }
+        int count = end - start;
+        if (count < 1 || count > 3) {
+            return Optional.empty();
+        }
+
+        int year = year(tokens.get(end - 1), calendar == Calendar.GREGORIAN);
+        if (year == Integer.MIN_VALUE || (beforeChrist && !calendar.hasEras())) {
+            return Optional.empty();
+        }
+        if (beforeChrist) {
+            year = 1 - year;
+        }
+
+        if (count == 1) {
+            return range(calendar, year, 1, calendar.monthsInYear(), Precision.YEAR);
+        }
+        int month = calendar.month(tokens.get(end - 2));
+        if (month == 0 || !calendar.isValidYear(year) || calendar.daysInMonth(year, month) == 0) {
+            return Optional.empty();
+        }
+        if (count == 2) {
+            return range(calendar, year, month, month, Precision.MONTH);
+        }
+        int day = number(tokens.get(start));
+        if (day < 1 || day > calendar.daysInMonth(year, month)) {
+            return Optional.empty();
+        }
+        int julianDay = calendar.julianDay(year, month, day);
+        return Optional.of(new GedcomDate(julianDay, julianDay, Precision.DAY, Modifier.EXACT));
+    }
+
+    /**
+     * From the first day of a month until the last day of another month of the same year.
+     */
+    private static Optional<GedcomDate> range(Calendar calendar, int year, int firstMonth, int lastMonth,
+                                              Precision precision) {
+        if (!calendar.isValidYear(year)) {
+            return Optional.empty();
+        }
+        return Optional.of(new GedcomDate(calendar.julianDay(year, firstMonth, 1),
+                calendar.julianDay(year, lastMonth, calendar.daysInMonth(year, lastMonth)), precision, Modifier.EXACT));
+    }
+
+    private static boolean isBeforeChrist(String token) {
+        return token.equals("B.C.") || token.equals("BC") || token.equals("B.C");
+    }
+
+    /**
+     * @return The year, where 1699/00 is 1700, or {@link Integer#MIN_VALUE} if it is not a year
+     */
+    private static int year(String token, boolean allowDual) {
+        int slash = token.indexOf('/');
+        if (slash < 0) {
+            int year = number(token);
+            return year < 0 ? Integer.MIN_VALUE : year;
+        }
+        if (!allowDual) {
+            return Integer.MIN_VALUE;
+        }
+        int year = number(token.substring(0, slash));
+        int next = number(token.substring(slash + 1));
+        if (year < 0 || next < 0 || next != (year + 1) % 100) {
+            return Integer.MIN_VALUE;
+        }
+        return year + 1;
+    }
+
+    /**
+     * @return The value of a number of at most 6 digits, or -1 if the token is not one
+     */
+    private static int number(String token) {
+        if (token.isEmpty() || token.length() > 6) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * The calendars of Gedcom 5.5.1. Months are numbered from 1, in the order of the Gedcom standard.
+     */
+    enum Calendar {
+        GREGORIAN("@#DGREGORIAN@", "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC") {
+            @Override
+            int daysInMonth(int year, int month) {
+                return month == 2 && isLeapYear(year) ? 29 : DAYS_IN_MONTH[month - 1];
+            }
+
+            boolean isLeapYear(int year) {
+                return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+            }
+
+            @Override
+            int julianDay(int year, int month, int day) {
+                return GedcomDate.julianDay(LocalDate.of(year, month, day));
+            }
+        },
+        JULIAN("@#DJULIAN@", GREGORIAN.months) {
+            @Override
+            int daysInMonth(int year, int month) {
+                return month == 2 && Math.floorMod(year, 4) == 0 ? 29 : DAYS_IN_MONTH[month - 1];
+            }
+
+            @Override
+            int julianDay(int year, int month, int day) {
+                int a = (14 - month) / 12;
+                int y = year + 4800 - a;
+                int m = month + 12 * a - 3;
+                return day + (153 * m + 2) / 5 + 365 * y + Math.floorDiv(y, 4) - 32083;
+            }
+        },
+        /**
+         * Years start with Tishri. ADR is the first Adar in a leap year, and ADS, the second Adar, only has days
+         * in a leap year.
+         */
+        HEBREW("@#DHEBREW@", "TSH", "CSH", "KSL", "TVT", "SHV", "ADR", "ADS", "NSN", "IYR", "SVN", "TMZ", "AAV", "ELL") {
+            @Override
+            boolean hasEras() {
+                return false;
+            }
+
+            @Override
+            boolean isValidYear(int year) {
+                return year >= 1;
+            }
+
+            @Override
+            int daysInMonth(int year, int month) {
+                switch (month) {
+                    case 2:
+                        return daysInYear(year) % 10 == 5 ? 30 : 29;
+                    case 3:
+                        return daysInYear(year) % 10 == 3 ? 29 : 30;
+                    case 6:
+                        return isLeapYear(year) ? 30 : 29;
+                    case 7:
+                        return isLeapYear(year) ? 29 : 0;
+                    case 1:
+                    case 5:
+                    case 8:
+                    case 10:
+                    case 12:
+                        return 30;
+                    default:
+                        return 29;
+                }
+            }
+
+            @Override
+            int julianDay(int year, int month, int day) {
+                int result = newYear(year) + day - 1;
+                for (int m = 1; m < month; m++) {
+                    result += daysInMonth(year, m);
+                }
+                return result;
+            }
+
+            boolean isLeapYear(int year) {
+                return Math.floorMod(7 * year + 1, 19) < 7;
+            }
+
+            int daysInYear(int year) {
+                return newYear(year + 1) - newYear(year);
+            }
+
+            /**
+             * The Julian day number of 1 Tishri, following "Calendrical Calculations" by Reingold and Dershowitz.
+             */
+            int newYear(int year) {
+                int elapsed = elapsedDays(year);
+                int correction;
+                if (elapsedDays(year + 1) - elapsed == 356) {
+                    correction = 2;
+                } else if (elapsed - elapsedDays(year - 1) == 382) {
+                    correction = 1;
+                } else {
+                    correction = 0;
+                }
+                return HEBREW_EPOCH + elapsed + correction;
+            }
+
+            int elapsedDays(int year) {
+                long months = Math.floorDiv(235L * year - 234, 19);
+                long parts = 12084 + 13753 * months;
+                long days = 29 * months + Math.floorDiv(parts, 25920);
+                return (int) (Math.floorMod(3 * (days + 1), 7) < 3 ? days + 1 : days);
+            }
+        },
+        /**
+         * Twelve months of 30 days and five or six complementary days, starting on 22 September 1792. The
+         * complementary days have the month COMP.
+         */
+        FRENCH_R("@#DFRENCH R@", "VEND", "BRUM", "FRIM", "NIVO", "PLUV", "VENT", "GERM", "FLOR", "PRAI", "MESS",
+                "THER", "FRUC", "COMP") {
+            @Override
+            boolean hasEras() {
+                return false;
+            }
+
+            @Override
+            boolean isValidYear(int year) {
+                return year >= 1;
+            }
+
+            @Override
+            int daysInMonth(int year, int month) {
+                if (month < 13) {
+                    return 30;
+                }
+                // The sextile years, as they were used: 3, 7 and 11
+                return year % 4 == 3 ? 6 : 5;
+            }
+
+            @Override
+            int julianDay(int year, int month, int day) {
+                return FRENCH_EPOCH + (year - 1) * 365 + year / 4 + (month - 1) * 30 + day - 1;
+            }
+        };
+
+        private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+        private static final int HEBREW_EPOCH = 347_998;
+        private static final int FRENCH_EPOCH = 2_375_840;
+
+        private final String escape;
+        private final String[] months;
+
+        Calendar(String escape, String... months) {
+            this.escape = escape;
+            this.months = months;
+        }
+
+        /**
+         * @return The calendar of an escape like "@#DJULIAN@", or null for one that isn't supported, like
+         * "@#DROMAN@"
+         */
+        static Calendar of(String escape) {
+            for (Calendar calendar : values()) {
+                if (calendar.escape.equals(escape)) {
+                    return calendar;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return The number of the month, or 0 if the calendar has no such month
+         */
+        int month(String name) {
+            for (int i = 0; i < months.length; i++) {
+                if (months[i].equals(name)) {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+
+        int monthsInYear() {
+            return months.length;
+        }
+
+        /**
+         * @return Whether years can be B.C.
+         */
+        boolean hasEras() {
+            return true;
+        }
+
+        boolean isValidYear(int year) {
+            return true;
+        }
+
+        /**
+         * @return The days in the month, which is 0 for a month that this year doesn't have
+         */
+        abstract int daysInMonth(int year, int month);
+
+        abstract int julianDay(int year, int month, int day);
+    }
+}
@@ -0,0 +1,419 @@
+package be.allersma.gedcom.migrator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Header;
+import org.folg.gedcom.model.Media;
+import org.folg.gedcom.model.Note;
+import org.folg.gedcom.model.Person;
+import org.folg.gedcom.model.Repository;
+import org.folg.gedcom.model.Source;
+import org.folg.gedcom.model.Submitter;
+import org.folg.gedcom.parser.ModelParser;
+import org.xml.sax.SAXParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Reads a Gedcom file one top-level record at a time, and passes every record to the handlers registered
+ * for its type. Only one record is kept in memory, so the memory used doesn't depend on the size of the file.
+ * <p>
+ * The records are not linked to each other, as there is no {@link Gedcom} to look them up in. Use the ids
+ * of the references instead, for example with a {@link XrefRegistry}. Records without a handler are skipped
+ * without being parsed, as are records that only have a {@link TextHandler}.
+ */
+public class GedcomStreamReader {
+    private static final Logger logger = LogManager.getLogger(GedcomStreamReader.class);
+    private static final Map<Class<?>, RecordKind> KINDS = new HashMap<>();
+    private static final Map<String, RecordKind> KINDS_BY_TAG = new HashMap<>();
+
+    static {
+        register(new RecordKind(Header.class, "HEAD", Gedcom::getHeader));
+        register(new RecordKind(Person.class, "INDI", gedcom -> first(gedcom.getPeople())));
+        register(new RecordKind(Family.class, "FAM", gedcom -> first(gedcom.getFamilies())));
+        register(new RecordKind(Note.class, "NOTE", gedcom -> first(gedcom.getNotes())));
+        register(new RecordKind(Source.class, "SOUR", gedcom -> first(gedcom.getSources())));
+        register(new RecordKind(Media.class, "OBJE", gedcom -> first(gedcom.getMedia())));
+        register(new RecordKind(Repository.class, "REPO", gedcom -> first(gedcom.getRepositories())));
+        register(new RecordKind(Submitter.class, "SUBM", gedcom -> first(gedcom.getSubmitters())));
+    }
+
+    private final Map<String, Handlers> handlers = new HashMap<>();
+    private final ModelParser parser = new ModelParser();
+
+    /**
+     * Registers a handler for the records of a type. Handlers of the same type are called in the order
+     * they have been registered.
+     * @param recordClass One of {@link Header}, {@link Person}, {@link Family}, {@link Note}, {@link Source},
+     *                    {@link Media}, {@link Repository} or {@link Submitter}
+     * @throws IllegalArgumentException If records of the given class can't be streamed
+     */
+    public <T> GedcomStreamReader on(Class<T> recordClass, Consumer<? super T> handler) {
+        return on(recordClass, null, handler);
+    }
+
+    /**
+     * Same as {@link GedcomStreamReader#on(Class, Consumer)}, but only for the records of which the xref
+     * is accepted by the filter. A record is only parsed when one of its handlers accepts it, so this is
+     * much quicker when only a few records are needed. The filter is called after the text handlers.
+     * @param xrefFilter Gets the xref without the <code>@</code>s, or null if the record has none
+     */
+    public <T> GedcomStreamReader on(Class<T> recordClass, Predicate<String> xrefFilter, Consumer<? super T> handler) {
+        RecordKind kind = KINDS.get(recordClass);
+        if (kind == null) {
+            throw new IllegalArgumentException("Records of type " + recordClass.getSimpleName() + " can't be streamed");
+        }
+        handlers.computeIfAbsent(kind.tag, key -> new Handlers())
+                .add(new ParsedHandler(xrefFilter, record -> handler.accept(recordClass.cast(record))));
+        return this;
+    }
+
+    /**
+     * Registers a handler for the text of the records of a type, as it is in the file. When a type only has
+     * text handlers, its records are not parsed at all.
+     */
+    public GedcomStreamReader onText(RecordType type, TextHandler handler) {
+        Handlers typeHandlers = handlers.computeIfAbsent(type.name(), key -> new Handlers());
+        typeHandlers.text.add(handler);
+        typeHandlers.needsXref = true;
+        return this;
+    }
+
+    /**
+     * Reads all records of a file with a {@link GedcomTokenizer}, in the encoding its header tells. The lines
+     * of records without a handler are skipped without being decoded.
+     * @see GedcomStreamReader#read(Reader)
+     */
+    public long read(Path file) throws IOException, SAXParseException {
+        try (GedcomTokenizer tokenizer = GedcomTokenizer.open(file)) {
+            return read(tokenizer);
+        }
+    }
+
+    /**
+     * Reads all records from the current line of the tokenizer on. The tokenizer is not closed.
+     * @see GedcomStreamReader#read(Reader)
+     */
+    public long read(GedcomTokenizer tokenizer) throws IOException, SAXParseException {
+        // Most records are all ASCII, and are kept as the bytes of the file, without decoding them
+        AsciiText ascii = new AsciiText();
+        StringBuilder decoded = new StringBuilder();
+        CharSequence record = ascii;
+        Handlers recordHandlers = null;
+        String recordTag = null;
+        int recordLine = 0;
+        long handled = 0;
+
+        while (tokenizer.next()) {
+            if (tokenizer.getLevel() == 0 && !tokenizer.getTag().isEmpty()) {
+                if (recordHandlers != null) {
+                    dispatch(recordTag, record, recordLine, recordHandlers);
+                    handled++;
+                }
+                ascii.clear();
+                record = ascii;
+                recordTag = null;
+                recordHandlers = null;
+                recordLine = tokenizer.getLineNumber();
+                // Compares the bytes of the tag, so records without handlers don't create Strings
+                for (Map.Entry<String, Handlers> entry : handlers.entrySet()) {
+                    if (tokenizer.getTag().contentEquals(entry.getKey())) {
+                        recordTag = entry.getKey();
+                        recordHandlers = entry.getValue();
+                        break;
+                    }
+                }
+            }
+            if (recordHandlers != null && (record != ascii || !ascii.append(tokenizer.getLine()))) {
+                if (record == ascii) {
+                    decoded.setLength(0);
+                    decoded.append(ascii);
+                    record = decoded;
+                }
+                tokenizer.getLine().appendTo(decoded).append('\n');
+            }
+        }
+
+        if (recordHandlers != null) {
+            dispatch(recordTag, record, recordLine, recordHandlers);
+            handled++;
+        }
+        logger.debug("Streamed {} records from {} lines", handled, tokenizer.getLineNumber());
+        return handled;
+    }
+
+    public long read(Path file, Charset charset) throws IOException, SAXParseException {
+        try (BufferedReader reader = Files.newBufferedReader(file, charset)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Reads all records and passes them to their handlers. The reader is not closed.
+     * @return The amount of records that have been passed to a handler
+     * @throws SAXParseException If a record can't be parsed. The line number is the one in the whole file.
+     */
+    public long read(Reader input) throws IOException, SAXParseException {
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+        StringBuilder record = new StringBuilder();
+        Handlers recordHandlers = null;
+        String recordTag = null;
+        int recordLine = 0;
+        int lineNumber = 0;
+        long handled = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1);
+            }
+
+            String tag = topLevelTag(line);
+            if (tag != null) {
+                if (recordHandlers != null) {
+                    dispatch(recordTag, record, recordLine, recordHandlers);
+                    handled++;
+                }
+                record.setLength(0);
+                recordTag = tag;
+                recordLine = lineNumber;
+                recordHandlers = handlers.get(tag);
+            }
+            if (recordHandlers != null) {
+                record.append(line).append('\n');
+            }
+        }
+
+        if (recordHandlers != null) {
+            dispatch(recordTag, record, recordLine, recordHandlers);
+            handled++;
+        }
+        logger.debug("Streamed {} records from {} lines", handled, lineNumber);
+        return handled;
+    }
+
+    private void dispatch(String tag, CharSequence record, int firstLine, Handlers recordHandlers)
+            throws IOException, SAXParseException {
+        String xref = recordHandlers.needsXref ? xrefOf(record) : null;
+        for (TextHandler handler : recordHandlers.text) {
+            handler.accept(xref, record);
+        }
+
+        List<ParsedHandler> accepting = recordHandlers.parsed;
+        if (recordHandlers.filtered) {
+            accepting = new ArrayList<>(recordHandlers.parsed.size());
+            for (ParsedHandler handler : recordHandlers.parsed) {
+                if (handler.filter == null || handler.filter.test(xref)) {
+                    accepting.add(handler);
+                }
+            }
+        }
+        if (accepting.isEmpty()) {
+            return;
+        }
+
+        Gedcom gedcom;
+        try {
+            gedcom = parser.parseGedcom(new StringReader(record.toString()));
+        } catch (SAXParseException e) {
+            throw new SAXParseException(e.getMessage(), e.getPublicId(), e.getSystemId(),
+                    firstLine + Math.max(e.getLineNumber(), 1) - 1, e.getColumnNumber(), e);
+        }
+
+        Object value = gedcom == null ? null : KINDS_BY_TAG.get(tag).extract.apply(gedcom);
+        if (value == null) {
+            logger.warn("Skipped {} record at line {}, as it could not be parsed", tag, firstLine);
+            return;
+        }
+        for (ParsedHandler handler : accepting) {
+            handler.consumer.accept(value);
+        }
+    }
+
+    /**
+     * @return The xref of the first line of a record without the <code>@</code>s, or null if it has none
+     */
+    private static String xrefOf(CharSequence record) {
+        int start = -1;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (c == '\n') {
+                return null;
+            }
+            if (c == '@') {
+                if (start != -1) {
+                    return record.subSequence(start, i).toString();
+                }
+                start = i + 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The tag of a line with level 0, like <code>INDI</code> in <code>0 @I1@ INDI</code>,
+     * or null if the line doesn't start a new record.
+     */
+    static String topLevelTag(String line) {
+        int length = line.length();
+        int i = 0;
+        while (i < length && line.charAt(i) <= ' ') {
+            i++;
+        }
+        if (i + 1 >= length || line.charAt(i) != '0' || line.charAt(i + 1) != ' ') {
+            return null;
+        }
+
+        i = skipSpaces(line, i + 2);
+        if (i < length && line.charAt(i) == '@') {
+            int end = line.indexOf('@', i + 1);
+            if (end == -1) {
+                return null;
+            }
+            i = skipSpaces(line, end + 1);
+        }
+
+        int end = i;
+        while (end < length && line.charAt(end) > ' ') {
+            end++;
+        }
+        return end == i ? null : line.substring(i, end);
+    }
+
+    private static int skipSpaces(String line, int index) {
+        while (index < line.length() && line.charAt(index) == ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static <T> T first(List<T> records) {
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    private static void register(RecordKind kind) {
+        KINDS.put(kind.type, kind);
+        KINDS_BY_TAG.put(kind.tag, kind);
+    }
+
+    /**
+     * Receives the text of a record.
+     */
+    @FunctionalInterface
+    public interface TextHandler {
+        /**
+         * @param xref The xref of the record without the <code>@</code>s, or null if it has none
+         * @param text All lines of the record, each ending with a line feed. Only valid during this call.
+         */
+        void accept(String xref, CharSequence text);
+    }
+
+    /**
+     * The text of a record that is all ASCII, as the bytes it has in the file.
+     */
+    private static final class AsciiText implements CharSequence {
+        private byte[] bytes = new byte[4096];
+        private int length = 0;
+
+        private void clear() {
+            length = 0;
+        }
+
+        /**
+         * Appends a line and a line feed, unless the line is not all ASCII.
+         * @return Whether the line has been appended
+         */
+        private boolean append(GedcomTokenizer.Token line) {
+            if (length + line.length() + 1 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + line.length() + 1));
+            }
+            if (!line.copyAscii(bytes, length)) {
+                return false;
+            }
+            length += line.length();
+            bytes[length++] = '\n';
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+            }
+            return (char) bytes[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Range " + start + " to " + end + " out of bounds for length " + length);
+            }
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static final class Handlers {
+        private final List<ParsedHandler> parsed = new ArrayList<>();
+        private final List<TextHandler> text = new ArrayList<>();
+        private boolean filtered = false;
+        private boolean needsXref = false;
+
+        private void add(ParsedHandler handler) {
+            parsed.add(handler);
+            if (handler.filter != null) {
+                filtered = true;
+                needsXref = true;
+            }
+        }
+    }
+
+    private static final class ParsedHandler {
+        private final Predicate<String> filter;
+        private final Consumer<Object> consumer;
+
+        private ParsedHandler(Predicate<String> filter, Consumer<Object> consumer) {
+            this.filter = filter;
+            this.consumer = consumer;
+        }
+    }
+
+    private static final class RecordKind {
+        private final Class<?> type;
+        private final String tag;
+        private final Function<Gedcom, ?> extract;
+
+        private RecordKind(Class<?> type, String tag, Function<Gedcom, ?> extract) {
+            this.type = type;
+            this.tag = tag;
+            this.extract = extract;
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package be.allersma.gedcom.migrator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gedml.AnselInputStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Splits a Gedcom file into lines, and every line into its level, xref, tag and value, without creating a
+ * String for every line. The file is memory-mapped, and the parts of the current line are {@link Token}s:
+ * views into the mapped bytes, which are only decoded when asked for.
+ * <p>
+ * The encoding follows from the byte order mark, or else from the <code>CHAR</code> of the header, and is
+ * UTF-8 when neither tells. UTF-8 and ASCII are decoded straight from the mapped bytes. UTF-16 files are rare,
+ * so they are converted to UTF-8 in memory first.
+ * <p>
+ * Not thread-safe.
+ */
+public final class GedcomTokenizer implements Closeable {
+    private static final Logger logger = LogManager.getLogger(GedcomTokenizer.class);
+    public static final int NONE = -1;
+    private static final int WINDOW_SIZE = Integer.MAX_VALUE;
+    private static final int HEADER_BYTES = 1 << 16;
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    public enum Encoding {
+        UTF_8, UTF_16BE, UTF_16LE, ANSEL, ASCII,
+        /**
+         * Windows-1252, which is what <code>CHAR ANSI</code> means in practice
+         */
+        ANSI
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private final Encoding encoding;
+    private ByteBuffer window;
+    private long windowStart = 0;
+    private int position;
+    private boolean carriageReturn = false;
+    private int lineNumber = 0;
+    private int level = NONE;
+    private final Token line;
+    private final Token xref;
+    private final Token tag;
+    private final Token value;
+
+    private GedcomTokenizer(FileChannel channel, long size, int windowSize, ByteBuffer window, Encoding encoding,
+                            Encoding decoding) {
+        this.channel = channel;
+        this.size = size;
+        this.windowSize = windowSize;
+        this.window = window;
+        this.encoding = encoding;
+        this.line = new Token(decoding);
+        this.xref = new Token(decoding);
+        this.tag = new Token(decoding);
+        this.value = new Token(decoding);
+        this.position = window.limit() >= 3 && (window.get(0) & 0xFF) == 0xEF && (window.get(1) & 0xFF) == 0xBB
+                && (window.get(2) & 0xFF) == 0xBF ? 3 : 0;
+    }
+
+    /**
+     * Maps a file, and detects its encoding.
+     */
+    public static GedcomTokenizer open(Path file) throws IOException {
+        return open(file, WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize How many bytes of the file are mapped at the same time, which limits the length of a line
+     */
+    static GedcomTokenizer open(Path file, int windowSize) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, windowSize));
+            Encoding encoding = detect(window);
+            if (encoding == Encoding.UTF_16BE || encoding == Encoding.UTF_16LE) {
+                if (size > windowSize) {
+                    throw new IOException("UTF-16 files of more than " + windowSize + " bytes can't be read");
+                }
+                ByteBuffer utf8 = toUtf8(window, encoding);
+                channel.close();
+                return new GedcomTokenizer(null, utf8.limit(), windowSize, utf8, encoding, Encoding.UTF_8);
+            }
+            return new GedcomTokenizer(channel, size, windowSize, window, encoding, encoding);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the given bytes instead of a file, and detects their encoding.
+     */
+    public static GedcomTokenizer of(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Encoding encoding = detect(buffer);
+        if (encoding == Encoding.UTF_16BE || encoding == Encoding.UTF_16LE) {
+            ByteBuffer utf8 = toUtf8(buffer, encoding);
+            return new GedcomTokenizer(null, utf8.limit(), WINDOW_SIZE, utf8, encoding, Encoding.UTF_8);
+        }
+        return new GedcomTokenizer(null, bytes.length, WINDOW_SIZE, buffer, encoding, encoding);
+    }
+
+    /**
+     * Moves to the next line. A line ends with a carriage return, a line feed or both.
+     * @return Whether there is a next line
+     * @throws IOException If the line is longer than what can be mapped at once
+     */
+    public boolean next() throws IOException {
+        if (carriageReturn) {
+            carriageReturn = false;
+            if (hasMore() && window.get(position) == '\n') {
+                position++;
+            }
+        }
+        if (!hasMore()) {
+            level = NONE;
+            line.clear();
+            xref.clear();
+            tag.clear();
+            value.clear();
+            return false;
+        }
+
+        int end = endOfLine(position);
+        if (end == window.limit() && windowStart + end < size) {
+            // The line continues after the window
+            remap(windowStart + position);
+            end = endOfLine(position);
+            if (end == window.limit() && windowStart + end < size) {
+                throw new IOException("Line " + (lineNumber + 1) + " is longer than " + windowSize + " bytes");
+            }
+        }
+
+        lineNumber++;
+        split(position, end);
+        if (end < window.limit()) {
+            carriageReturn = window.get(end) == '\r';
+            position = end + 1;
+        } else {
+            position = end;
+        }
+        return true;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return The number of the current line, starting at 1, or 0 before the first line
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return The level of the current line, or {@link GedcomTokenizer#NONE} if it doesn't start with one, like
+     * an empty line. Such a line only has a {@link GedcomTokenizer#getLine()}.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return The current line without its line ending. Only valid until the next line.
+     */
+    public Token getLine() {
+        return line;
+    }
+
+    /**
+     * @return The xref of the current line without the <code>@</code>s, or an empty token if it has none. Only
+     * valid until the next line.
+     */
+    public Token getXref() {
+        return xref;
+    }
+
+    /**
+     * @return The tag of the current line, or an empty token if it has none. Only valid until the next line.
+     */
+    public Token getTag() {
+        return tag;
+    }
+
+    /**
+     * @return Everything after the tag and the delimiter that follows it, or an empty token if the line has no
+     * value. Only valid until the next line.
+     */
+    public Token getValue() {
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return Whether there are bytes left at the position, after mapping the next window if needed
+     */
+    private boolean hasMore() throws IOException {
+        if (position < window.limit()) {
+            return true;
+        }
+        if (windowStart + position >= size) {
+            return false;
+        }
+        remap(windowStart + position);
+        return true;
+    }
+
+    private void remap(long offset) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, windowSize));
+        windowStart = offset;
+        position = 0;
+    }
+
+    private int endOfLine(int from) {
+        int limit = window.limit();
+        for (int i = from; i < limit; i++) {
+            byte b = window.get(i);
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private void split(int start, int end) {
+        line.set(window, start, end - start);
+        xref.clear();
+        tag.clear();
+        value.clear();
+        level = NONE;
+
+        int i = start;
+        while (i < end && (window.get(i) == ' ' || window.get(i) == '\t')) {
+            i++;
+        }
+        int parsed = 0;
+        int digits = 0;
+        for (; i < end && window.get(i) >= '0' && window.get(i) <= '9'; i++) {
+            parsed = parsed * 10 + window.get(i) - '0';
+            digits++;
+        }
+        if (digits == 0 || digits > 9 || (i < end && window.get(i) != ' ')) {
+            return;
+        }
+        level = parsed;
+
+        i = skipSpaces(i, end);
+        if (i < end && window.get(i) == '@') {
+            int close = i + 1;
+            while (close < end && window.get(close) != '@') {
+                close++;
+            }
+            if (close == end) {
+                return;
+            }
+            xref.set(window, i + 1, close - i - 1);
+            i = skipSpaces(close + 1, end);
+        }
+
+        int tagEnd = i;
+        while (tagEnd < end && (window.get(tagEnd) & 0xFF) > ' ') {
+            tagEnd++;
+        }
+        tag.set(window, i, tagEnd - i);
+        if (tagEnd < end) {
+            value.set(window, tagEnd + 1, end - tagEnd - 1);
+        }
+    }
+
+    private int skipSpaces(int index, int end) {
+        while (index < end && window.get(index) == ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return The encoding of the byte order mark, or of the <code>CHAR</code> of the header, or UTF-8
+     */
+    static Encoding detect(ByteBuffer bytes) {
+        int limit = bytes.limit();
+        int first = limit > 0 ? bytes.get(0) & 0xFF : -1;
+        int second = limit > 1 ? bytes.get(1) & 0xFF : -1;
+        if (first == 0xEF && second == 0xBB && limit > 2 && (bytes.get(2) & 0xFF) == 0xBF) {
+            return Encoding.UTF_8;
+        } else if ((first == 0xFE && second == 0xFF) || (first == 0 && second == '0')) {
+            return Encoding.UTF_16BE;
+        } else if ((first == 0xFF && second == 0xFE) || (first == '0' && second == 0)) {
+            return Encoding.UTF_16LE;
+        }
+
+        ByteBuffer header = bytes.duplicate();
+        header.limit(Math.min(limit, HEADER_BYTES));
+        GedcomTokenizer tokenizer = new GedcomTokenizer(null, header.limit(), WINDOW_SIZE, header, Encoding.ASCII,
+                Encoding.ASCII);
+        try {
+            while (tokenizer.next()) {
+                if (tokenizer.getLevel() == 0 && tokenizer.getLineNumber() > 1) {
+                    break;
+                }
+                if (tokenizer.getLevel() == 1 && tokenizer.getTag().contentEquals("CHAR")) {
+                    return fromHeader(tokenizer.getValue().toString().trim());
+                }
+            }
+        } catch (IOException e) {
+            // Bytes in memory are never remapped
+            throw new UncheckedIOException(e);
+        }
+        return Encoding.UTF_8;
+    }
+
+    private static Encoding fromHeader(String name) {
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case "UTF-8":
+            case "UTF8":
+                return Encoding.UTF_8;
+            case "ANSEL":
+                return Encoding.ANSEL;
+            case "ASCII":
+            case "US-ASCII":
+                return Encoding.ASCII;
+            case "ANSI":
+            case "WINDOWS-1252":
+            case "CP1252":
+            case "ISO-8859-1":
+                return Encoding.ANSI;
+            case "UNICODE":
+            case "UTF-16":
+                logger.warn("The header says {}, but the file has no UTF-16, so it is read as UTF-8", name);
+                return Encoding.UTF_8;
+            default:
+                logger.warn("Unknown encoding {} in the header, so the file is read as UTF-8", name);
+                return Encoding.UTF_8;
+        }
+    }
+
+    private static ByteBuffer toUtf8(ByteBuffer utf16, Encoding encoding) {
+        Charset charset = encoding == Encoding.UTF_16BE ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_16LE;
+        // A byte order mark becomes the one of UTF-8, which is skipped
+        return StandardCharsets.UTF_8.encode(charset.decode(utf16.duplicate()));
+    }
+
+    /**
+     * A part of the current line: a view into the bytes of the file, which is decoded when it is appended or
+     * turned into a String. Text that is all ASCII is copied without decoding.
+     */
+    public static final class Token {
+        private static final char REPLACEMENT = '\uFFFD';
+
+        private final Encoding decoding;
+        private ByteBuffer bytes = null;
+        private int offset = 0;
+        private int length = 0;
+
+        private Token(Encoding decoding) {
+            this.decoding = decoding;
+        }
+
+        private void set(ByteBuffer bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private void clear() {
+            set(null, 0, 0);
+        }
+
+        /**
+         * @return The amount of bytes, which is the amount of characters if the token is all ASCII
+         */
+        public int length() {
+            return length;
+        }
+
+        public boolean isEmpty() {
+            return length == 0;
+        }
+
+        public byte byteAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+            }
+            return bytes.get(offset + index);
+        }
+
+        public boolean isAscii() {
+            for (int i = 0; i < length; i++) {
+                if (bytes.get(offset + i) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param ascii Text of which all characters are ASCII, like a tag
+         * @return Whether this token is the same text, without decoding it
+         */
+        public boolean contentEquals(CharSequence ascii) {
+            if (ascii.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes.get(offset + i) != ascii.charAt(i) || ascii.charAt(i) > 0x7F) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Decodes this token into the builder. Invalid bytes become U+FFFD.
+         * @return The builder
+         */
+        public StringBuilder appendTo(StringBuilder builder) {
+            int end = offset + length;
+            int i = offset;
+            while (i < end && bytes.get(i) >= 0) {
+                builder.append((char) bytes.get(i++));
+            }
+            if (i == end) {
+                return builder;
+            }
+
+            switch (decoding) {
+                case ASCII:
+                    for (; i < end; i++) {
+                        byte b = bytes.get(i);
+                        builder.append(b >= 0 ? (char) b : REPLACEMENT);
+                    }
+                    return builder;
+                case ANSEL:
+                    return appendAnsel(builder, copy(i, end));
+                case ANSI:
+                    return builder.append(WINDOWS_1252.decode(ByteBuffer.wrap(copy(i, end))));
+                default:
+                    return appendUtf8(builder, i, end);
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (isAscii()) {
+                return new String(copy(offset, offset + length), StandardCharsets.ISO_8859_1);
+            }
+            return appendTo(new StringBuilder(length)).toString();
+        }
+
+        private StringBuilder appendUtf8(StringBuilder builder, int start, int end) {
+            int i = start;
+            while (i < end) {
+                int b = bytes.get(i) & 0xFF;
+                if (b < 0x80) {
+                    builder.append((char) b);
+                    i++;
+                    continue;
+                }
+
+                int count;
+                int codePoint;
+                int min;
+                if ((b & 0xE0) == 0xC0) {
+                    count = 1;
+                    codePoint = b & 0x1F;
+                    min = 0x80;
+                } else if ((b & 0xF0) == 0xE0) {
+                    count = 2;
+                    codePoint = b & 0x0F;
+                    min = 0x800;
+                } else if ((b & 0xF8) == 0xF0) {
+                    count = 3;
+                    codePoint = b & 0x07;
+                    min = 0x10000;
+                } else {
+                    builder.append(REPLACEMENT);
+                    i++;
+                    continue;
+                }
+
+                int j = 1;
+                for (; j <= count && i + j < end; j++) {
+                    int next = bytes.get(i + j) & 0xFF;
+                    if ((next & 0xC0) != 0x80) {
+                        break;
+                    }
+                    codePoint = codePoint << 6 | (next & 0x3F);
+                }
+                if (j <= count || codePoint < min || codePoint > Character.MAX_CODE_POINT
+                        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                    builder.append(REPLACEMENT);
+                } else {
+                    builder.appendCodePoint(codePoint);
+                }
+                i += j;
+            }
+            return builder;
+        }
+
+        private static StringBuilder appendAnsel(StringBuilder builder, byte[] ansel) {
+            try (Reader reader = new AnselInputStreamReader(new ByteArrayInputStream(ansel))) {
+                char[] buffer = new char[ansel.length];
+                int read;
+                while ((read = reader.read(buffer, 0, buffer.length)) > 0) {
+                    builder.append(buffer, 0, read);
+                }
+                return builder;
+            } catch (IOException e) {
+                // Bytes in memory can always be read
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Copies the bytes of this token, if they are all ASCII.
+         * @return Whether the token is all ASCII. If not, only part of it may have been copied.
+         */
+        boolean copyAscii(byte[] target, int at) {
+            for (int i = 0; i < length; i++) {
+                byte b = bytes.get(offset + i);
+                if (b < 0) {
+                    return false;
+                }
+                target[at + i] = b;
+            }
+            return true;
+        }
+
+        private byte[] copy(int start, int end) {
+            byte[] copy = new byte[end - start];
+            for (int i = start; i < end; i++) {
+                copy[i - start] = bytes.get(i);
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package be.allersma.gedcom.migrator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of where a migration spends its time and memory, so a slow stage can be found without a profiler.
+ * <pre>
+ * try (MigrationMetrics.Stage stage = metrics.start("parse")) {
+ *     gedcom = parser.parseGedcom(file);
+ *     stage.addRecords(gedcom.getPeople().size());
+ * }
+ * ...
+ * System.out.print(metrics.summary());
+ * </pre>
+ * Every stage is also a <code>be.allersma.gedcom.Stage</code> event in a flight recording, for example one that is
+ * started with <code>-XX:StartFlightRecording</code>.
+ * <p>
+ * Stages are for things that run one after the other. Work that is spread over many small calls, possibly on
+ * several threads, like transforming records in a {@link Pipeline}, is measured with a {@link Timer}.
+ */
+public class MigrationMetrics {
+    private static final Logger logger = LogManager.getLogger(MigrationMetrics.class);
+
+    private final long started = System.nanoTime();
+    private final List<Result> results = new ArrayList<>();
+    private final Map<String, Timer> timers = new LinkedHashMap<>();
+    private final Map<String, long[]> paths = new LinkedHashMap<>();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final com.sun.management.ThreadMXBean threads;
+
+    public MigrationMetrics() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threads = null;
+        }
+    }
+
+    /**
+     * Starts a stage, which ends when it is closed.
+     */
+    public Stage start(String name) {
+        return new Stage(name);
+    }
+
+    /**
+     * @return The timer with the given name, which is created the first time it is asked for
+     */
+    public synchronized Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * Keeps how many records and invocations every path of a marker tree had at this moment, for the summary.
+     */
+    public synchronized void recordCoverage(PathCoverage coverage) {
+        for (String path : coverage.getPaths()) {
+            paths.put(path, new long[]{coverage.getRecords(path), coverage.getHits(path)});
+        }
+    }
+
+    /**
+     * @return The stages that have been closed and the timers, in the order they were started
+     */
+    public synchronized List<Result> getResults() {
+        List<Result> result = new ArrayList<>(results);
+        for (Timer timer : timers.values()) {
+            result.add(new Result(timer.name, timer.nanos.sum(), timer.records.sum(), -1, -1));
+        }
+        return result;
+    }
+
+    /**
+     * @return A table with every stage and timer, followed by the invocations per path if coverage has been
+     * recorded
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("-------------------------------------\n");
+        summary.append(String.format("%-20s %10s %12s %12s %14s %10s%n",
+                "Stage", "Time (ms)", "Records", "Records/s", "Allocated (MB)", "Heap (MB)"));
+        for (Result result : getResults()) {
+            summary.append(String.format("%-20s %10d %12d %12s %14s %10s%n",
+                    result.getName(),
+                    result.getNanos() / 1_000_000,
+                    result.getRecords(),
+                    result.getRecords() > 0 ? String.format("%.0f", result.getRecordsPerSecond()) : "-",
+                    megabytes(result.getAllocated()),
+                    megabytes(result.getHeapUsed())));
+        }
+        summary.append(String.format("%-20s %10d%n", "Total", (System.nanoTime() - started) / 1_000_000));
+
+        synchronized (this) {
+            if (!paths.isEmpty()) {
+                summary.append("-------------------------------------\n");
+                summary.append(String.format("%-50s %12s %12s%n", "Path", "Records", "Invocations"));
+                paths.forEach((path, counts) -> summary.append(String.format("%-50s %12d %12d%n",
+                        path.isEmpty() ? "/" : path, counts[0], counts[1])));
+            }
+        }
+        return summary.toString();
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "-" : String.valueOf(bytes >> 20);
+    }
+
+    private synchronized void add(Result result) {
+        results.add(result);
+    }
+
+    /**
+     * @return The bytes allocated so far by every live thread, by thread id
+     */
+    private Map<Long, Long> allocatedPerThread() {
+        Map<Long, Long> result = new HashMap<>();
+        if (threads == null) {
+            return result;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (allocated[i] >= 0) {
+                result.put(ids[i], allocated[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A stage that is running. Closing it more than once has no effect.
+     */
+    public final class Stage implements AutoCloseable {
+        private final String name;
+        private final long start;
+        private final Map<Long, Long> allocatedAtStart;
+        private final StageEvent event = new StageEvent();
+        private long records = 0;
+        private boolean closed = false;
+
+        private Stage(String name) {
+            this.name = name;
+            this.allocatedAtStart = allocatedPerThread();
+            this.start = System.nanoTime();
+            event.begin();
+        }
+
+        /**
+         * @param records How many more records this stage has handled
+         */
+        public Stage addRecords(long records) {
+            this.records += records;
+            return this;
+        }
+
+        /**
+         * Records the stage. The allocated memory is that of the threads that are still alive when the stage
+         * ends, and the heap is measured without collecting garbage first.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            long nanos = System.nanoTime() - start;
+            long allocated = -1;
+            if (threads != null) {
+                allocated = 0;
+                for (Map.Entry<Long, Long> entry : allocatedPerThread().entrySet()) {
+                    allocated += entry.getValue() - allocatedAtStart.getOrDefault(entry.getKey(), 0L);
+                }
+            }
+            long heapUsed = memory.getHeapMemoryUsage().getUsed();
+            add(new Result(name, nanos, records, allocated, heapUsed));
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = name;
+                event.records = records;
+                event.allocated = allocated;
+                event.heapUsed = heapUsed;
+                event.commit();
+            }
+            logger.debug("Stage {} took {} ms", name, nanos / 1_000_000);
+        }
+    }
+
+    /**
+     * Adds up the time of many short pieces of work, from any thread.
+     * <pre>
+     * long start = timer.begin();
+     * ...
+     * timer.end(start, 1);
+     * </pre>
+     * The time in the summary is the sum of all pieces, so for work on several threads it can be more than the
+     * time that has passed.
+     */
+    public static final class Timer {
+        private final String name;
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder records = new LongAdder();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public long begin() {
+            return System.nanoTime();
+        }
+
+        /**
+         * @param start What {@link Timer#begin()} returned
+         * @param records How many records have been handled since then
+         */
+        public void end(long start, long records) {
+            nanos.add(System.nanoTime() - start);
+            this.records.add(records);
+        }
+    }
+
+    /**
+     * What a stage or timer has measured.
+     */
+    public static final class Result {
+        private final String name;
+        private final long nanos;
+        private final long records;
+        private final long allocated;
+        private final long heapUsed;
+
+        Result(String name, long nanos, long records, long allocated, long heapUsed) {
+            this.name = name;
+            this.nanos = nanos;
+            this.records = records;
+            this.allocated = allocated;
+            this.heapUsed = heapUsed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public double getRecordsPerSecond() {
+            return nanos == 0 ? 0 : records * 1e9 / nanos;
+        }
+
+        /**
+         * @return The bytes allocated during the stage, or -1 if unknown, like for timers
+         */
+        public long getAllocated() {
+            return allocated;
+        }
+
+        /**
+         * @return The bytes in use on the heap at the end of the stage, or -1 if unknown, like for timers
+         */
+        public long getHeapUsed() {
+            return heapUsed;
+        }
+    }
+}
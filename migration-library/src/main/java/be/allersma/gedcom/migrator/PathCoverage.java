@@ -0,0 +1,160 @@
+package be.allersma.gedcom.migrator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of how the functions of a marker tree are used, per path. A path is the chain of functions
+ * that has been invoked from the root, like <code>/getPeople/getNames</code>. All branches at the same path
+ * share their statistics, so the memory used only depends on the amount of distinct paths.
+ * <p>
+ * When the tree is created with {@link FunctionMarker.Options#perPath(boolean)}, the marks are stored here
+ * as well and {@link PathCoverage#getUnmarkedItems()} gives the report of the whole tree, without the need to
+ * walk through all branches.
+ */
+public class PathCoverage {
+    private final FunctionMarker.Options options;
+    private final Map<String, List<PathNode>> nodes = new LinkedHashMap<>();
+
+    PathCoverage(FunctionMarker.Options options) {
+        this.options = options;
+    }
+
+    FunctionMarker.Options getOptions() {
+        return options;
+    }
+
+    /**
+     * Nodes are cached by their parents, so this is only called the first time a path is reached.
+     */
+    synchronized PathNode node(String path, ClassMetadata metadata) {
+        List<PathNode> atPath = nodes.computeIfAbsent(path, key -> new ArrayList<>(1));
+        for (PathNode node : atPath) {
+            if (node.getMetadata() == metadata) {
+                return node;
+            }
+        }
+
+        PathNode node = new PathNode(this, path.intern(), metadata);
+        atPath.add(node);
+        return node;
+    }
+
+    /**
+     * @return All paths that have been reached, in the order they were reached for the first time.
+     */
+    public synchronized List<String> getPaths() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    /**
+     * @return The amount of values that have been reached at the given path. An element of a list counts once, no
+     * matter how often it is accessed, but every call of a function that returns a single model object counts.
+     */
+    public long getRecords(String path) {
+        return nodesAt(path).stream().mapToLong(PathNode::getRecords).sum();
+    }
+
+    /**
+     * @return Whether only a sample of the records is tracked, see {@link FunctionMarker.Options#sample(double, int)}.
+     * The counters and unmarked items then only cover the records in {@link PathCoverage#getSampledRecords(String)}.
+     */
+    public boolean isSampled() {
+        return options.isSampled();
+    }
+
+    /**
+     * @return The amount of branches at the given path that have been tracked, which is all of them unless
+     * sampling
+     */
+    public long getSampledRecords(String path) {
+        return nodesAt(path).stream().mapToLong(PathNode::getSampledRecords).sum();
+    }
+
+    /**
+     * @return How many times any function has been invoked at the given path
+     */
+    public long getHits(String path) {
+        long result = 0;
+        for (PathNode node : nodesAt(path)) {
+            for (FunctionMarker.Leaf leaf : node.getMetadata().getLeaves()) {
+                result += node.getHits(leaf);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return How many times the given function has been invoked at the given path
+     */
+    public long getHits(String path, String function) {
+        return nodesAt(path).stream()
+                .flatMap(node -> leaves(node, function).stream().map(node::getHits))
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    /**
+     * @return How many times the given function has been invoked at the given path and returned a value
+     * that was not null nor an empty list
+     */
+    public long getNonNull(String path, String function) {
+        return nodesAt(path).stream()
+                .flatMap(node -> leaves(node, function).stream().map(node::getNonNull))
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    /**
+     * Marks a function at every path that has been reached so far. Handy for functions like
+     * <code>toString</code> or <code>hashCode</code> that you never want to see in a report.
+     * Only applies when marking per path.
+     */
+    public synchronized PathCoverage mark(String function) {
+        nodes.values().stream()
+                .flatMap(List::stream)
+                .forEach(node -> leaves(node, function).forEach(node::mark));
+        return this;
+    }
+
+    /**
+     * Only applies when marking per path. When {@link PathCoverage#isSampled()}, a function that has only been
+     * used on records outside the sample is in here, and when ignoring null fields, a function that only returns
+     * a value for records outside the sample is not.
+     * @return The unmarked functions at the given path
+     */
+    public List<String> getUnmarkedItems(String path) {
+        List<PathNode> atPath = nodesAt(path);
+        if (atPath.size() == 1) {
+            return atPath.get(0).getUnmarkedItems();
+        }
+        return atPath.stream()
+                .flatMap(node -> node.getUnmarkedItems().stream())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Only applies when marking per path.
+     * @return The unmarked functions of every path that has been reached, by path. Only covers a sample of the
+     * records when {@link PathCoverage#isSampled()}.
+     */
+    public Map<String, List<String>> getUnmarkedItems() {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (String path : getPaths()) {
+            result.put(path, getUnmarkedItems(path));
+        }
+        return result;
+    }
+
+    private synchronized List<PathNode> nodesAt(String path) {
+        return new ArrayList<>(nodes.getOrDefault(path, List.of()));
+    }
+
+    private static List<FunctionMarker.Leaf> leaves(PathNode node, String function) {
+        return List.of(node.getMetadata().findAll(function));
+    }
+}
@@ -0,0 +1,195 @@
+package be.allersma.gedcom.migrator;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All branches of a marker tree that share the same path and class, share one node.
+ * The node holds the path and the class metadata, so a branch doesn't need its own copy.
+ * It also counts how the functions at this path are used, and when the tree marks per path,
+ * it holds the marks of all these branches.
+ */
+final class PathNode {
+    private static final VarHandle SEEN;
+
+    static {
+        try {
+            SEEN = MethodHandles.lookup().findVarHandle(PathNode.class, "seen", long.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final PathCoverage coverage;
+    private final String path;
+    private final ClassMetadata metadata;
+    private final boolean concurrent;
+    private final PathNode[] children;
+    private final Counters hits;
+    private final Counters nonNull;
+    private final Counters records;
+    private final Counters sampled;
+    private final long[] marks;
+    private final long[] present;
+    private String markAllHash;
+    private long seen = 0;
+
+    PathNode(PathCoverage coverage, String path, ClassMetadata metadata) {
+        this.coverage = coverage;
+        this.path = path;
+        this.metadata = metadata;
+        this.concurrent = coverage.getOptions().isConcurrent();
+        this.children = new PathNode[metadata.getLeaves().length];
+        this.hits = new Counters(metadata.getLeaves().length, concurrent);
+        this.nonNull = new Counters(metadata.getLeaves().length, concurrent);
+        this.records = new Counters(1, concurrent);
+        this.sampled = new Counters(1, concurrent);
+        this.marks = new long[metadata.getMarkWords()];
+        this.present = new long[metadata.getMarkWords()];
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    ClassMetadata getMetadata() {
+        return metadata;
+    }
+
+    PathCoverage getCoverage() {
+        return coverage;
+    }
+
+    FunctionMarker.Options getOptions() {
+        return coverage.getOptions();
+    }
+
+    boolean isPerPath() {
+        return coverage.getOptions().isPerPath();
+    }
+
+    /**
+     * Racing threads compute the same hash, so the field doesn't need to be volatile.
+     */
+    String getMarkAllHash() {
+        String hash = markAllHash;
+        if (hash == null) {
+            hash = metadata.getMarkAllHash(path);
+            markAllHash = hash;
+        }
+        return hash;
+    }
+
+    boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Racing threads get the same node from the coverage, so it doesn't matter which one updates the cache.
+     * @return The node of the values that are returned by the given leaf
+     */
+    PathNode child(FunctionMarker.Leaf leaf, Class<?> type) {
+        PathNode child = children[leaf.index];
+        if (child == null || child.metadata.getType() != type) {
+            child = coverage.node(path + "/" + leaf.name, ClassMetadata.of(type));
+            children[leaf.index] = child;
+        }
+        return child;
+    }
+
+    /**
+     * Registers a new branch at this path. When marking per path and ignoring null fields, the getters of
+     * which no value has been seen yet are checked, because the branch itself won't be kept around.
+     * @return Whether the branch is tracked, see {@link FunctionMarker.Options#sample(double, int)}
+     */
+    boolean record(Object value) {
+        records.increment(0);
+        if (!sample()) {
+            return false;
+        }
+        sampled.increment(0);
+        if (!isPerPath() || !getOptions().isIgnoreNullFields()) {
+            return true;
+        }
+
+        for (FunctionMarker.Leaf leaf : metadata.getLeaves()) {
+            if (!Bits.isSet(present, leaf.index, concurrent)
+                    && !Bits.isSet(marks, leaf.index, concurrent)
+                    && leaf.isPresentOn(value)) {
+                Bits.set(present, leaf.index, concurrent);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Every node is of one class, so the first record of a class at this path is always tracked. After the first
+     * records, the fraction is spread evenly: with 0.01 every hundredth record is tracked.
+     */
+    private boolean sample() {
+        FunctionMarker.Options options = getOptions();
+        if (!options.isSampled()) {
+            return true;
+        }
+
+        long number = concurrent ? (long) SEEN.getAndAdd(this, 1L) + 1 : ++seen;
+        long first = Math.max(options.getSampleFirst(), 1);
+        if (number <= first) {
+            return true;
+        }
+        long rest = number - first;
+        double fraction = options.getSampleFraction();
+        return (long) (rest * fraction) != (long) ((rest - 1) * fraction);
+    }
+
+    void hit(FunctionMarker.Leaf leaf, Object result) {
+        hits.increment(leaf.index);
+        if (result != null && !(result instanceof List && ((List<?>)result).isEmpty())) {
+            nonNull.increment(leaf.index);
+        }
+    }
+
+    void mark(FunctionMarker.Leaf leaf) {
+        Bits.set(marks, leaf.index, concurrent);
+    }
+
+    boolean isMarked(FunctionMarker.Leaf leaf) {
+        return Bits.isSet(marks, leaf.index, concurrent);
+    }
+
+    long getRecords() {
+        return records.get(0);
+    }
+
+    long getSampledRecords() {
+        return sampled.get(0);
+    }
+
+    long getHits(FunctionMarker.Leaf leaf) {
+        return hits.get(leaf.index);
+    }
+
+    long getNonNull(FunctionMarker.Leaf leaf) {
+        return nonNull.get(leaf.index);
+    }
+
+    /**
+     * Only meaningful when marking per path.
+     */
+    List<String> getUnmarkedItems() {
+        List<String> result = new ArrayList<>();
+        boolean ignoreNullFields = getOptions().isIgnoreNullFields();
+        for (FunctionMarker.Leaf leaf : metadata.getLeaves()) {
+            if (Bits.isSet(marks, leaf.index, concurrent)) {
+                continue;
+            }
+            if (ignoreNullFields && !Bits.isSet(present, leaf.index, concurrent)) {
+                continue;
+            }
+            result.add(leaf.name);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,257 @@
+package be.allersma.gedcom.migrator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Transforms records on several threads, and passes the results to a single sink.
+ * <p>
+ * Records that are submitted are collected in batches, and every batch is transformed by one task of the
+ * executor. The sink is only called from the thread that submits the records, so it doesn't need to be
+ * thread safe, which suits things like a JDBC connection. Only a limited amount of batches can be pending:
+ * when that limit is reached, submitting waits for the oldest batch to be done. When the pipeline is ordered,
+ * the sink receives the results in the order the records have been submitted, as if everything ran on a
+ * single thread.
+ * <pre>
+ * try (Pipeline&lt;Family, Marriage&gt; pipeline = new Pipeline&lt;&gt;(transform, sink, Pipeline.Options.defaults())) {
+ *     families.forEach(pipeline::submit);
+ * }
+ * </pre>
+ * @param <I> The type of the records that are submitted
+ * @param <O> The type of the results
+ */
+public class Pipeline<I, O> implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(Pipeline.class);
+
+    private final Transform<? super I, ? extends O> transform;
+    private final Sink<? super O> sink;
+    private final Options options;
+    private final Executor executor;
+    private final Deque<CompletableFuture<List<O>>> pending = new ArrayDeque<>();
+    private List<I> batch;
+    private long submitted = 0;
+    private long written = 0;
+    private boolean closed = false;
+
+    /**
+     * Runs the transformations on the common fork join pool.
+     */
+    public Pipeline(Transform<? super I, ? extends O> transform, Sink<? super O> sink, Options options) {
+        this(transform, sink, options, ForkJoinPool.commonPool());
+    }
+
+    public Pipeline(Transform<? super I, ? extends O> transform, Sink<? super O> sink, Options options, Executor executor) {
+        this.transform = transform;
+        this.sink = sink;
+        this.options = options;
+        this.executor = executor;
+        this.batch = new ArrayList<>(options.getBatchSize());
+    }
+
+    /**
+     * Adds a record to the current batch. Results of batches that are done are passed to the sink.
+     * @throws CompletionException If a transformation or the sink has failed. The cause is the original exception.
+     */
+    public void submit(I record) {
+        if (closed) {
+            throw new IllegalStateException("Pipeline has been closed");
+        }
+
+        batch.add(record);
+        submitted++;
+        if (batch.size() >= options.getBatchSize()) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Waits for all records to be transformed and passes the remaining results to the sink.
+     * @throws CompletionException If a transformation or the sink has failed. The cause is the original exception.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (!batch.isEmpty()) {
+            dispatch();
+        }
+        while (!pending.isEmpty()) {
+            drain(true);
+        }
+        logger.debug("Transformed {} records into {} results", submitted, written);
+    }
+
+    /**
+     * @return The amount of results that have been passed to the sink so far
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    private void dispatch() {
+        while (pending.size() >= options.getMaxPendingBatches()) {
+            drain(true);
+        }
+
+        List<I> inputs = batch;
+        batch = new ArrayList<>(options.getBatchSize());
+        pending.add(CompletableFuture.supplyAsync(() -> transformAll(inputs), executor));
+        drain(false);
+    }
+
+    private List<O> transformAll(List<I> inputs) {
+        List<O> outputs = new ArrayList<>(inputs.size());
+        Consumer<O> collector = outputs::add;
+        for (I input : inputs) {
+            try {
+                transform.apply(input, collector);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Passes the results of batches that are done to the sink. When ordered, only the batches at the head
+     * of the queue are taken, otherwise any batch that is done.
+     * @param wait Whether to wait until at least one batch is done
+     */
+    private void drain(boolean wait) {
+        if (options.isOrdered()) {
+            while (!pending.isEmpty() && (wait || pending.peekFirst().isDone())) {
+                write(pending.pollFirst());
+                wait = false;
+            }
+            return;
+        }
+
+        if (wait && !pending.isEmpty()) {
+            CompletableFuture.anyOf(pending.toArray(new CompletableFuture[0])).handle((result, error) -> null).join();
+        }
+        Iterator<CompletableFuture<List<O>>> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            CompletableFuture<List<O>> future = iterator.next();
+            if (future.isDone()) {
+                iterator.remove();
+                write(future);
+            }
+        }
+    }
+
+    private void write(CompletableFuture<List<O>> future) {
+        List<O> outputs;
+        try {
+            outputs = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            cancelPending();
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause()
+                    : e.getCause();
+            throw new CompletionException(cause);
+        }
+
+        for (O output : outputs) {
+            try {
+                sink.accept(output);
+            } catch (Exception e) {
+                cancelPending();
+                throw new CompletionException(e);
+            }
+            written++;
+        }
+    }
+
+    private void cancelPending() {
+        closed = true;
+        pending.forEach(future -> future.cancel(false));
+        pending.clear();
+    }
+
+    /**
+     * Turns one record into any amount of results.
+     */
+    @FunctionalInterface
+    public interface Transform<I, O> {
+        void apply(I input, Consumer<? super O> output) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Sink<O> {
+        void accept(O output) throws Exception;
+    }
+
+    public static final class Options {
+        private final int batchSize;
+        private final int maxPendingBatches;
+        private final boolean ordered;
+
+        private Options(int batchSize, int maxPendingBatches, boolean ordered) {
+            if (batchSize < 1 || maxPendingBatches < 1) {
+                throw new IllegalArgumentException("Batch size and amount of pending batches must be positive");
+            }
+            this.batchSize = batchSize;
+            this.maxPendingBatches = maxPendingBatches;
+            this.ordered = ordered;
+        }
+
+        /**
+         * Ordered, with batches of 256 records and four pending batches per processor.
+         */
+        public static Options defaults() {
+            return new Options(256, 4 * Runtime.getRuntime().availableProcessors(), true);
+        }
+
+        /**
+         * Larger batches have less overhead per record, smaller ones spread the work more evenly.
+         */
+        public Options batchSize(int batchSize) {
+            return new Options(batchSize, maxPendingBatches, ordered);
+        }
+
+        /**
+         * Limits the memory used by records that are waiting to be transformed or written.
+         */
+        public Options maxPendingBatches(int maxPendingBatches) {
+            return new Options(batchSize, maxPendingBatches, ordered);
+        }
+
+        /**
+         * An unordered pipeline passes results to the sink as soon as their batch is done, so a slow batch
+         * doesn't hold back the others.
+         */
+        public Options ordered(boolean ordered) {
+            return new Options(batchSize, maxPendingBatches, ordered);
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public int getMaxPendingBatches() {
+            return maxPendingBatches;
+        }
+
+        public boolean isOrdered() {
+            return ordered;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package be.allersma.gedcom.migrator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every distinct place a dense id, starting at 1, so events can refer to a place by id instead of
+ * each keeping their own copy of the same text.
+ * <p>
+ * Places are split into their levels on commas, from the largest to the smallest: "Groningen, Groningen,
+ * Nederland" is the place "Groningen" within "Groningen, Nederland", which is within "Nederland". Every level is
+ * a place of its own, with the next larger level as its parent, so a parent always has a lower id than its
+ * children.
+ * <p>
+ * Places that only differ in spacing or casing are the same place. The name of a level is written as it was
+ * first seen, unless that was all lower or upper case and a later variant isn't.
+ * <p>
+ * Safe to use from several threads. Places that have been seen before are found without locking.
+ */
+public class PlaceGazetteer {
+    public static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<String, Integer> byValue = new ConcurrentHashMap<>();
+    private final Map<String, Integer> byKey = new HashMap<>();
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int maxId = 0;
+
+    /**
+     * @return The id of the place, which is newly assigned if the place wasn't seen yet, or {@link PlaceGazetteer#NONE}
+     * if the place is null or has no name.
+     */
+    public int getId(String place) {
+        if (place == null) {
+            return NONE;
+        }
+        Integer id = byValue.get(place);
+        if (id != null) {
+            return id;
+        }
+        return register(place);
+    }
+
+    /**
+     * Adds a place with a known id, for example one that has been stored by an earlier run. The parent must
+     * have been added before.
+     * @param name The name of the level, like "Groningen"
+     * @throws IllegalArgumentException If the id is already in use, or the parent is not
+     */
+    public synchronized void put(int id, String name, int parent) {
+        if (id < 1) {
+            throw new IllegalArgumentException("Ids start at 1, got " + id);
+        }
+        if (id <= maxId && names[id] != null) {
+            throw new IllegalArgumentException("Id " + id + " is already in use by '" + getFullName(id) + "'");
+        }
+        if (parent != NONE && (parent > maxId || names[parent] == null)) {
+            throw new IllegalArgumentException("Parent " + parent + " of '" + name + "' is unknown");
+        }
+
+        String level = collapseWhitespace(name);
+        String key = level.toLowerCase(Locale.ROOT);
+        if (parent != NONE) {
+            key += ", " + getFullName(parent).toLowerCase(Locale.ROOT);
+        }
+        if (byKey.containsKey(key)) {
+            throw new IllegalArgumentException("Place '" + name + "' already has id " + byKey.get(key));
+        }
+        add(id, key, level, parent);
+    }
+
+    /**
+     * @return The name of the level, like "Groningen", or null if the id is not in use
+     */
+    public synchronized String getName(int id) {
+        return id >= 1 && id <= maxId ? names[id] : null;
+    }
+
+    /**
+     * @return The name with all larger levels, like "Groningen, Groningen, Nederland", or null if the id is not
+     * in use
+     */
+    public synchronized String getFullName(int id) {
+        if (getName(id) == null) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder(names[id]);
+        for (int parent = parents[id]; parent != NONE; parent = parents[parent]) {
+            result.append(", ").append(names[parent]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return The id of the next larger level, or {@link PlaceGazetteer#NONE} for the largest level
+     */
+    public synchronized int getParent(int id) {
+        return getName(id) == null ? NONE : parents[id];
+    }
+
+    /**
+     * @return The highest id in use, which is also the amount of places when none have been skipped while
+     * restoring.
+     */
+    public synchronized int getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Removes the spaces around the levels and replaces every run of whitespace within them by a single space.
+     * Empty levels at the start or the end are left out.
+     */
+    static String normalize(String place) {
+        return String.join(", ", levels(place));
+    }
+
+    /**
+     * @return The normalized levels of a place, from the smallest to the largest
+     */
+    private static String[] levels(String place) {
+        String[] levels = place.split(",", -1);
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = collapseWhitespace(levels[i]);
+            if (!levels[i].isEmpty()) {
+                first = first < 0 ? i : first;
+                last = i;
+            }
+        }
+        return first < 0 ? new String[0] : Arrays.copyOfRange(levels, first, last + 1);
+    }
+
+    private static String collapseWhitespace(String level) {
+        StringBuilder result = new StringBuilder(level.length());
+        boolean space = false;
+        for (int i = 0; i < level.length(); i++) {
+            char c = level.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = result.length() > 0;
+            } else {
+                if (space) {
+                    result.append(' ');
+                    space = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private synchronized int register(String place) {
+        Integer known = byValue.get(place);
+        if (known != null) {
+            return known;
+        }
+
+        String[] levels = levels(place);
+        if (levels.length == 0) {
+            byValue.put(place, NONE);
+            return NONE;
+        }
+        int id = NONE;
+        String key = null;
+        for (int i = levels.length - 1; i >= 0; i--) {
+            String level = levels[i];
+            String levelKey = level.toLowerCase(Locale.ROOT);
+            key = key == null ? levelKey : levelKey + ", " + key;
+            Integer existing = byKey.get(key);
+            if (existing == null) {
+                id = add(maxId + 1, key, level, id);
+            } else {
+                id = existing;
+                if (isBetterName(level, names[id])) {
+                    names[id] = level;
+                }
+            }
+        }
+        byValue.put(place, id);
+        return id;
+    }
+
+    private int add(int id, String key, String name, int parent) {
+        if (id >= names.length) {
+            int capacity = Math.max(names.length * 2, id + 1);
+            names = Arrays.copyOf(names, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+        }
+        names[id] = name;
+        parents[id] = parent;
+        byKey.put(key, id);
+        maxId = Math.max(maxId, id);
+        return id;
+    }
+
+    /**
+     * A name in mixed case beats one in only lower or upper case.
+     */
+    private static boolean isBetterName(String candidate, String current) {
+        return isSingleCase(current) && !isSingleCase(candidate);
+    }
+
+    private static boolean isSingleCase(String name) {
+        return name.equals(name.toLowerCase(Locale.ROOT)) || name.equals(name.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,178 @@
+package be.allersma.gedcom.migrator;
+
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A content hash per top-level record, by xref. Comparing the hashes of two versions of a file tells which
+ * records have been added, changed or deleted, so only those have to be migrated again.
+ * <p>
+ * The hash is taken from the text of a record as it is in the file, so any change to a record or to one of
+ * its substructures changes the hash. Line endings don't matter.
+ */
+public class RecordHashes {
+    private final Map<RecordType, Map<String, Long>> hashes = new EnumMap<>(RecordType.class);
+
+    public RecordHashes() {
+        for (RecordType type : RecordType.values()) {
+            hashes.put(type, new HashMap<>());
+        }
+    }
+
+    /**
+     * Hashes all records of the given types in a file, without parsing them.
+     */
+    public static RecordHashes read(Reader reader, RecordType... types) throws IOException, SAXParseException {
+        RecordHashes result = new RecordHashes();
+        result.reader(types).read(reader);
+        return result;
+    }
+
+    /**
+     * Same as {@link RecordHashes#read(Reader, RecordType...)}, but reads the file with a {@link GedcomTokenizer}
+     * in the encoding its header tells. The hash is taken from the decoded text, so it is the same as the hash of
+     * a reader in that encoding.
+     */
+    public static RecordHashes read(Path file, RecordType... types) throws IOException, SAXParseException {
+        RecordHashes result = new RecordHashes();
+        result.reader(types).read(file);
+        return result;
+    }
+
+    /**
+     * @return A reader that puts the hashes of the records of the given types in here
+     */
+    private GedcomStreamReader reader(RecordType... types) {
+        GedcomStreamReader reader = new GedcomStreamReader();
+        for (RecordType type : types) {
+            reader.onText(type, (xref, text) -> put(type, xref, hash(text)));
+        }
+        return reader;
+    }
+
+    /**
+     * A 64 bit FNV-1a hash over the characters, with a final mix so that small changes spread over all bits.
+     */
+    public static long hash(CharSequence text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Records without an xref can't be compared, so they are ignored.
+     */
+    public void put(RecordType type, String xref, long hash) {
+        if (xref != null && !xref.isEmpty()) {
+            hashes.get(type).put(strip(xref), hash);
+        }
+    }
+
+    public boolean contains(RecordType type, String xref) {
+        return xref != null && hashes.get(type).containsKey(strip(xref));
+    }
+
+    public OptionalLong getHash(RecordType type, String xref) {
+        Long hash = xref == null ? null : hashes.get(type).get(strip(xref));
+        return hash == null ? OptionalLong.empty() : OptionalLong.of(hash);
+    }
+
+    public int size(RecordType type) {
+        return hashes.get(type).size();
+    }
+
+    public void forEach(RecordType type, ObjLongConsumer<String> consumer) {
+        hashes.get(type).forEach(consumer::accept);
+    }
+
+    /**
+     * @param previous The hashes of the previous version of the file
+     */
+    public Delta compareTo(RecordHashes previous) {
+        Delta delta = new Delta();
+        for (RecordType type : RecordType.values()) {
+            Map<String, Long> before = previous.hashes.get(type);
+            Map<String, Long> after = hashes.get(type);
+            Set<String> added = new TreeSet<>();
+            Set<String> changed = new TreeSet<>();
+            Set<String> deleted = new TreeSet<>();
+
+            after.forEach((xref, hash) -> {
+                Long old = before.get(xref);
+                if (old == null) {
+                    added.add(xref);
+                } else if (old.longValue() != hash.longValue()) {
+                    changed.add(xref);
+                }
+            });
+            for (String xref : before.keySet()) {
+                if (!after.containsKey(xref)) {
+                    deleted.add(xref);
+                }
+            }
+
+            delta.added.put(type, Collections.unmodifiableSet(added));
+            delta.changed.put(type, Collections.unmodifiableSet(changed));
+            delta.deleted.put(type, Collections.unmodifiableSet(deleted));
+        }
+        return delta;
+    }
+
+    private static String strip(String xref) {
+        int begin = xref.startsWith("@") ? 1 : 0;
+        int end = xref.length() > begin && xref.endsWith("@") ? xref.length() - 1 : xref.length();
+        return begin == 0 && end == xref.length() ? xref : xref.substring(begin, end);
+    }
+
+    /**
+     * The xrefs, without <code>@</code>s, of the records that differ between two versions of a file, sorted.
+     */
+    public static final class Delta {
+        private final Map<RecordType, Set<String>> added = new EnumMap<>(RecordType.class);
+        private final Map<RecordType, Set<String>> changed = new EnumMap<>(RecordType.class);
+        private final Map<RecordType, Set<String>> deleted = new EnumMap<>(RecordType.class);
+
+        private Delta() {
+        }
+
+        public Set<String> getAdded(RecordType type) {
+            return added.get(type);
+        }
+
+        public Set<String> getChanged(RecordType type) {
+            return changed.get(type);
+        }
+
+        public Set<String> getDeleted(RecordType type) {
+            return deleted.get(type);
+        }
+
+        public boolean isEmpty() {
+            for (RecordType type : RecordType.values()) {
+                if (!added.get(type).isEmpty() || !changed.get(type).isEmpty() || !deleted.get(type).isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package be.allersma.gedcom.migrator;
+
+/**
+ * The kinds of top-level records in a Gedcom file that can be referred to by a cross-reference id (xref).
+ */
+public enum RecordType {
+    INDI,
+    FAM,
+    NOTE,
+    SOUR,
+    OBJE,
+    REPO,
+    SUBM;
+
+    /**
+     * @return The record type of a top-level tag, or null if records with this tag can't be referred to.
+     */
+    public static RecordType fromTag(String tag) {
+        switch (tag) {
+            case "INDI": return INDI;
+            case "FAM": return FAM;
+            case "NOTE": return NOTE;
+            case "SOUR": return SOUR;
+            case "OBJE": return OBJE;
+            case "REPO": return REPO;
+            case "SUBM": return SUBM;
+            default: return null;
+        }
+    }
+}
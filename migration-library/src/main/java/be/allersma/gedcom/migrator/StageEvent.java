@@ -0,0 +1,32 @@
+package be.allersma.gedcom.migrator;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A stage of a migration as it shows up in a flight recording, see {@link MigrationMetrics#start(String)}.
+ */
+@Name("be.allersma.gedcom.Stage")
+@Label("Migration Stage")
+@Category({"Gedcom", "Migration"})
+@Description("A stage of a Gedcom migration, like parsing or writing")
+@StackTrace(false)
+final class StageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Records")
+    long records;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    @Label("Heap Used")
+    @DataAmount
+    long heapUsed;
+}
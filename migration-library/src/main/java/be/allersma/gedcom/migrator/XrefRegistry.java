@@ -0,0 +1,237 @@
+package be.allersma.gedcom.migrator;
+
+import org.folg.gedcom.model.Gedcom;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Maps cross-reference ids (xrefs) like <code>@I123@</code>, <code>@P123@</code> or <code>@I_45a@</code> to
+ * dense integers, per {@link RecordType}. The first xref of a type gets id 1, the next one 2, and so on.
+ * Surrounding <code>@</code>s are ignored, so <code>@I1@</code> and <code>I1</code> get the same id.
+ * <p>
+ * Looking up an id doesn't allocate anything, so it can be done for every reference in a tree.
+ * To keep ids the same between runs, store the mapping using {@link XrefRegistry#forEach(RecordType, ObjIntConsumer)}
+ * and restore it with {@link XrefRegistry#put(RecordType, String, int)} before registering new xrefs.
+ * <p>
+ * Registering is not thread-safe. Looking up is, once all xrefs have been registered and the registry
+ * has been handed over to the other threads.
+ */
+public class XrefRegistry {
+    public static final int NONE = -1;
+
+    private final Map<RecordType, Table> tables = new EnumMap<>(RecordType.class);
+
+    public XrefRegistry() {
+        for (RecordType type : RecordType.values()) {
+            tables.put(type, new Table());
+        }
+    }
+
+    /**
+     * Registers the ids of all top-level records of a parsed Gedcom.
+     */
+    public XrefRegistry registerAll(Gedcom gedcom) {
+        gedcom.getPeople().forEach(person -> register(RecordType.INDI, person.getId()));
+        gedcom.getFamilies().forEach(family -> register(RecordType.FAM, family.getId()));
+        gedcom.getNotes().forEach(note -> register(RecordType.NOTE, note.getId()));
+        gedcom.getSources().forEach(source -> register(RecordType.SOUR, source.getId()));
+        gedcom.getMedia().forEach(media -> register(RecordType.OBJE, media.getId()));
+        gedcom.getRepositories().forEach(repository -> register(RecordType.REPO, repository.getId()));
+        gedcom.getSubmitters().forEach(submitter -> register(RecordType.SUBM, submitter.getId()));
+        return this;
+    }
+
+    /**
+     * @return The id of the xref, which is newly assigned if the xref wasn't registered yet,
+     * or {@link XrefRegistry#NONE} if the xref is null or empty.
+     */
+    public int register(RecordType type, String xref) {
+        if (xref == null) {
+            return NONE;
+        }
+        return tables.get(type).register(xref, begin(xref), end(xref), NONE);
+    }
+
+    /**
+     * Registers an xref with a known id, for example one that has been stored by an earlier run.
+     * @throws IllegalArgumentException If the xref is null or empty, or the xref or the id is already in use for
+     * something else
+     */
+    public void put(RecordType type, String xref, int id) {
+        if (id < 1) {
+            throw new IllegalArgumentException("Ids start at 1, got " + id);
+        }
+        if (xref == null || begin(xref) >= end(xref)) {
+            throw new IllegalArgumentException("Xref of id " + id + " is " + (xref == null ? "null" : "empty"));
+        }
+        int registered = tables.get(type).register(xref, begin(xref), end(xref), id);
+        if (registered == NONE) {
+            throw new IllegalArgumentException("Id " + id + " is already in use by '" + getXref(type, id) + "'");
+        } else if (registered != id) {
+            throw new IllegalArgumentException("Xref '" + xref + "' already has id " + registered);
+        }
+    }
+
+    /**
+     * @return The id of the xref, or {@link XrefRegistry#NONE} if it has not been registered.
+     */
+    public int getId(RecordType type, String xref) {
+        if (xref == null) {
+            return NONE;
+        }
+        return tables.get(type).get(xref, begin(xref), end(xref));
+    }
+
+    /**
+     * @return The xref without surrounding <code>@</code>s, or null if the id is not in use.
+     */
+    public String getXref(RecordType type, int id) {
+        return tables.get(type).getXref(id);
+    }
+
+    /**
+     * @return The highest id in use for the given type, which is also the amount of ids when
+     * none have been skipped while restoring.
+     */
+    public int getMaxId(RecordType type) {
+        return tables.get(type).maxId;
+    }
+
+    public int size(RecordType type) {
+        return tables.get(type).size;
+    }
+
+    /**
+     * Visits all xrefs of a type with their id, in order of id.
+     */
+    public void forEach(RecordType type, ObjIntConsumer<String> consumer) {
+        Table table = tables.get(type);
+        for (int id = 1; id <= table.maxId; id++) {
+            String xref = table.getXref(id);
+            if (xref != null) {
+                consumer.accept(xref, id);
+            }
+        }
+    }
+
+    private static int begin(String xref) {
+        return !xref.isEmpty() && xref.charAt(0) == '@' ? 1 : 0;
+    }
+
+    private static int end(String xref) {
+        int end = xref.length();
+        return end > 1 && xref.charAt(end - 1) == '@' ? end - 1 : end;
+    }
+
+    /**
+     * Open addressing hash table with linear probing, from (a part of) a string to an int.
+     * The hash of a part is the same as the {@link String#hashCode()} of its substring.
+     */
+    private static final class Table {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private String[] keys = new String[INITIAL_CAPACITY];
+        private int[] ids = new int[INITIAL_CAPACITY];
+        private String[] xrefs = new String[INITIAL_CAPACITY];
+        private int size;
+        private int maxId;
+
+        int get(String xref, int begin, int end) {
+            int mask = keys.length - 1;
+            for (int slot = spread(hash(xref, begin, end)) & mask; ; slot = (slot + 1) & mask) {
+                String key = keys[slot];
+                if (key == null) {
+                    return NONE;
+                }
+                if (matches(key, xref, begin, end)) {
+                    return ids[slot];
+                }
+            }
+        }
+
+        /**
+         * @param id The id to use when the xref is new, or {@link XrefRegistry#NONE} for the next free id
+         * @return The id of the xref
+         */
+        int register(String xref, int begin, int end, int id) {
+            if (begin >= end) {
+                return NONE;
+            }
+
+            int mask = keys.length - 1;
+            int slot = spread(hash(xref, begin, end)) & mask;
+            for (String key = keys[slot]; key != null; key = keys[slot]) {
+                if (matches(key, xref, begin, end)) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            int assigned = id == NONE ? maxId + 1 : id;
+            if (getXref(assigned) != null) {
+                return NONE;
+            }
+
+            String key = begin == 0 && end == xref.length() ? xref : xref.substring(begin, end);
+            keys[slot] = key;
+            ids[slot] = assigned;
+            size++;
+            maxId = Math.max(maxId, assigned);
+            if (assigned >= xrefs.length) {
+                xrefs = Arrays.copyOf(xrefs, Math.max(xrefs.length * 2, assigned + 1));
+            }
+            xrefs[assigned] = key;
+
+            if (size * 2 > keys.length) {
+                grow();
+            }
+            return assigned;
+        }
+
+        String getXref(int id) {
+            return id > 0 && id < xrefs.length ? xrefs[id] : null;
+        }
+
+        private void grow() {
+            String[] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new String[oldKeys.length * 2];
+            ids = new int[oldKeys.length * 2];
+
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                String key = oldKeys[i];
+                if (key != null) {
+                    int slot = spread(key.hashCode()) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = key;
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+
+        private static int hash(String xref, int begin, int end) {
+            if (begin == 0 && end == xref.length()) {
+                return xref.hashCode();
+            }
+            int hash = 0;
+            for (int i = begin; i < end; i++) {
+                hash = 31 * hash + xref.charAt(i);
+            }
+            return hash;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean matches(String key, String xref, int begin, int end) {
+            return key.length() == end - begin && xref.regionMatches(begin, key, 0, key.length());
+        }
+    }
+}
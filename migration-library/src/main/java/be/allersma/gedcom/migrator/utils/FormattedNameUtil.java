@@ -1,92 +1,146 @@
 package be.allersma.gedcom.migrator.utils;
 
+import org.folg.gedcom.model.Gedcom;
 import org.folg.gedcom.model.Name;
+import org.folg.gedcom.model.Person;
 
+import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * NOTE: as of gedcom 5.1 nicknames are no longer specified between double quotes.
  */
 public class FormattedNameUtil {
     public static Name parseNameValue(Name name) {
-        Optional<String> givenNames = parseGivenNames(name.getValue());
-        Optional<String> surnames = parseSurnames(name.getValue());
-        Optional<String> suffix = parseSuffix(name.getValue());
+        if (name.getValue() == null) {
+            return name;
+        }
+
+        ParsedName parsed = ParsedName.scan(name.getValue());
 
-        if (name.getGiven() == null)
-            givenNames.ifPresent(name::setGiven);
-        if (name.getSurname() == null)
-            surnames.ifPresent(name::setSurname);
-        if (name.getSuffix() == null)
-            suffix.ifPresent(name::setSuffix);
+        if (name.getGiven() == null && parsed.given != null)
+            name.setGiven(parsed.given);
+        if (name.getSurname() == null && parsed.surname != null)
+            name.setSurname(parsed.surname);
+        if (name.getSuffix() == null && parsed.suffix != null)
+            name.setSuffix(parsed.suffix);
 
         return name;
     }
 
-    static Optional<String> parseGivenNames(String input) {
-        String[] names = input.split(" ");
-        StringBuilder builder = new StringBuilder();
-
-        for (int i = 0; i < names.length; i++) {
-            if (names[i].startsWith("/"))
-                break;
-
-            if(i != 0) {
-                builder.append(" ");
-            }
-
-            builder.append(names[i]);
-        }
+    /**
+     * Parses the value of every name of every person, see {@link FormattedNameUtil#parseNameValue(Name)}.
+     * @param parallel Whether to parse the names of different people on different threads.
+     */
+    public static void parseNameValues(Gedcom gedcom, boolean parallel) {
+        List<Person> people = gedcom.getPeople();
+        Stream<Person> stream = parallel ? people.parallelStream() : people.stream();
+        stream.forEach(person -> person.getNames().forEach(FormattedNameUtil::parseNameValue));
+    }
 
-        String result = builder.toString().trim();
-        return result.isBlank() ? Optional.empty() : Optional.of(result);
+    static Optional<String> parseGivenNames(String input) {
+        return Optional.ofNullable(ParsedName.scan(input).given);
     }
 
     static Optional<String> parseSurnames(String input) {
-        Optional<String> surname = surnameOnly(input);
-        if (surname.isPresent()) return surname;
-        surname = surnameAndSuffix(input);
-        if (surname.isPresent()) return surname;
-        surname = givenAndSurname(input);
-        if (surname.isPresent()) return surname;
-        return completeName(input);
+        return Optional.ofNullable(ParsedName.scan(input).surname);
     }
 
-    private static Optional<String> surnameOnly(String input) {
-        Pattern pattern = Pattern.compile("^/(.+)/$");
-        return match(input, pattern);
+    static Optional<String> parseSuffix(String input) {
+        return Optional.ofNullable(ParsedName.scan(input).suffix);
     }
 
-    private static Optional<String> surnameAndSuffix(String input) {
-        Pattern pattern = Pattern.compile("^/(.+)/ .*$");
-        return match(input, pattern);
-    }
+    /**
+     * The parts of a NAME value, found in a single pass over the value. The surname is the first match of
+     * <code>^/(.+)/$</code>, <code>^/(.+)/ .*$</code>, <code>^.* /(.+)/$</code> and <code>^.* /(.+)/ .*$</code>,
+     * the suffix is whatever follows the last <code>"/ "</code>, and the given names are whatever precedes the
+     * first word starting with a slash. Parts that are blank are null.
+     */
+    private static final class ParsedName {
+        private final String given;
+        private final String surname;
+        private final String suffix;
+
+        private ParsedName(String given, String surname, String suffix) {
+            this.given = given;
+            this.surname = surname;
+            this.suffix = suffix;
+        }
 
-    private static Optional<String> givenAndSurname(String input) {
-        Pattern pattern = Pattern.compile("^.* /(.+)/$");
-        return match(input, pattern);
-    }
+        /**
+         * Walks backwards, so the last <code>"/ "</code> is known before the <code>" /"</code> in front of it is.
+         */
+        static ParsedName scan(String input) {
+            int length = input.length();
+            int wordSlash = -1;       // First slash that starts a word
+            int closingSlash = -1;    // Last slash that is followed by a space
+            int openingAtEnd = -1;    // Last space-slash that leaves room for a surname before the final slash
+            int openingInside = -1;   // Last space-slash that leaves room for a surname before the closing slash
+
+            for (int i = length - 1; i >= 0; i--) {
+                char c = input.charAt(i);
+                if (c == '/') {
+                    if (i == 0 || input.charAt(i - 1) == ' ') {
+                        wordSlash = i;
+                    }
+                    if (closingSlash == -1 && i + 1 < length && input.charAt(i + 1) == ' ') {
+                        closingSlash = i;
+                    }
+                } else if (c == ' ' && i + 1 < length && input.charAt(i + 1) == '/') {
+                    if (openingAtEnd == -1 && i <= length - 4) {
+                        openingAtEnd = i;
+                    }
+                    if (openingInside == -1 && closingSlash != -1 && i <= closingSlash - 3) {
+                        openingInside = i;
+                    }
+                }
+            }
 
-    private static Optional<String> completeName(String input) {
-        Pattern pattern = Pattern.compile("^.* /(.+)/ .*$");
-        return match(input, pattern);
-    }
+            String given;
+            if (wordSlash == -1) {
+                given = part(input, 0, length);
+            } else {
+                given = wordSlash == 0 ? null : part(input, 0, wordSlash - 1);
+            }
 
-    static Optional<String> parseSuffix(String input) {
-        Pattern pattern = Pattern.compile(".*/+ (.*)$");
-        return match(input, pattern);
-    }
+            boolean startsWithSlash = length > 0 && input.charAt(0) == '/';
+            boolean endsWithSlash = length > 0 && input.charAt(length - 1) == '/';
+            String surname = null;
+            if (startsWithSlash && endsWithSlash && length >= 3) {
+                surname = part(input, 1, length - 1);
+            }
+            if (surname == null && startsWithSlash && closingSlash >= 2) {
+                surname = part(input, 1, closingSlash);
+            }
+            if (surname == null && endsWithSlash && openingAtEnd != -1) {
+                surname = part(input, openingAtEnd + 2, length - 1);
+            }
+            if (surname == null && openingInside != -1) {
+                surname = part(input, openingInside + 2, closingSlash);
+            }
 
-    private static Optional<String> match(String input, Pattern pattern) {
-        Matcher matcher = pattern.matcher(input);
+            String suffix = closingSlash == -1 ? null : part(input, closingSlash + 2, length);
 
-        if (!matcher.find()) {
-            return Optional.empty();
+            return new ParsedName(given, surname, suffix);
         }
 
-        String result = matcher.group(1).trim();
-        return result.isBlank() ? Optional.empty() : Optional.of(result);
+        /**
+         * @return The trimmed part between the given indices, or null if it is blank.
+         */
+        private static String part(String input, int begin, int end) {
+            while (begin < end && input.charAt(begin) <= ' ') {
+                begin++;
+            }
+            while (end > begin && input.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (begin == end) {
+                return null;
+            }
+
+            String result = input.substring(begin, end);
+            return result.isBlank() ? null : result;
+        }
     }
 }
@@ -0,0 +1,140 @@
+package be.allersma.gedcom.migrator;
+
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FamilyGraphTest {
+    /**
+     * Four generations where cousins marry: G1 and G2 have children A and B, A and B marry others and their
+     * children C and D marry each other and have child E. Family F5 has no relations at all.
+     */
+    private static final String GEDCOM = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @G1@ INDI\n0 @G2@ INDI\n0 @A@ INDI\n0 @B@ INDI\n0 @X@ INDI\n0 @Y@ INDI\n"
+            + "0 @C@ INDI\n0 @D@ INDI\n0 @E@ INDI\n0 @LONELY@ INDI\n"
+            + "0 @F1@ FAM\n1 HUSB @G1@\n1 WIFE @G2@\n1 CHIL @A@\n1 CHIL @B@\n"
+            + "0 @F2@ FAM\n1 HUSB @A@\n1 WIFE @X@\n1 CHIL @C@\n"
+            + "0 @F3@ FAM\n1 HUSB @Y@\n1 WIFE @B@\n1 CHIL @D@\n"
+            + "0 @F4@ FAM\n1 HUSB @C@\n1 WIFE @D@\n1 CHIL @E@\n1 CHIL @UNKNOWN@\n"
+            + "0 @F5@ FAM\n"
+            + "0 TRLR\n";
+
+    private XrefRegistry registry;
+    private FamilyGraph graph;
+
+    @BeforeEach
+    public void setUp() throws SAXParseException, IOException {
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(GEDCOM));
+        registry = new XrefRegistry().registerAll(gedcom);
+        graph = FamilyGraph.of(gedcom, registry);
+    }
+
+    @Test
+    public void familyTest() {
+        assertArrayEquals(ids("G1", "G2"), graph.getFamilyPartners(family("F1")));
+        assertArrayEquals(ids("A", "B"), graph.getFamilyChildren(family("F1")));
+        assertArrayEquals(ids("E"), graph.getFamilyChildren(family("F4")));
+        assertArrayEquals(new int[0], graph.getFamilyPartners(family("F5")));
+        assertArrayEquals(new int[0], graph.getFamilyPartners(100));
+    }
+
+    @Test
+    public void personTest() {
+        assertArrayEquals(ids("G1", "G2"), graph.getParents(person("A")));
+        assertArrayEquals(ids("C"), graph.getChildren(person("A")));
+        assertArrayEquals(ids("X"), graph.getSpouses(person("A")));
+        assertArrayEquals(new int[] { family("F2") }, graph.getSpouseFamilies(person("A")));
+        assertArrayEquals(new int[] { family("F1") }, graph.getChildFamilies(person("A")));
+        assertArrayEquals(new int[0], graph.getParents(person("LONELY")));
+        assertArrayEquals(new int[0], graph.getParents(XrefRegistry.NONE));
+        assertEquals(registry.getMaxId(RecordType.INDI), graph.getMaxPerson());
+    }
+
+    @Test
+    public void ancestorsTest() {
+        // G1 and G2 can be reached through both C and D, but are only found once
+        assertArrayEquals(ids("C", "D", "A", "X", "Y", "B", "G1", "G2"), graph.getAncestors(person("E"), 10));
+        assertArrayEquals(ids("C", "D", "A", "X", "Y", "B"), graph.getAncestors(person("E"), 2));
+        assertArrayEquals(new int[0], graph.getAncestors(person("E"), 0));
+    }
+
+    @Test
+    public void descendantsTest() {
+        assertArrayEquals(ids("A", "B", "C", "D", "E"), graph.getDescendants(person("G1"), 10));
+        assertArrayEquals(ids("A", "B"), graph.getDescendants(person("G1"), 1));
+    }
+
+    @Test
+    public void generationsTest() {
+        List<String> visited = new ArrayList<>();
+        FamilyGraph.Traversal traversal = graph.traversal();
+        traversal.ancestors(person("E"), 10, (person, generation) ->
+                visited.add(registry.getXref(RecordType.INDI, person) + generation));
+        assertEquals(List.of("C1", "D1", "A2", "X2", "Y2", "B2", "G13", "G23"), visited);
+
+        // The same traversal can be used again
+        assertArrayEquals(ids("C", "D", "A", "X", "Y", "B", "G1", "G2"), traversal.ancestors(person("E"), 10));
+    }
+
+    @Test
+    public void builderTest() {
+        XrefRegistry empty = new XrefRegistry();
+        FamilyGraph built = new FamilyGraph.Builder(empty)
+                .add(2, new int[] { 3, 4 }, new int[] { 1 })
+                .add(1, new int[] { 1, 5 }, new int[0])
+                .build();
+
+        assertArrayEquals(new int[] { 3, 4 }, built.getParents(1));
+        assertArrayEquals(new int[] { 5 }, built.getSpouses(1));
+        assertArrayEquals(new int[] { 1 }, built.getDescendants(4, 5));
+        assertEquals(5, built.getMaxPerson());
+
+        assertThrows(IllegalArgumentException.class, () -> new FamilyGraph.Builder(empty)
+                .add(1, new int[0], new int[0])
+                .add(1, new int[0], new int[0])
+                .build());
+    }
+
+    @Test
+    public void sameAsObjectModelTest() throws SAXParseException, IOException {
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(GEDCOM));
+        gedcom.createIndexes();
+        for (Family family : gedcom.getFamilies()) {
+            List<Integer> expected = family.getChildren(gedcom).stream()
+                    .map(child -> registry.getId(RecordType.INDI, child.getId()))
+                    .collect(Collectors.toList());
+            List<Integer> actual = new ArrayList<>();
+            for (int child : graph.getFamilyChildren(family(family.getId()))) {
+                actual.add(child);
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    private int person(String xref) {
+        return registry.getId(RecordType.INDI, xref);
+    }
+
+    private int family(String xref) {
+        return registry.getId(RecordType.FAM, xref);
+    }
+
+    private int[] ids(String... xrefs) {
+        int[] result = new int[xrefs.length];
+        for (int i = 0; i < xrefs.length; i++) {
+            result[i] = person(xrefs[i]);
+        }
+        return result;
+    }
+}
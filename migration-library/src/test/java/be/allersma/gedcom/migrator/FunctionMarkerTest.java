@@ -12,7 +12,10 @@ import org.xml.sax.SAXParseException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -57,6 +60,74 @@ class FunctionMarkerTest {
         assertEquals(2, ((List)people.get()).size());
     }
 
+    @Test
+    public void typedGetTest() {
+        List<FunctionMarker.Branch<Person>> people = functionMarker.get("getPeople");
+        assertEquals(2, people.size());
+        assertFalse(functionMarker.getUnmarkedItems().contains("getPeople"));
+
+        String id = people.get(0).get("getId");
+        assertEquals("I262", id);
+        assertNull(people.get(0).get("getAddress"));
+        assertNull(people.get(0).get("doesNotExist"));
+    }
+
+    @Test
+    public void lazyListTest() {
+        List<FunctionMarker.Branch<Person>> people = functionMarker.get("getPeople");
+        assertSame(people.get(0), people.get(0));
+        assertSame(people.get(0), people.iterator().next());
+        assertSame(gedcom.getPeople().get(1), people.get(1).getValue());
+    }
+
+    @Test
+    public void listGrowsAfterAccessTest() {
+        Gedcom grown = new Gedcom();
+        Person first = new Person();
+        first.setId("I1");
+        grown.addPerson(first);
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(grown);
+
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+        assertSame(first, people.get(0).getValue());
+        Person second = new Person();
+        second.setId("I2");
+        grown.addPerson(second);
+
+        assertEquals(1, people.size());
+        assertEquals(1, people.stream().count());
+        assertThrows(IndexOutOfBoundsException.class, () -> people.get(1));
+        List<FunctionMarker.Branch<Person>> again = root.get("getPeople");
+        assertSame(second, again.get(1).getValue());
+    }
+
+    @Test
+    public void streamTest() {
+        List<String> ids = functionMarker.<Person>stream("getPeople")
+                .map(person -> person.<String>get("getId"))
+                .collect(Collectors.toList());
+        assertEquals(List.of("I262", "I265"), ids);
+        assertFalse(functionMarker.getUnmarkedItems().contains("getPeople"));
+        assertEquals(0, functionMarker.stream("getHeader").count());
+    }
+
+    @Test
+    public void invokeWithArgumentsTest() {
+        Optional<Object> ross = functionMarker.invoke("getPerson", "I262");
+        assertTrue(ross.isPresent());
+        assertInstanceOf(FunctionMarker.Branch.class, ross.get());
+        assertEquals("/getPerson", ((FunctionMarker.Branch<?>) ross.get()).getPath());
+    }
+
+    @Test
+    public void invalidArgumentsTest() {
+        assertThrows(IllegalArgumentException.class, () -> functionMarker.invoke("getPerson", 262));
+        assertThrows(IllegalArgumentException.class, () -> functionMarker.invoke("getPerson"));
+        assertThrows(IllegalArgumentException.class, () -> functionMarker.invoke("getPerson", "I262", "I263"));
+        assertThrows(IllegalArgumentException.class, () -> functionMarker.get("getPerson"));
+        assertTrue(functionMarker.invoke("getPerson", (Object) null).isEmpty());
+    }
+
     @Test
     public void recursionTest() {
         Optional<Object> people = functionMarker.invoke("getPeople");
@@ -90,11 +161,80 @@ class FunctionMarkerTest {
         assertEquals(8, rossNonNull.getUnmarkedItems().size());
     }
 
+    @Test
+    public void repeatedReportTest() {
+        FunctionMarker.Branch<Gedcom> functionMarkerNonNull = FunctionMarker.createMarkerTree(gedcom, true);
+        FunctionMarker.Branch<Person> ross = ((List<FunctionMarker.Branch<Person>>) functionMarkerNonNull.invoke("getPeople").get()).get(0);
+        assertEquals(ross.getUnmarkedItems(), ross.getUnmarkedItems());
+
+        ross.mark("getNames");
+        assertEquals(7, ross.getUnmarkedItems().size());
+    }
+
+    @Test
+    public void aggregatedUnmarkedItemsTest() {
+        FunctionMarker.Branch<Gedcom> functionMarkerNonNull = FunctionMarker.createMarkerTree(gedcom, true);
+        List<FunctionMarker.Branch<Person>> people = functionMarkerNonNull.get("getPeople");
+        people.get(0).mark("getNames");
+
+        List<String> expected = people.stream()
+                .flatMap(person -> person.getUnmarkedItems().stream())
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+        List<String> actual = FunctionMarker.getUnmarkedItems(people);
+
+        assertEquals(expected, actual.stream().sorted().collect(Collectors.toList()));
+        assertTrue(actual.contains("getNames"));
+    }
+
+    @Test
+    public void concurrentMarkTest() {
+        FunctionMarker.Branch<Gedcom> concurrent = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults().concurrent(true));
+        List<String> functions = concurrent.getUnmarkedItems();
+
+        functions.parallelStream().forEach(concurrent::mark);
+        assertTrue(concurrent.getUnmarkedItems().isEmpty());
+
+        List<FunctionMarker.Branch<Person>> people = concurrent.get("getPeople");
+        List<FunctionMarker.Branch<Person>> branches = List.of(0, 1, 0, 1, 0, 1).parallelStream()
+                .map(people::get)
+                .collect(Collectors.toList());
+        assertSame(branches.get(0), branches.get(2));
+        assertSame(branches.get(1), branches.get(5));
+    }
+
     @Test
     public void pathTest() {
         assertTrue(functionMarker.getPath().isEmpty());
         FunctionMarker.Branch<Person> ross = ((List<FunctionMarker.Branch<Person>>) functionMarker.invoke("getPeople").get()).get(0);
         assertEquals("/getPeople", ross.getPath());
+
+        FunctionMarker.Branch<Note> note = ((List<FunctionMarker.Branch<Note>>) ross.invoke("getNotes").get()).get(0);
+        assertEquals("/getPeople/getNotes", note.getPath());
+    }
+
+    @Test
+    public void nestedPathFormatTest() {
+        FunctionMarker.Branch<Person> ross = functionMarker.<List<FunctionMarker.Branch<Person>>>get("getPeople").get(0);
+        FunctionMarker.Branch<Note> note = ross.<List<FunctionMarker.Branch<Note>>>get("getNotes").get(0);
+        assertEquals("/getPeople/getNotes", note.getPath());
+
+        // Hashes stored under the paths of before the slashes don't match anymore
+        assertEquals(Set.of("//getPeoplegetNotes"),
+                FunctionMarker.validateMarkAllHashes(Map.of("//getPeoplegetNotes", note.getMarkAllHash())));
+    }
+
+    @Test
+    public void marksAreKeptPerBranchTest() {
+        List<FunctionMarker.Branch<Person>> people = (List<FunctionMarker.Branch<Person>>) functionMarker.invoke("getPeople").get();
+        FunctionMarker.Branch<Person> ross = people.get(0);
+        FunctionMarker.Branch<Person> peter = people.get(1);
+
+        ross.mark("getNames");
+        assertFalse(ross.getUnmarkedItems().contains("getNames"));
+        assertTrue(peter.getUnmarkedItems().contains("getNames"));
+        assertSame(ross.getPath(), peter.getPath());
     }
 
     @Test
@@ -123,4 +263,32 @@ class FunctionMarkerTest {
         assertFalse(originalItems.isEmpty());
         assertEquals(originalItems.size(), unmarkedItems.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void markAllHashIsSharedTest() {
+        List<FunctionMarker.Branch<Person>> people = functionMarker.get("getPeople");
+        assertSame(people.get(0).getMarkAllHash(), people.get(1).getMarkAllHash());
+        assertSame(people.get(0).getMarkAllHash(), FunctionMarker.createMarkerTree(gedcom).<List<FunctionMarker.Branch<Person>>>get("getPeople").get(0).getMarkAllHash());
+        assertNotEquals(functionMarker.getMarkAllHash(), people.get(0).getMarkAllHash());
+    }
+
+    @Test
+    public void validateMarkAllHashesTest() {
+        FunctionMarker.Branch<Person> ross = functionMarker.<List<FunctionMarker.Branch<Person>>>get("getPeople").get(0);
+        FunctionMarker.Branch<Note> note = ross.<List<FunctionMarker.Branch<Note>>>get("getNotes").get(0);
+
+        Map<String, String> hashes = Map.of(
+                "", functionMarker.getMarkAllHash(),
+                "/getPeople", ross.getMarkAllHash(),
+                "/getPeople/getNotes", note.getMarkAllHash()
+        );
+        assertTrue(FunctionMarker.validateMarkAllHashes(hashes).isEmpty());
+
+        Map<String, String> badHashes = Map.of(
+                "/getPeople", "BAD-HASH",
+                "/getPeople/getNotes", note.getMarkAllHash(),
+                "/getPeople/doesNotExist", note.getMarkAllHash()
+        );
+        assertEquals(Set.of("/getPeople", "/getPeople/doesNotExist"), FunctionMarker.validateMarkAllHashes(badHashes));
+    }
+}
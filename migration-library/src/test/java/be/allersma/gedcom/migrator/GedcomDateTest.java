@@ -0,0 +1,146 @@
+package be.allersma.gedcom.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GedcomDateTest {
+    @Test
+    public void exactTest() {
+        GedcomDate day = parse("12 JAN 1799");
+        assertEquals(day(1799, 1, 12), day.getLower());
+        assertEquals(day(1799, 1, 12), day.getUpper());
+        assertEquals(GedcomDate.Precision.DAY, day.getPrecision());
+        assertEquals(GedcomDate.Modifier.EXACT, day.getModifier());
+
+        GedcomDate month = parse("FEB 1800");
+        assertEquals(day(1800, 2, 1), month.getLower());
+        assertEquals(day(1800, 2, 28), month.getUpper());
+        assertEquals(GedcomDate.Precision.MONTH, month.getPrecision());
+
+        GedcomDate year = parse("1799");
+        assertEquals(day(1799, 1, 1), year.getLower());
+        assertEquals(day(1799, 12, 31), year.getUpper());
+        assertEquals(GedcomDate.Precision.YEAR, year.getPrecision());
+
+        assertEquals(day, parse("12 jan 1799"));
+        assertEquals(day(1700, 3, 1), parse("1 MAR 1699/00").getLower());
+        assertEquals(day(-43, 3, 15), parse("15 MAR 44 B.C.").getLower());
+    }
+
+    @Test
+    public void modifierTest() {
+        GedcomDate about = parse("ABT 1850");
+        assertEquals(GedcomDate.Modifier.ABOUT, about.getModifier());
+        assertEquals(day(1850, 1, 1), about.getLower());
+        assertEquals(day(1850, 12, 31), about.getUpper());
+        assertEquals(GedcomDate.Modifier.CALCULATED, parse("CAL 1850").getModifier());
+        assertEquals(GedcomDate.Modifier.ESTIMATED, parse("EST 1850").getModifier());
+
+        GedcomDate interpreted = parse("INT 3 MAY 1850 (from the census)");
+        assertEquals(GedcomDate.Modifier.INTERPRETED, interpreted.getModifier());
+        assertEquals(day(1850, 5, 3), interpreted.getLower());
+
+        GedcomDate before = parse("BEF 1850");
+        assertFalse(before.hasLower());
+        assertEquals(day(1849, 12, 31), before.getUpper());
+
+        GedcomDate after = parse("AFT JUN 1850");
+        assertEquals(day(1850, 7, 1), after.getLower());
+        assertFalse(after.hasUpper());
+        assertEquals(GedcomDate.Precision.MONTH, after.getPrecision());
+    }
+
+    @Test
+    public void rangeTest() {
+        GedcomDate between = parse("BET 1801 AND 1805");
+        assertEquals(GedcomDate.Modifier.BETWEEN, between.getModifier());
+        assertEquals(day(1801, 1, 1), between.getLower());
+        assertEquals(day(1805, 12, 31), between.getUpper());
+        assertEquals(between.getLower(), parse("BET 1805 AND 1801").getLower());
+
+        GedcomDate mixed = parse("BET 3 MAR 1801 AND 1805");
+        assertEquals(day(1801, 3, 3), mixed.getLower());
+        assertEquals(GedcomDate.Precision.YEAR, mixed.getPrecision());
+
+        GedcomDate period = parse("FROM 1850 TO 12 JUN 1860");
+        assertEquals(GedcomDate.Modifier.FROM_TO, period.getModifier());
+        assertEquals(day(1850, 1, 1), period.getLower());
+        assertEquals(day(1860, 6, 12), period.getUpper());
+
+        GedcomDate from = parse("FROM 1850");
+        assertEquals(day(1850, 1, 1), from.getLower());
+        assertFalse(from.hasUpper());
+        GedcomDate to = parse("TO 1860");
+        assertFalse(to.hasLower());
+        assertEquals(day(1860, 12, 31), to.getUpper());
+    }
+
+    @Test
+    public void calendarTest() {
+        // The day after 4 October 1582 in the Julian calendar was 15 October 1582 in the Gregorian calendar
+        assertEquals(day(1582, 10, 15), parse("@#DJULIAN@ 5 OCT 1582").getLower());
+        assertEquals(day(1700, 3, 11), parse("@#DJULIAN@ 29 FEB 1700").getLower());
+        assertEquals(day(1582, 10, 15), parse("@#DGREGORIAN@ 15 OCT 1582").getLower());
+
+        assertEquals(day(2024, 10, 3), parse("@#DHEBREW@ 1 TSH 5785").getLower());
+        GedcomDate hebrewYear = parse("@#DHEBREW@ 5785");
+        assertEquals(day(2024, 10, 3), hebrewYear.getLower());
+        assertEquals(day(2025, 9, 22), hebrewYear.getUpper());
+        assertEquals(day(2024, 4, 23), parse("@#DHEBREW@ 15 NSN 5784").getLower());
+        assertTrue(GedcomDate.parse("@#DHEBREW@ ADS 5784").isPresent());
+        assertTrue(GedcomDate.parse("@#DHEBREW@ ADS 5785").isEmpty());
+
+        assertEquals(day(1792, 9, 22), parse("@#DFRENCH R@ 1 VEND 1").getLower());
+        assertEquals(day(1799, 11, 9), parse("@#DFRENCH R@ 18 BRUM 8").getLower());
+        assertEquals(day(1795, 9, 22), parse("@#DFRENCH R@ 6 COMP 3").getLower());
+        assertTrue(GedcomDate.parse("@#DFRENCH R@ 6 COMP 4").isEmpty());
+    }
+
+    @Test
+    public void invalidTest() {
+        assertTrue(GedcomDate.parse(null).isEmpty());
+        assertTrue(GedcomDate.parse("").isEmpty());
+        assertTrue(GedcomDate.parse("(in the war)").isEmpty());
+        assertTrue(GedcomDate.parse("30 FEB 1850").isEmpty());
+        assertTrue(GedcomDate.parse("12 FOO 1850").isEmpty());
+        assertTrue(GedcomDate.parse("BET 1801").isEmpty());
+        assertTrue(GedcomDate.parse("@#DROMAN@ 1850").isEmpty());
+        assertTrue(GedcomDate.parse("1 2 3 1850").isEmpty());
+        assertTrue(GedcomDate.parse("1699/01").isEmpty());
+    }
+
+    @Test
+    public void sortTest() {
+        List<GedcomDate> dates = new ArrayList<>();
+        for (String value : List.of("AFT 1850", "12 JAN 1850", "1850", "BEF 1850", "BET 1849 AND 1851")) {
+            dates.add(parse(value));
+        }
+        dates.sort(null);
+        assertEquals(List.of(GedcomDate.Modifier.BEFORE, GedcomDate.Modifier.BETWEEN, GedcomDate.Modifier.EXACT,
+                        GedcomDate.Modifier.EXACT, GedcomDate.Modifier.AFTER),
+                dates.stream().map(GedcomDate::getModifier).collect(Collectors.toList()));
+        assertEquals(GedcomDate.Precision.YEAR, dates.get(2).getPrecision());
+        assertEquals(GedcomDate.Precision.DAY, dates.get(3).getPrecision());
+    }
+
+    @Test
+    public void cacheTest() {
+        GedcomDate first = parse("ABT 12 MAR 1850");
+        assertSame(first, parse("ABT 12 MAR 1850"));
+        assertEquals(first, GedcomDate.parseUncached("ABT 12 MAR 1850").orElseThrow());
+    }
+
+    private static GedcomDate parse(String value) {
+        return GedcomDate.parse(value).orElseThrow();
+    }
+
+    private static int day(int year, int month, int day) {
+        return GedcomDate.julianDay(LocalDate.of(year, month, day));
+    }
+}
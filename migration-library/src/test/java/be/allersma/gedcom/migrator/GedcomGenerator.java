@@ -0,0 +1,398 @@
+package be.allersma.gedcom.migrator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Writes GEDCOM 5.5.1 files of any size, for tests and benchmarks that need more than <code>dummy.ged</code>.
+ * The same options always give the same file.
+ * <p>
+ * Every family has two partners, and the children of a family are partners in later families, so the file
+ * holds generations that go forward in time. Everything a record contains is derived from its own number
+ * and the seed, so records are written one after the other without keeping anything in memory.
+ */
+public final class GedcomGenerator {
+    private static final String[] GIVEN = {"Jan", "Pieter", "Hendrik", "Klaas", "Sjoerd", "Willem", "Anna",
+            "Maria", "Grietje", "Trijntje", "Aaltje", "Geertruida", "Ti\u00ebtje", "J\u00fcrgen"};
+    private static final String[] SURNAMES = {"Fokkens", "Jansen", "Bakker", "Visser", "Smit", "Meijer",
+            "Mulder", "Bos", "Dijkstra", "Hu\u00dfmann"};
+    private static final String[] PREFIXES = {"de ", "van ", "van der ", "ter "};
+    private static final String[] SUFFIXES = {"Jr.", "Sr.", "II"};
+    private static final String[] PLACES = {"Groningen, Groningen, Nederland", "Leeuwarden, Friesland, Nederland",
+            "Assen, Drenthe, Nederland", "Zwolle, Overijssel, Nederland", "Delfzijl, Groningen, Nederland",
+            "Emden, Niedersachsen, Deutschland", "Lutjelollum"};
+    private static final String[] OCCUPATIONS = {"Landbouwer", "Arbeider", "Schipper", "Timmerman", "Dienstmeid"};
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP",
+            "OCT", "NOV", "DEC"};
+    private static final int FIRST_YEAR = 1600;
+    private static final int YEARS = 400;
+
+    private final Options options;
+    private final int people;
+    private final int families;
+    private final int childrenPerFamily;
+
+    public GedcomGenerator(Options options) {
+        this.options = options;
+        this.people = options.getPeople();
+        this.families = Math.min(options.getFamilies() < 0 ? people / 3 : options.getFamilies(), Math.max(0, (people - 2) / 2));
+        this.childrenPerFamily = families == 0 ? 0 : (people - 2) / families;
+    }
+
+    public int getPeople() {
+        return people;
+    }
+
+    /**
+     * @return The number of families, which is at most <code>(people - 2) / 2</code>
+     */
+    public int getFamilies() {
+        return families;
+    }
+
+    public String generate() {
+        StringWriter writer = new StringWriter(people * 200);
+        try {
+            write(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the file in UTF-8.
+     */
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    /**
+     * Writes the file one line at a time. Wrap the writer in a buffer, this doesn't do that itself.
+     */
+    public void write(Writer out) throws IOException {
+        StringBuilder record = new StringBuilder(1024);
+        record.append("0 HEAD\n1 SOUR gedcom-migrator\n1 GEDC\n2 VERS 5.5.1\n2 FORM LINEAGE-LINKED\n1 CHAR UTF-8\n");
+        out.append(record);
+
+        for (int person = 1; person <= people; person++) {
+            record.setLength(0);
+            appendPerson(record, person);
+            out.append(record);
+        }
+        for (int family = 1; family <= families; family++) {
+            record.setLength(0);
+            appendFamily(record, family);
+            out.append(record);
+        }
+        out.append("0 TRLR\n");
+    }
+
+    /**
+     * @return The family the person is a child of, or 0 if the person has no parents in the file
+     */
+    int getChildFamily(int person) {
+        if (person < 3 || childrenPerFamily == 0) {
+            return 0;
+        }
+        int family = 1 + (person - 3) / childrenPerFamily;
+        // Not every candidate is a child, which gives families of different sizes
+        return family <= families && unit(mix(options.getSeed() ^ person)) < 0.85 ? family : 0;
+    }
+
+    /**
+     * @return The family the person is a partner in, or 0 if the person is not married
+     */
+    int getSpouseFamily(int person) {
+        int family = (person + 1) / 2;
+        return family <= families ? family : 0;
+    }
+
+    private void appendPerson(StringBuilder record, int person) {
+        SplittableRandom random = random(person, 0);
+        int year = FIRST_YEAR + (int) ((long) person * YEARS / Math.max(people, 1));
+
+        record.append("0 @I").append(person).append("@ INDI\n");
+        appendName(record, random);
+        record.append("1 SEX ").append(person % 2 == 1 ? 'M' : 'F').append('\n');
+        if (random.nextInt(10) < 9) {
+            appendEvent(record, random, "BIRT", year);
+        }
+        if (random.nextInt(10) < 3) {
+            appendEvent(record, random, "BAPM", year);
+        }
+        if (random.nextInt(10) < 4) {
+            appendEvent(record, random, "DEAT", year + 20 + random.nextInt(60));
+        }
+        if (random.nextInt(10) < 2) {
+            record.append("1 OCCU ").append(OCCUPATIONS[random.nextInt(OCCUPATIONS.length)]).append('\n');
+        }
+        if (random.nextInt(20) == 0) {
+            record.append("1 RESI\n2 DATE FROM ").append(year + 20).append(" TO ").append(year + 30).append('\n');
+            appendPlace(record, random, 2);
+        }
+        appendNote(record, random, 1);
+
+        int childFamily = getChildFamily(person);
+        if (childFamily != 0) {
+            appendRef(record, random, "1 FAMC", 'F', childFamily);
+        }
+        int spouseFamily = getSpouseFamily(person);
+        if (spouseFamily != 0) {
+            appendRef(record, random, "1 FAMS", 'F', spouseFamily);
+        }
+    }
+
+    private void appendFamily(StringBuilder record, int family) {
+        SplittableRandom random = random(family, 1);
+        int year = FIRST_YEAR + (int) ((long) family * 2 * YEARS / Math.max(people, 1)) + 20;
+
+        record.append("0 @F").append(family).append("@ FAM\n");
+        appendRef(record, random, "1 HUSB", 'I', family * 2 - 1);
+        appendRef(record, random, "1 WIFE", 'I', family * 2);
+        int first = 3 + (family - 1) * childrenPerFamily;
+        for (int child = first; child < first + childrenPerFamily && child <= people; child++) {
+            if (getChildFamily(child) == family) {
+                appendRef(record, random, "1 CHIL", 'I', child);
+            }
+        }
+        appendEvent(record, random, "MARR", year);
+        appendNote(record, random, 1);
+    }
+
+    /**
+     * Names come in the shapes {@link be.allersma.gedcom.migrator.utils.FormattedNameUtil} has to handle:
+     * with or without given names, surname prefixes, suffixes and the surname between slashes, and
+     * sometimes with the parts given separately as well.
+     */
+    private void appendName(StringBuilder record, SplittableRandom random) {
+        String given = GIVEN[random.nextInt(GIVEN.length)];
+        if (random.nextInt(4) == 0) {
+            given += " " + GIVEN[random.nextInt(GIVEN.length)];
+        }
+        String surname = (random.nextInt(4) == 0 ? PREFIXES[random.nextInt(PREFIXES.length)] : "")
+                + SURNAMES[random.nextInt(SURNAMES.length)];
+        String suffix = random.nextInt(20) == 0 ? SUFFIXES[random.nextInt(SUFFIXES.length)] : null;
+
+        record.append("1 NAME ");
+        switch (random.nextInt(20)) {
+            case 0:
+                record.append('/').append(surname).append('/');
+                break;
+            case 1:
+                record.append(given);
+                break;
+            case 2:
+                record.append(given.toUpperCase(Locale.ROOT)).append(" /").append(surname.toUpperCase(Locale.ROOT)).append('/');
+                break;
+            default:
+                record.append(given).append(" /").append(surname).append('/');
+        }
+        if (suffix != null) {
+            record.append(' ').append(suffix);
+        }
+        record.append('\n');
+
+        if (random.nextInt(5) == 0) {
+            record.append("2 GIVN ").append(given).append('\n')
+                    .append("2 SURN ").append(surname).append('\n');
+        }
+    }
+
+    private void appendEvent(StringBuilder record, SplittableRandom random, String tag, int year) {
+        record.append("1 ").append(tag).append('\n');
+        if (random.nextInt(10) < 9) {
+            record.append("2 DATE ");
+            appendDate(record, random, year);
+            record.append('\n');
+        }
+        if (random.nextInt(10) < 7) {
+            appendPlace(record, random, 2);
+        }
+        if (random.nextInt(10) == 0) {
+            appendNote(record, random, 2);
+        }
+    }
+
+    /**
+     * Mostly exact dates, but also the partial, approximated, ranged and non-Gregorian dates that are
+     * common in real files.
+     */
+    private static void appendDate(StringBuilder record, SplittableRandom random, int year) {
+        switch (random.nextInt(20)) {
+            case 0:
+                record.append("ABT ").append(year);
+                break;
+            case 1:
+                record.append("BEF ").append(year);
+                break;
+            case 2:
+                record.append("AFT ").append(year);
+                break;
+            case 3:
+                record.append("BET ").append(year).append(" AND ").append(year + 1 + random.nextInt(5));
+                break;
+            case 4:
+                record.append(year);
+                break;
+            case 5:
+                record.append(MONTHS[random.nextInt(12)]).append(' ').append(year);
+                break;
+            case 6:
+                record.append("@#DJULIAN@ ").append(1 + random.nextInt(28)).append(' ')
+                        .append(MONTHS[random.nextInt(12)]).append(' ').append(year);
+                break;
+            default:
+                record.append(1 + random.nextInt(28)).append(' ').append(MONTHS[random.nextInt(12)]).append(' ').append(year);
+        }
+    }
+
+    /**
+     * The same places are written with different casing and spacing now and then, like they are in files
+     * that have been edited by hand.
+     */
+    private static void appendPlace(StringBuilder record, SplittableRandom random, int level) {
+        String place = PLACES[random.nextInt(PLACES.length)];
+        switch (random.nextInt(20)) {
+            case 0:
+                place = place.toLowerCase(Locale.ROOT);
+                break;
+            case 1:
+                place = place.replace(", ", ",  ");
+                break;
+            case 2:
+                place = place.replace(", ", ",");
+                break;
+            default:
+        }
+        record.append(level).append(" PLAC ").append(place).append('\n');
+    }
+
+    private void appendNote(StringBuilder record, SplittableRandom random, int level) {
+        if (random.nextDouble() >= options.getNotes()) {
+            return;
+        }
+        record.append(level).append(" NOTE Getuigen: ").append(GIVEN[random.nextInt(GIVEN.length)])
+                .append(" /").append(SURNAMES[random.nextInt(SURNAMES.length)]).append("/, 'zie akte' nr. ")
+                .append(random.nextInt(1000)).append('\n');
+        for (int i = random.nextInt(3); i > 0; i--) {
+            record.append(level + 1).append(" CONT bron: archief ").append(random.nextInt(100)).append('\n');
+        }
+        if (random.nextBoolean()) {
+            record.append(level + 1).append(" CONC  (bewerkt)\n");
+        }
+    }
+
+    /**
+     * Writes a pointer to a record, or to a record that doesn't exist for the fraction of
+     * {@link Options#malformedIds(double)}.
+     */
+    private void appendRef(StringBuilder record, SplittableRandom random, String prefix, char type, int id) {
+        record.append(prefix).append(" @");
+        if (random.nextDouble() < options.getMalformedIds()) {
+            record.append('X').append(type).append(random.nextInt(Integer.MAX_VALUE));
+        } else {
+            record.append(type).append(id);
+        }
+        record.append("@\n");
+    }
+
+    private SplittableRandom random(int record, int kind) {
+        return new SplittableRandom(mix(options.getSeed() + ((long) record << 1 | kind)));
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    private static double unit(long value) {
+        return (value >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * What to generate. Options are immutable, every setter returns a new instance.
+     */
+    public static final class Options {
+        private final long seed;
+        private final int people;
+        private final int families;
+        private final double notes;
+        private final double malformedIds;
+
+        private Options(long seed, int people, int families, double notes, double malformedIds) {
+            this.seed = seed;
+            this.people = people;
+            this.families = families;
+            this.notes = notes;
+            this.malformedIds = malformedIds;
+        }
+
+        /**
+         * 1000 people, a third as many families, notes on a tenth of the records and no malformed ids.
+         */
+        public static Options defaults() {
+            return new Options(1, 1000, -1, 0.1, 0);
+        }
+
+        public Options seed(long seed) {
+            return new Options(seed, people, families, notes, malformedIds);
+        }
+
+        public Options people(int people) {
+            return new Options(seed, people, families, notes, malformedIds);
+        }
+
+        /**
+         * @param families The number of families, by default a third of the number of people
+         */
+        public Options families(int families) {
+            return new Options(seed, people, families, notes, malformedIds);
+        }
+
+        /**
+         * @param notes The fraction of people and families with a note
+         */
+        public Options notes(double notes) {
+            return new Options(seed, people, families, notes, malformedIds);
+        }
+
+        /**
+         * @param malformedIds The fraction of pointers to people and families that point to a record that
+         *                     doesn't exist
+         */
+        public Options malformedIds(double malformedIds) {
+            return new Options(seed, people, families, notes, malformedIds);
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getPeople() {
+            return people;
+        }
+
+        public int getFamilies() {
+            return families;
+        }
+
+        public double getNotes() {
+            return notes;
+        }
+
+        public double getMalformedIds() {
+            return malformedIds;
+        }
+    }
+}
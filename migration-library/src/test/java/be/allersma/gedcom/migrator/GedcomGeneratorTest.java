@@ -0,0 +1,79 @@
+package be.allersma.gedcom.migrator;
+
+import be.allersma.gedcom.migrator.utils.FormattedNameUtil;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Name;
+import org.folg.gedcom.model.Person;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GedcomGeneratorTest {
+    @Test
+    public void deterministicTest() {
+        GedcomGenerator.Options options = GedcomGenerator.Options.defaults().people(500);
+        assertEquals(new GedcomGenerator(options).generate(), new GedcomGenerator(options).generate());
+        assertNotEquals(new GedcomGenerator(options).generate(), new GedcomGenerator(options.seed(2)).generate());
+    }
+
+    @Test
+    public void parsableTest() throws SAXParseException, IOException {
+        GedcomGenerator generator = new GedcomGenerator(GedcomGenerator.Options.defaults().people(3000).notes(0.5));
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(generator.generate()));
+        gedcom.createIndexes();
+
+        assertEquals(3000, gedcom.getPeople().size());
+        assertEquals(1000, gedcom.getFamilies().size());
+        assertEquals(1000, generator.getFamilies());
+
+        for (Person person : gedcom.getPeople()) {
+            Name name = FormattedNameUtil.parseNameValue(person.getNames().get(0));
+            assertTrue(name.getGiven() != null || name.getSurname() != null, name.getValue());
+        }
+
+        // Links go both ways, and children are always partners in a later family, if any
+        for (Family family : gedcom.getFamilies()) {
+            assertEquals(1, family.getHusbandRefs().size());
+            assertEquals(1, family.getWifeRefs().size());
+            assertEquals("MARR", family.getEventsFacts().get(0).getTag());
+            int id = Integer.parseInt(family.getId().substring(1));
+            family.getChildren(gedcom).forEach(child -> {
+                assertEquals(family.getId(), child.getParentFamilyRefs().get(0).getRef());
+                int spouseFamily = generator.getSpouseFamily(Integer.parseInt(child.getId().substring(1)));
+                assertTrue(spouseFamily == 0 || spouseFamily > id);
+            });
+        }
+    }
+
+    @Test
+    public void malformedIdsTest() throws SAXParseException, IOException {
+        GedcomGenerator generator = new GedcomGenerator(GedcomGenerator.Options.defaults().people(2000).malformedIds(0.1));
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(generator.generate()));
+        gedcom.createIndexes();
+
+        long dangling = gedcom.getFamilies().stream()
+                .flatMap(family -> family.getHusbandRefs().stream())
+                .filter(ref -> gedcom.getPerson(ref.getRef()) == null)
+                .count();
+        assertTrue(dangling > 20 && dangling < 120, "dangling: " + dangling);
+    }
+
+    @Test
+    public void streamableTest() throws SAXParseException, IOException {
+        GedcomGenerator generator = new GedcomGenerator(GedcomGenerator.Options.defaults().people(1000).families(100));
+        long[] counts = new long[2];
+        new GedcomStreamReader()
+                .on(Person.class, person -> counts[0]++)
+                .on(Family.class, family -> counts[1]++)
+                .read(new StringReader(generator.generate()));
+
+        assertEquals(1000, counts[0]);
+        assertEquals(100, counts[1]);
+    }
+}
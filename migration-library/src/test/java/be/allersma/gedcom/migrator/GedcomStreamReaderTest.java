@@ -0,0 +1,153 @@
+package be.allersma.gedcom.migrator;
+
+import org.folg.gedcom.model.EventFact;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Header;
+import org.folg.gedcom.model.Note;
+import org.folg.gedcom.model.Person;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GedcomStreamReaderTest {
+    private static Gedcom gedcom;
+
+    @BeforeAll
+    public static void initializeAll() throws SAXParseException, IOException {
+        InputStream stream = GedcomStreamReaderTest.class.getClassLoader().getResourceAsStream("dummy.ged");
+        ModelParser parser = new ModelParser();
+        gedcom = parser.parseGedcom(stream);
+        assertNotNull(gedcom);
+    }
+
+    @Test
+    public void sameRecordsAsModelParserTest() throws SAXParseException, IOException {
+        List<Person> people = new ArrayList<>();
+        List<Family> families = new ArrayList<>();
+        List<Header> headers = new ArrayList<>();
+
+        long handled;
+        try (InputStream stream = getClass().getClassLoader().getResourceAsStream("dummy.ged")) {
+            handled = new GedcomStreamReader()
+                    .on(Person.class, people::add)
+                    .on(Family.class, families::add)
+                    .on(Header.class, headers::add)
+                    .read(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        }
+
+        assertEquals(ids(gedcom.getPeople()), ids(people));
+        assertEquals(gedcom.getFamilies().stream().map(Family::getId).collect(Collectors.toList()),
+                families.stream().map(Family::getId).collect(Collectors.toList()));
+        assertEquals(1, headers.size());
+        assertEquals(people.size() + families.size() + 1, handled);
+
+        for (int i = 0; i < people.size(); i++) {
+            assertEquals(gedcom.getPeople().get(i).getNames().get(0).getValue(), people.get(i).getNames().get(0).getValue());
+        }
+    }
+
+    @Test
+    public void referencesByIdTest() throws SAXParseException, IOException {
+        String input = "0 HEAD\n1 CHAR UTF-8\n"
+                + "0 @F1@ FAM\n1 HUSB @P1@\n1 WIFE @P2@\n1 CHIL @P3@\n1 MARR\n2 DATE ABT 1850\n"
+                + "0 @P1@ INDI\n1 NAME Jan /Jansen/\n"
+                + "0 TRLR\n";
+        List<Family> families = new ArrayList<>();
+        new GedcomStreamReader().on(Family.class, families::add).read(new StringReader(input));
+
+        assertEquals(1, families.size());
+        Family family = families.get(0);
+        assertEquals("P1", family.getHusbandRefs().get(0).getRef());
+        assertEquals("P2", family.getWifeRefs().get(0).getRef());
+        assertEquals("P3", family.getChildRefs().get(0).getRef());
+        EventFact marriage = family.getEventsFacts().get(0);
+        assertEquals("MARR", marriage.getTag());
+        assertEquals("ABT 1850", marriage.getDate());
+    }
+
+    @Test
+    public void handlersInOrderTest() throws SAXParseException, IOException {
+        String input = "\uFEFF0 @N1@ NOTE First\n0 @N2@ NOTE Second\n1 CONT line\n";
+        List<String> calls = new ArrayList<>();
+        new GedcomStreamReader()
+                .on(Note.class, note -> calls.add("a" + note.getId()))
+                .on(Note.class, note -> calls.add("b" + note.getId()))
+                .read(new StringReader(input));
+
+        assertEquals(List.of("aN1", "bN1", "aN2", "bN2"), calls);
+    }
+
+    @Test
+    public void filteredTest() throws SAXParseException, IOException {
+        String input = "0 @N1@ NOTE First\n0 @N2@ NOTE Second\n0 @N3@ NOTE Third\n";
+        List<String> texts = new ArrayList<>();
+        List<String> parsed = new ArrayList<>();
+        new GedcomStreamReader()
+                .onText(RecordType.NOTE, (xref, text) -> texts.add(xref + ":" + text))
+                .on(Note.class, xref -> !xref.equals("N2"), note -> parsed.add(note.getId()))
+                .read(new StringReader(input));
+
+        assertEquals(List.of("N1:0 @N1@ NOTE First\n", "N2:0 @N2@ NOTE Second\n", "N3:0 @N3@ NOTE Third\n"), texts);
+        assertEquals(List.of("N1", "N3"), parsed);
+    }
+
+    @Test
+    public void tokenizerTest(@TempDir Path directory) throws SAXParseException, IOException {
+        Path file = directory.resolve("dummy.ged");
+        try (InputStream stream = getClass().getClassLoader().getResourceAsStream("dummy.ged")) {
+            Files.copy(stream, file);
+        }
+
+        List<String> fromReader = new ArrayList<>();
+        List<String> fromFile = new ArrayList<>();
+        long handled;
+        try (InputStream stream = Files.newInputStream(file)) {
+            handled = new GedcomStreamReader()
+                    .onText(RecordType.INDI, (xref, text) -> fromReader.add(xref + ":" + text))
+                    .on(Family.class, family -> fromReader.add(family.getId()))
+                    .read(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        }
+        assertEquals(handled, new GedcomStreamReader()
+                .onText(RecordType.INDI, (xref, text) -> fromFile.add(xref + ":" + text))
+                .on(Family.class, family -> fromFile.add(family.getId()))
+                .read(file));
+        assertEquals(fromReader, fromFile);
+        assertEquals(gedcom.getPeople().size() + gedcom.getFamilies().size(), fromFile.size());
+    }
+
+    @Test
+    public void unsupportedTypeTest() {
+        assertThrows(IllegalArgumentException.class, () -> new GedcomStreamReader().on(String.class, value -> {}));
+    }
+
+    @Test
+    public void topLevelTagTest() {
+        assertEquals("INDI", GedcomStreamReader.topLevelTag("0 @I1@ INDI"));
+        assertEquals("HEAD", GedcomStreamReader.topLevelTag("  0 HEAD"));
+        assertEquals("NOTE", GedcomStreamReader.topLevelTag("0 @N1@ NOTE Some text"));
+        assertNull(GedcomStreamReader.topLevelTag("1 NAME Jan /Jansen/"));
+        assertNull(GedcomStreamReader.topLevelTag("10 NAME"));
+        assertNull(GedcomStreamReader.topLevelTag("0 "));
+        assertNull(GedcomStreamReader.topLevelTag(""));
+    }
+
+    private static List<String> ids(List<Person> people) {
+        return people.stream().map(Person::getId).collect(Collectors.toList());
+    }
+}
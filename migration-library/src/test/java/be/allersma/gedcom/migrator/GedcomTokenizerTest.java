@@ -0,0 +1,159 @@
+package be.allersma.gedcom.migrator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GedcomTokenizerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void tokenTest() throws IOException {
+        GedcomTokenizer tokenizer = GedcomTokenizer.of(bytes("0 HEAD\r\n1 CHAR UTF-8\r\n0 @I1@ INDI\n"
+                + "1 NAME Jan /Fokkens/\r  2 GIVN Jan\n\n1 NOTE  two spaces\n1 NOTE @N1@\n0 TRLR", StandardCharsets.UTF_8));
+
+        assertTrue(tokenizer.next());
+        assertEquals(0, tokenizer.getLevel());
+        assertTrue(tokenizer.getTag().contentEquals("HEAD"));
+        assertTrue(tokenizer.getXref().isEmpty());
+        assertTrue(tokenizer.getValue().isEmpty());
+
+        assertTrue(tokenizer.next());
+        assertEquals("CHAR", tokenizer.getTag().toString());
+        assertEquals("UTF-8", tokenizer.getValue().toString());
+
+        assertTrue(tokenizer.next());
+        assertEquals(3, tokenizer.getLineNumber());
+        assertEquals("I1", tokenizer.getXref().toString());
+        assertTrue(tokenizer.getTag().contentEquals("INDI"));
+        assertFalse(tokenizer.getTag().contentEquals("IND"));
+
+        assertTrue(tokenizer.next());
+        assertEquals("Jan /Fokkens/", tokenizer.getValue().toString());
+        assertTrue(tokenizer.next());
+        assertEquals(2, tokenizer.getLevel());
+        assertEquals("  2 GIVN Jan", tokenizer.getLine().toString());
+
+        assertTrue(tokenizer.next());
+        assertEquals(GedcomTokenizer.NONE, tokenizer.getLevel());
+        assertTrue(tokenizer.getLine().isEmpty());
+        assertTrue(tokenizer.next());
+        assertEquals(" two spaces", tokenizer.getValue().toString());
+        assertTrue(tokenizer.next());
+        assertTrue(tokenizer.getXref().isEmpty());
+        assertEquals("@N1@", tokenizer.getValue().toString());
+
+        assertTrue(tokenizer.next());
+        assertEquals(9, tokenizer.getLineNumber());
+        assertTrue(tokenizer.getTag().contentEquals("TRLR"));
+        assertFalse(tokenizer.next());
+        assertFalse(tokenizer.next());
+    }
+
+    @Test
+    public void utf8Test() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+        output.write(bytes("0 HEAD\n1 NOTE Jos\u00e9 \u20ac \uD83D\uDE00\n1 NOTE a", StandardCharsets.UTF_8));
+        output.write(new byte[]{(byte) 0xC3, 'b', (byte) 0xFF});
+        GedcomTokenizer tokenizer = GedcomTokenizer.of(output.toByteArray());
+        assertEquals(GedcomTokenizer.Encoding.UTF_8, tokenizer.getEncoding());
+
+        assertTrue(tokenizer.next());
+        assertTrue(tokenizer.getTag().contentEquals("HEAD"));
+        assertTrue(tokenizer.next());
+        assertFalse(tokenizer.getValue().isAscii());
+        assertEquals("Jos\u00e9 \u20ac \uD83D\uDE00", tokenizer.getValue().toString());
+        assertTrue(tokenizer.next());
+        assertEquals("a\ufffdb\ufffd", tokenizer.getValue().appendTo(new StringBuilder()).toString());
+    }
+
+    @Test
+    public void encodingTest() throws IOException {
+        assertEquals(GedcomTokenizer.Encoding.UTF_8, GedcomTokenizer.of(bytes("0 HEAD\n0 TRLR", StandardCharsets.US_ASCII))
+                .getEncoding());
+        assertEquals(GedcomTokenizer.Encoding.ASCII, GedcomTokenizer.of(bytes("0 HEAD\n1 CHAR ASCII\n0 TRLR",
+                StandardCharsets.US_ASCII)).getEncoding());
+
+        GedcomTokenizer ansel = GedcomTokenizer.of(concat(bytes("0 HEAD\n1 CHAR ANSEL\n0 @I1@ INDI\n1 NAME Jos",
+                StandardCharsets.US_ASCII), new byte[]{(byte) 0xE2, 'e'}));
+        assertEquals(GedcomTokenizer.Encoding.ANSEL, ansel.getEncoding());
+        assertEquals("Jos\u00e9", value(ansel, 4));
+
+        GedcomTokenizer ansi = GedcomTokenizer.of(concat(bytes("0 HEAD\n1 CHAR ANSI\n1 NOTE Jos",
+                StandardCharsets.US_ASCII), new byte[]{(byte) 0xE9, ' ', (byte) 0x80}));
+        assertEquals(GedcomTokenizer.Encoding.ANSI, ansi.getEncoding());
+        assertEquals("Jos\u00e9 \u20ac", value(ansi, 3));
+
+        String text = "0 HEAD\r\n1 CHAR UNICODE\r\n1 NOTE Jos\u00e9\r\n";
+        GedcomTokenizer bigEndian = GedcomTokenizer.of(bytes("\ufeff" + text, StandardCharsets.UTF_16BE));
+        assertEquals(GedcomTokenizer.Encoding.UTF_16BE, bigEndian.getEncoding());
+        assertTrue(bigEndian.next());
+        assertTrue(bigEndian.getTag().contentEquals("HEAD"));
+        GedcomTokenizer littleEndian = GedcomTokenizer.of(bytes(text, StandardCharsets.UTF_16LE));
+        assertEquals(GedcomTokenizer.Encoding.UTF_16LE, littleEndian.getEncoding());
+        assertEquals("Jos\u00e9", value(littleEndian, 3));
+    }
+
+    @Test
+    public void windowTest() throws IOException {
+        StringBuilder text = new StringBuilder("0 HEAD\n");
+        for (int i = 0; i < 100; i++) {
+            text.append("0 @I").append(i).append("@ INDI\r\n1 NAME Persoon ").append(i).append("\r");
+        }
+        Path file = directory.resolve("window.ged");
+        Files.write(file, bytes(text.toString(), StandardCharsets.UTF_8));
+
+        List<String> mapped = new ArrayList<>();
+        try (GedcomTokenizer tokenizer = GedcomTokenizer.open(file)) {
+            while (tokenizer.next()) {
+                mapped.add(tokenizer.getLevel() + "|" + tokenizer.getXref() + "|" + tokenizer.getTag() + "|"
+                        + tokenizer.getValue() + "|" + tokenizer.getLineNumber());
+            }
+        }
+        assertEquals(201, mapped.size());
+
+        List<String> windowed = new ArrayList<>();
+        try (GedcomTokenizer tokenizer = GedcomTokenizer.open(file, 32)) {
+            while (tokenizer.next()) {
+                windowed.add(tokenizer.getLevel() + "|" + tokenizer.getXref() + "|" + tokenizer.getTag() + "|"
+                        + tokenizer.getValue() + "|" + tokenizer.getLineNumber());
+            }
+        }
+        assertEquals(mapped, windowed);
+
+        try (GedcomTokenizer tokenizer = GedcomTokenizer.open(file, 8)) {
+            assertTrue(tokenizer.next());
+            assertThrows(IOException.class, tokenizer::next);
+        }
+    }
+
+    private static String value(GedcomTokenizer tokenizer, int line) throws IOException {
+        while (tokenizer.getLineNumber() < line) {
+            assertTrue(tokenizer.next());
+        }
+        return tokenizer.getValue().toString();
+    }
+
+    private static byte[] bytes(String text, Charset charset) {
+        return text.getBytes(charset);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+package be.allersma.gedcom.migrator;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MigrationMetricsTest {
+    @Test
+    public void stagesTest() {
+        MigrationMetrics metrics = new MigrationMetrics();
+        try (MigrationMetrics.Stage stage = metrics.start("parse")) {
+            stage.addRecords(10).addRecords(5);
+        }
+        MigrationMetrics.Stage write = metrics.start("write");
+        write.close();
+        write.close();
+
+        List<MigrationMetrics.Result> results = metrics.getResults();
+        assertEquals(List.of("parse", "write"), results.stream().map(MigrationMetrics.Result::getName).collect(Collectors.toList()));
+        assertEquals(15, results.get(0).getRecords());
+        assertTrue(results.get(0).getNanos() > 0);
+        assertTrue(results.get(0).getRecordsPerSecond() > 0);
+        assertTrue(results.get(0).getHeapUsed() > 0);
+        assertEquals(0, results.get(1).getRecords());
+    }
+
+    @Test
+    public void timersTest() {
+        MigrationMetrics metrics = new MigrationMetrics();
+        MigrationMetrics.Timer timer = metrics.timer("transform");
+        assertSame(timer, metrics.timer("transform"));
+
+        IntStream.range(0, 1000).parallel().forEach(i -> timer.end(timer.begin(), 2));
+
+        MigrationMetrics.Result result = metrics.getResults().get(0);
+        assertEquals("transform", result.getName());
+        assertEquals(2000, result.getRecords());
+        assertEquals(-1, result.getAllocated());
+    }
+
+    @Test
+    public void summaryTest() throws Exception {
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(
+                new GedcomGenerator(GedcomGenerator.Options.defaults().people(30)).generate()));
+        FunctionMarker.Branch<Gedcom> tree = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults().perPath(true));
+        tree.stream("getPeople").forEach(person -> person.invoke("getNames"));
+
+        MigrationMetrics metrics = new MigrationMetrics();
+        metrics.start("markerTree").addRecords(30).close();
+        metrics.recordCoverage(tree.getCoverage());
+
+        String summary = metrics.summary();
+        assertTrue(summary.contains("markerTree"), summary);
+        assertTrue(summary.contains("Total"), summary);
+        assertTrue(summary.matches("(?s).*/getPeople +30 +30\\n.*"), summary);
+        assertEquals(30, tree.getCoverage().getHits("/getPeople"));
+    }
+
+    @Test
+    public void flightRecorderTest() throws Exception {
+        Path file = Files.createTempFile("metrics", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(StageEvent.class);
+            recording.start();
+            new MigrationMetrics().start("index").addRecords(3).close();
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("be.allersma.gedcom.Stage"))
+                    .collect(Collectors.toList());
+            assertEquals(1, events.size());
+            assertEquals("index", events.get(0).getString("stage"));
+            assertEquals(3, events.get(0).getLong("records"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
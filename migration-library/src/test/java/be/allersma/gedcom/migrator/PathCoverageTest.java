@@ -0,0 +1,217 @@
+package be.allersma.gedcom.migrator;
+
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Person;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathCoverageTest {
+    private static Gedcom gedcom;
+
+    @BeforeAll
+    public static void initializeAll() throws SAXParseException, IOException {
+        InputStream stream = PathCoverageTest.class.getClassLoader().getResourceAsStream("dummy.ged");
+        ModelParser parser = new ModelParser();
+        gedcom = parser.parseGedcom(stream);
+        assertNotNull(gedcom);
+        gedcom.createIndexes();
+        gedcom.updateReferences();
+    }
+
+    @Test
+    public void marksAreSharedPerPathTest() {
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults().perPath(true));
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+
+        people.get(0).mark("getNames");
+        assertFalse(people.get(1).getUnmarkedItems().contains("getNames"));
+        assertEquals(people.get(0).getUnmarkedItems(), root.getCoverage().getUnmarkedItems("/getPeople"));
+    }
+
+    @Test
+    public void countersTest() {
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults().perPath(true));
+        root.<Person>stream("getPeople").forEach(person -> {
+            person.get("getId");
+            person.get("getAddress");
+        });
+
+        PathCoverage coverage = root.getCoverage();
+        assertEquals(List.of("", "/getPeople"), coverage.getPaths());
+        assertEquals(2, coverage.getRecords("/getPeople"));
+        assertEquals(2, coverage.getHits("/getPeople", "getId"));
+        assertEquals(2, coverage.getNonNull("/getPeople", "getId"));
+        assertEquals(2, coverage.getHits("/getPeople", "getAddress"));
+        assertEquals(0, coverage.getNonNull("/getPeople", "getAddress"));
+        assertEquals(0, coverage.getHits("/getPeople", "getNames"));
+    }
+
+    @Test
+    public void sameReportAsInstanceModeTest() {
+        for (boolean ignoreNullFields : new boolean[] { false, true }) {
+            FunctionMarker.Options options = FunctionMarker.Options.defaults().ignoreNullFields(ignoreNullFields);
+            FunctionMarker.Branch<Gedcom> perInstance = FunctionMarker.createMarkerTree(gedcom, options);
+            FunctionMarker.Branch<Gedcom> perPath = FunctionMarker.createMarkerTree(gedcom, options.perPath(true));
+
+            List<FunctionMarker.Branch<Person>> people = perInstance.get("getPeople");
+            people.forEach(person -> person.mark("getNames"));
+            Set<String> expected = people.stream()
+                    .flatMap(person -> person.getUnmarkedItems().stream())
+                    .collect(Collectors.toSet());
+
+            perPath.<Person>stream("getPeople").forEach(person -> person.mark("getNames"));
+            Set<String> actual = Set.copyOf(perPath.getCoverage().getUnmarkedItems("/getPeople"));
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void markEverywhereTest() {
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults().perPath(true));
+        root.<Person>stream("getPeople").forEach(person -> person.stream("getNames").forEach(name -> {}));
+
+        root.getCoverage().mark("toString");
+        root.getCoverage().getUnmarkedItems().values().forEach(items -> assertFalse(items.contains("toString")));
+        assertTrue(root.getCoverage().getUnmarkedItems().containsKey("/getPeople/getNames"));
+    }
+
+    @Test
+    public void concurrentCountersTest() {
+        Gedcom large = new Gedcom();
+        for (int i = 0; i < 10_000; i++) {
+            Person person = new Person();
+            person.setId("I" + i);
+            large.addPerson(person);
+        }
+
+        FunctionMarker.Options options = FunctionMarker.Options.defaults().perPath(true).concurrent(true);
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(large, options);
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+        people.parallelStream().forEach(person -> person.get("getId"));
+
+        assertEquals(10_000, root.getCoverage().getHits("/getPeople", "getId"));
+        assertEquals(10_000, root.getCoverage().getRecords("/getPeople"));
+        assertFalse(root.getCoverage().getUnmarkedItems("/getPeople").contains("getId"));
+    }
+
+    @Test
+    public void sampleTest() {
+        Gedcom large = people(10_000);
+        large.getPeople().set(5_000, new AdoptedPerson());
+
+        FunctionMarker.Options options = FunctionMarker.Options.defaults().perPath(true).sample(0.01, 100);
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(large, options);
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+        people.forEach(person -> person.get("getId"));
+
+        PathCoverage coverage = root.getCoverage();
+        assertTrue(coverage.isSampled());
+        assertEquals(10_000, coverage.getRecords("/getPeople"));
+        // The first 100, every hundredth of the other 9899, and the only AdoptedPerson
+        assertEquals(100 + 98 + 1, coverage.getSampledRecords("/getPeople"));
+        assertEquals(199, coverage.getHits("/getPeople", "getId"));
+        assertFalse(coverage.getUnmarkedItems("/getPeople").contains("getId"));
+
+        FunctionMarker.Branch<Person> untracked = people.get(4_321);
+        assertFalse(untracked.isTracked());
+        assertEquals("I4321", untracked.get("getId"));
+        assertEquals(199, coverage.getHits("/getPeople", "getId"));
+
+        // A second pass records nothing, and tracks the same records
+        people.forEach(person -> person.get("getId"));
+        assertEquals(10_000, coverage.getRecords("/getPeople"));
+        assertEquals(199, coverage.getSampledRecords("/getPeople"));
+        assertEquals(2 * 199, coverage.getHits("/getPeople", "getId"));
+        assertTrue(people.get(5_000).isTracked());
+    }
+
+    @Test
+    public void recordOnceTest() {
+        Gedcom large = people(100);
+        FunctionMarker.Options options = FunctionMarker.Options.defaults().perPath(true).ignoreNullFields(true);
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(large, options);
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+        for (int i = 0; i < 3; i++) {
+            people.forEach(person -> person.get("getId"));
+            assertEquals("I42", people.get(42).get("getId"));
+        }
+        assertEquals(100, root.getCoverage().getRecords("/getPeople"));
+        assertEquals(3 * 100 + 3, root.getCoverage().getHits("/getPeople", "getId"));
+
+        FunctionMarker.Branch<Gedcom> concurrent = FunctionMarker.createMarkerTree(people(10_000),
+                options.concurrent(true));
+        List<FunctionMarker.Branch<Person>> concurrentPeople = concurrent.get("getPeople");
+        IntStream.range(0, 4).parallel().forEach(pass -> concurrentPeople.parallelStream()
+                .forEach(person -> person.get("getId")));
+        assertEquals(10_000, concurrent.getCoverage().getRecords("/getPeople"));
+        assertEquals(40_000, concurrent.getCoverage().getHits("/getPeople", "getId"));
+    }
+
+    @Test
+    public void concurrentSampleTest() {
+        FunctionMarker.Options options = FunctionMarker.Options.defaults().perPath(true).concurrent(true).sample(0.5, 0);
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(people(10_000), options);
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+        people.parallelStream().forEach(person -> person.get("getId"));
+
+        assertEquals(10_000, root.getCoverage().getRecords("/getPeople"));
+        assertEquals(5_000, root.getCoverage().getSampledRecords("/getPeople"));
+        assertEquals(5_000, root.getCoverage().getHits("/getPeople", "getId"));
+    }
+
+    @Test
+    public void concurrentCachedSampleTest() {
+        FunctionMarker.Options options = FunctionMarker.Options.defaults().concurrent(true).sample(0.5, 0);
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(people(10_000), options);
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+        // Every element is raced for by several threads, but only the branch that is kept is recorded
+        IntStream.range(0, 4).parallel().forEach(pass -> IntStream.range(0, people.size()).parallel()
+                .forEach(i -> people.get(i).get("getId")));
+
+        assertEquals(10_000, root.getCoverage().getRecords("/getPeople"));
+        assertEquals(5_000, root.getCoverage().getSampledRecords("/getPeople"));
+        assertEquals(5_000, people.stream().filter(FunctionMarker.Branch::isTracked).count());
+    }
+
+    @Test
+    public void sampledBranchesTest() {
+        FunctionMarker.Options options = FunctionMarker.Options.defaults().ignoreNullFields(true).sample(0, 1);
+        FunctionMarker.Branch<Gedcom> root = FunctionMarker.createMarkerTree(gedcom, options);
+        List<FunctionMarker.Branch<Person>> people = root.get("getPeople");
+
+        assertTrue(people.get(0).isTracked());
+        assertFalse(people.get(1).isTracked());
+        assertTrue(people.get(1).getUnmarkedItems().isEmpty());
+        assertEquals(Set.copyOf(people.get(0).getUnmarkedItems()), Set.copyOf(FunctionMarker.getUnmarkedItems(people)));
+        assertEquals(1, root.getCoverage().getSampledRecords("/getPeople"));
+
+        assertThrows(IllegalArgumentException.class, () -> FunctionMarker.Options.defaults().sample(1.5, 0));
+        assertThrows(IllegalArgumentException.class, () -> FunctionMarker.Options.defaults().sample(0.5, -1));
+        assertFalse(FunctionMarker.Options.defaults().sample(1, 10).isSampled());
+    }
+
+    private static Gedcom people(int amount) {
+        Gedcom large = new Gedcom();
+        for (int i = 0; i < amount; i++) {
+            Person person = new Person();
+            person.setId("I" + i);
+            large.addPerson(person);
+        }
+        return large;
+    }
+
+    public static class AdoptedPerson extends Person {
+    }
+}
@@ -0,0 +1,113 @@
+package be.allersma.gedcom.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineTest {
+    /**
+     * Every even number gives two results, odd numbers give none.
+     */
+    private static final Pipeline.Transform<Integer, String> TRANSFORM = (number, output) -> {
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            Thread.sleep(1);
+        }
+        if (number % 2 == 0) {
+            output.accept(number + "a");
+            output.accept(number + "b");
+        }
+    };
+
+    @Test
+    public void orderedTest() {
+        List<String> expected = IntStream.range(0, 10_000)
+                .filter(number -> number % 2 == 0)
+                .boxed()
+                .flatMap(number -> List.of(number + "a", number + "b").stream())
+                .collect(Collectors.toList());
+
+        List<String> actual = new ArrayList<>();
+        Pipeline.Options options = Pipeline.Options.defaults().batchSize(16);
+        try (Pipeline<Integer, String> pipeline = new Pipeline<>(TRANSFORM, actual::add, options)) {
+            IntStream.range(0, 10_000).forEach(pipeline::submit);
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void unorderedTest() {
+        List<String> actual = new ArrayList<>();
+        Pipeline.Options options = Pipeline.Options.defaults().batchSize(16).ordered(false);
+        Pipeline<Integer, String> pipeline = new Pipeline<>(TRANSFORM, actual::add, options);
+        IntStream.range(0, 10_000).forEach(pipeline::submit);
+        pipeline.close();
+
+        assertEquals(10_000, actual.size());
+        assertEquals(10_000, pipeline.getWritten());
+        assertEquals(10_000, actual.stream().distinct().count());
+    }
+
+    @Test
+    public void sinkOnSubmittingThreadTest() {
+        Thread caller = Thread.currentThread();
+        Pipeline.Options options = Pipeline.Options.defaults().batchSize(4);
+        try (Pipeline<Integer, String> pipeline = new Pipeline<>(TRANSFORM,
+                result -> assertSame(caller, Thread.currentThread()), options)) {
+            IntStream.range(0, 1_000).forEach(pipeline::submit);
+        }
+    }
+
+    @Test
+    public void backpressureTest() {
+        AtomicInteger transformed = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+        int[] written = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Pipeline.Options options = Pipeline.Options.defaults().batchSize(10).maxPendingBatches(3);
+            try (Pipeline<Integer, Integer> pipeline = new Pipeline<>(
+                    (number, output) -> output.accept(transformed.incrementAndGet()),
+                    result -> {
+                        maxAhead.accumulateAndGet(transformed.get() - written[0], Math::max);
+                        written[0]++;
+                    },
+                    options, executor)) {
+                IntStream.range(0, 5_000).forEach(pipeline::submit);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(5_000, written[0]);
+        assertTrue(maxAhead.get() <= 3 * 10, "Transformed " + maxAhead.get() + " records ahead of the sink");
+    }
+
+    @Test
+    public void failureTest() {
+        Pipeline.Transform<Integer, Integer> failing = (number, output) -> {
+            if (number == 500) {
+                throw new IllegalArgumentException("Bad record");
+            }
+            output.accept(number);
+        };
+
+        CompletionException exception = assertThrows(CompletionException.class, () -> {
+            try (Pipeline<Integer, Integer> pipeline = new Pipeline<>(failing, number -> {}, Pipeline.Options.defaults())) {
+                IntStream.range(0, 1_000).forEach(pipeline::submit);
+            }
+        });
+        assertTrue(exception.getCause() instanceof IllegalArgumentException);
+        assertEquals("Bad record", exception.getCause().getMessage());
+    }
+}
@@ -0,0 +1,90 @@
+package be.allersma.gedcom.migrator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlaceGazetteerTest {
+    private PlaceGazetteer gazetteer;
+
+    @BeforeEach
+    public void setUp() {
+        gazetteer = new PlaceGazetteer();
+    }
+
+    @Test
+    public void hierarchyTest() {
+        int groningen = gazetteer.getId("Groningen, Groningen, Nederland");
+        assertEquals(3, groningen);
+        assertEquals("Groningen", gazetteer.getName(groningen));
+        assertEquals("Groningen, Groningen, Nederland", gazetteer.getFullName(groningen));
+
+        int province = gazetteer.getParent(groningen);
+        assertEquals("Groningen, Nederland", gazetteer.getFullName(province));
+        int country = gazetteer.getParent(province);
+        assertEquals("Nederland", gazetteer.getFullName(country));
+        assertEquals(PlaceGazetteer.NONE, gazetteer.getParent(country));
+
+        assertEquals(4, gazetteer.getId("Delfzijl, Groningen, Nederland"));
+        assertEquals(province, gazetteer.getParent(4));
+        assertEquals(province, gazetteer.getId("Groningen, Nederland"));
+        assertEquals(4, gazetteer.getMaxId());
+    }
+
+    @Test
+    public void variantsTest() {
+        int id = gazetteer.getId("groningen,  groningen ,nederland");
+        assertEquals(id, gazetteer.getId("Groningen, Groningen, Nederland"));
+        assertEquals(id, gazetteer.getId(" GRONINGEN,Groningen,\tNederland "));
+        assertEquals(id, gazetteer.getId("Groningen, Groningen, Nederland,"));
+        assertEquals(3, gazetteer.getMaxId());
+        // The first variant that isn't all lower case wins
+        assertEquals("Groningen, Groningen, Nederland", gazetteer.getFullName(id));
+
+        assertNotEquals(id, gazetteer.getId("Groningen, , Nederland"));
+        assertEquals("Groningen, , Nederland", PlaceGazetteer.normalize(" Groningen ,, Nederland"));
+        assertEquals("Sint Annaparochie", PlaceGazetteer.normalize("Sint \t Annaparochie"));
+    }
+
+    @Test
+    public void noneTest() {
+        assertEquals(PlaceGazetteer.NONE, gazetteer.getId(null));
+        assertEquals(PlaceGazetteer.NONE, gazetteer.getId(""));
+        assertEquals(PlaceGazetteer.NONE, gazetteer.getId(" , "));
+        assertNull(gazetteer.getName(1));
+        assertNull(gazetteer.getFullName(PlaceGazetteer.NONE));
+        assertEquals(0, gazetteer.getMaxId());
+    }
+
+    @Test
+    public void putTest() {
+        gazetteer.put(1, "Nederland", PlaceGazetteer.NONE);
+        gazetteer.put(2, "Friesland", 1);
+        gazetteer.put(5, "Leeuwarden", 2);
+
+        assertEquals(5, gazetteer.getId("leeuwarden, friesland, nederland"));
+        assertEquals(6, gazetteer.getId("Sneek, Friesland, Nederland"));
+        assertThrows(IllegalArgumentException.class, () -> gazetteer.put(2, "Drenthe", 1));
+        assertThrows(IllegalArgumentException.class, () -> gazetteer.put(7, "Assen", 3));
+        assertThrows(IllegalArgumentException.class, () -> gazetteer.put(7, "friesland", 1));
+    }
+
+    @Test
+    public void concurrentTest() {
+        List<String> places = IntStream.range(0, 10_000)
+                .mapToObj(i -> "Dorp " + (i % 500) + ", Provincie " + (i % 7) + ", Nederland")
+                .collect(Collectors.toList());
+        List<Integer> ids = places.parallelStream().map(gazetteer::getId).collect(Collectors.toList());
+
+        // Every village is in several provinces
+        assertEquals(3500 + 7 + 1, gazetteer.getMaxId());
+        for (int i = 0; i < places.size(); i++) {
+            assertEquals(places.get(i), gazetteer.getFullName(ids.get(i)));
+        }
+    }
+}
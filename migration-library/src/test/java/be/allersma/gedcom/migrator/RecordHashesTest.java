@@ -0,0 +1,79 @@
+package be.allersma.gedcom.migrator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordHashesTest {
+    private static final String BEFORE = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Jansen/\n"
+            + "0 @I2@ INDI\n1 NAME Piet /Pietersen/\n1 BIRT\n2 DATE 1 JAN 1900\n"
+            + "0 @I3@ INDI\n1 NAME Klaas /Klaassen/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n"
+            + "0 TRLR\n";
+
+    private static final String AFTER = "0 HEAD\r\n1 CHAR UTF-8\r\n"
+            + "0 @I1@ INDI\r\n1 NAME Jan /Jansen/\r\n"
+            + "0 @I2@ INDI\r\n1 NAME Piet /Pietersen/\r\n1 BIRT\r\n2 DATE 2 JAN 1900\r\n"
+            + "0 @I4@ INDI\r\n1 NAME Kees /Keesman/\r\n"
+            + "0 @F1@ FAM\r\n1 HUSB @I1@\r\n"
+            + "0 TRLR\r\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void deltaTest() throws SAXParseException, IOException {
+        RecordHashes before = RecordHashes.read(new StringReader(BEFORE), RecordType.INDI, RecordType.FAM);
+        RecordHashes after = RecordHashes.read(new StringReader(AFTER), RecordType.INDI, RecordType.FAM);
+        assertEquals(3, before.size(RecordType.INDI));
+        assertTrue(after.contains(RecordType.INDI, "@I4@"));
+
+        RecordHashes.Delta delta = after.compareTo(before);
+        assertEquals(Set.of("I4"), delta.getAdded(RecordType.INDI));
+        assertEquals(Set.of("I2"), delta.getChanged(RecordType.INDI));
+        assertEquals(Set.of("I3"), delta.getDeleted(RecordType.INDI));
+        assertTrue(delta.getAdded(RecordType.FAM).isEmpty());
+        assertTrue(delta.getChanged(RecordType.FAM).isEmpty());
+        assertFalse(delta.isEmpty());
+
+        assertTrue(after.compareTo(after).isEmpty());
+    }
+
+    @Test
+    public void onlyRequestedTypesTest() throws SAXParseException, IOException {
+        RecordHashes hashes = RecordHashes.read(new StringReader(BEFORE), RecordType.FAM);
+        assertEquals(0, hashes.size(RecordType.INDI));
+        assertEquals(1, hashes.size(RecordType.FAM));
+        assertEquals(RecordHashes.hash("0 @F1@ FAM\n1 HUSB @I1@\n"), hashes.getHash(RecordType.FAM, "F1").getAsLong());
+        assertFalse(hashes.getHash(RecordType.FAM, "F2").isPresent());
+    }
+
+    @Test
+    public void encodingTest() throws SAXParseException, IOException {
+        String text = "0 HEAD\n1 CHAR ANSI\n0 @I1@ INDI\n1 NAME Jos\u00e9 /M\u00fcller/\n0 @I2@ INDI\n1 NAME Jan\n0 TRLR\n";
+        Path file = directory.resolve("ansi.ged");
+        Files.write(file, text.getBytes(Charset.forName("windows-1252")));
+
+        RecordHashes mapped = RecordHashes.read(file, RecordType.INDI);
+        assertTrue(mapped.compareTo(RecordHashes.read(new StringReader(text), RecordType.INDI)).isEmpty());
+        assertEquals(RecordHashes.hash("0 @I1@ INDI\n1 NAME Jos\u00e9 /M\u00fcller/\n"),
+                mapped.getHash(RecordType.INDI, "I1").getAsLong());
+    }
+
+    @Test
+    public void hashTest() {
+        assertEquals(RecordHashes.hash("0 @I1@ INDI\n"), RecordHashes.hash(new StringBuilder("0 @I1@ INDI\n")));
+        assertNotEquals(RecordHashes.hash("0 @I1@ INDI\n"), RecordHashes.hash("0 @I2@ INDI\n"));
+        assertNotEquals(RecordHashes.hash("ab"), RecordHashes.hash("ba"));
+    }
+}
@@ -0,0 +1,136 @@
+package be.allersma.gedcom.migrator;
+
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Person;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Migrates generated files and checks that it stays within a time and memory budget. The budgets are per
+ * record and generous, they are there to catch a migration that suddenly becomes a lot slower or keeps
+ * far more in memory, not to measure it. Use the benchmarks for that.
+ * <p>
+ * Set <code>gedcom.scale</code> to the number of people to also stream a file of that size, like
+ * <code>mvn test -Dgedcom.scale=10000000</code>.
+ */
+class ScaleTest {
+    private static final int PEOPLE = 20_000;
+    /** Time budget per person, everything included. Most of it goes to warming up the JVM at this size. */
+    private static final long NANOS_PER_PERSON = 500_000;
+    /** What streaming may keep in memory per person, which is not much more than the registry */
+    private static final long STREAMED_BYTES_PER_PERSON = 1_000;
+    /** What a parsed tree with its marker tree and graph may keep in memory per person */
+    private static final long TREE_BYTES_PER_PERSON = 5_000;
+
+    @Test
+    public void streamingTest() throws Exception {
+        stream(PEOPLE);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "gedcom.scale", matches = "\\d+")
+    public void largeStreamingTest() throws Exception {
+        stream(Integer.parseInt(System.getProperty("gedcom.scale")));
+    }
+
+    @Test
+    public void treeTest() throws Exception {
+        GedcomGenerator generator = new GedcomGenerator(GedcomGenerator.Options.defaults().people(PEOPLE));
+        long before = usedHeap();
+        long start = System.nanoTime();
+
+        Gedcom gedcom;
+        try (Reader reader = generate(generator)) {
+            gedcom = new ModelParser().parseGedcom(reader);
+        }
+        gedcom.createIndexes();
+        gedcom.updateReferences();
+        XrefRegistry registry = new XrefRegistry().registerAll(gedcom);
+        FunctionMarker.Branch<Gedcom> tree = FunctionMarker.createMarkerTree(gedcom, FunctionMarker.Options.defaults()
+                .ignoreNullFields(true)
+                .perPath(true));
+        List<FunctionMarker.Branch<Person>> people = tree.get("getPeople");
+        people.forEach(person -> person.mark("getNames").mark("getEventsFacts"));
+        FamilyGraph graph = FamilyGraph.of(gedcom, registry);
+        assertFalse(tree.getCoverage().getUnmarkedItems().isEmpty());
+
+        long elapsed = System.nanoTime() - start;
+        long retained = usedHeap() - before;
+        assertEquals(PEOPLE, registry.size(RecordType.INDI));
+        assertEquals(generator.getFamilies(), graph.getMaxFamily());
+        assertWithinBudget(elapsed, retained, PEOPLE, TREE_BYTES_PER_PERSON);
+        // Keeps everything reachable until the heap has been measured
+        assertNotNull(gedcom.getPeople());
+    }
+
+    private static void stream(int size) throws Exception {
+        GedcomGenerator generator = new GedcomGenerator(GedcomGenerator.Options.defaults().people(size));
+        XrefRegistry registry = new XrefRegistry();
+        long[] children = new long[1];
+        long before = usedHeap();
+        long start = System.nanoTime();
+
+        long handled;
+        try (Reader reader = generate(generator)) {
+            handled = new GedcomStreamReader()
+                    .on(Person.class, person -> registry.register(RecordType.INDI, person.getId()))
+                    .on(Family.class, family -> {
+                        registry.register(RecordType.FAM, family.getId());
+                        children[0] += family.getChildRefs().size();
+                    })
+                    .read(reader);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long retained = usedHeap() - before;
+        assertEquals(size + generator.getFamilies(), handled);
+        assertEquals(size, registry.size(RecordType.INDI));
+        assertTrue(children[0] > 0);
+        assertWithinBudget(elapsed, retained, size, STREAMED_BYTES_PER_PERSON);
+    }
+
+    private static void assertWithinBudget(long elapsed, long retained, int people, long bytesPerPerson) {
+        long timeBudget = NANOS_PER_PERSON * people;
+        assertTrue(elapsed < timeBudget, String.format("Took %d ms, budget is %d ms", elapsed / 1_000_000, timeBudget / 1_000_000));
+        // A fixed part for the classes and caches that are loaded along the way
+        long memoryBudget = bytesPerPerson * people + (32 << 20);
+        assertTrue(retained < memoryBudget, String.format("Kept %d MB, budget is %d MB", retained >> 20, memoryBudget >> 20));
+    }
+
+    /**
+     * Writes the file on another thread, so it never exists in full.
+     */
+    private static Reader generate(GedcomGenerator generator) throws IOException {
+        PipedReader reader = new PipedReader(1 << 16);
+        PipedWriter writer = new PipedWriter(reader);
+        CompletableFuture.runAsync(() -> {
+            try (BufferedWriter out = new BufferedWriter(writer, 1 << 16)) {
+                generator.write(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return reader;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
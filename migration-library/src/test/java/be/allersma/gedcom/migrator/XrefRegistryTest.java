@@ -0,0 +1,81 @@
+package be.allersma.gedcom.migrator;
+
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XrefRegistryTest {
+    private XrefRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new XrefRegistry();
+    }
+
+    @Test
+    public void denseIdsTest() {
+        assertEquals(1, registry.register(RecordType.INDI, "@P123@"));
+        assertEquals(2, registry.register(RecordType.INDI, "@I_45a@"));
+        assertEquals(1, registry.register(RecordType.FAM, "F1"));
+        assertEquals(1, registry.register(RecordType.INDI, "P123"));
+
+        assertEquals(1, registry.getId(RecordType.INDI, "P123"));
+        assertEquals(2, registry.getId(RecordType.INDI, "@I_45a@"));
+        assertEquals(XrefRegistry.NONE, registry.getId(RecordType.FAM, "P123"));
+        assertEquals(XrefRegistry.NONE, registry.getId(RecordType.INDI, null));
+        assertEquals("I_45a", registry.getXref(RecordType.INDI, 2));
+    }
+
+    @Test
+    public void growTest() {
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(i + 1, registry.register(RecordType.INDI, "@I" + i + "@"));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(i + 1, registry.getId(RecordType.INDI, "I" + i));
+        }
+        assertEquals(100_000, registry.size(RecordType.INDI));
+    }
+
+    @Test
+    public void restoreTest() {
+        registry.register(RecordType.INDI, "I1");
+        registry.register(RecordType.INDI, "I2");
+        List<String> stored = new ArrayList<>();
+        registry.forEach(RecordType.INDI, (xref, id) -> stored.add(xref + "=" + id));
+        assertEquals(List.of("I1=1", "I2=2"), stored);
+
+        XrefRegistry restored = new XrefRegistry();
+        restored.put(RecordType.INDI, "I2", 2);
+        restored.put(RecordType.INDI, "I1", 1);
+        assertEquals(3, restored.register(RecordType.INDI, "I3"));
+        assertEquals(2, restored.register(RecordType.INDI, "I2"));
+
+        assertThrows(IllegalArgumentException.class, () -> restored.put(RecordType.INDI, "I4", 1));
+        assertThrows(IllegalArgumentException.class, () -> restored.put(RecordType.INDI, "I1", 4));
+        IllegalArgumentException empty = assertThrows(IllegalArgumentException.class,
+                () -> restored.put(RecordType.INDI, "@@", 5));
+        assertEquals("Xref of id 5 is empty", empty.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> restored.put(RecordType.INDI, null, 5));
+        assertNull(restored.getXref(RecordType.INDI, 5));
+    }
+
+    @Test
+    public void registerAllTest() throws SAXParseException, IOException {
+        InputStream stream = XrefRegistryTest.class.getClassLoader().getResourceAsStream("dummy.ged");
+        Gedcom gedcom = new ModelParser().parseGedcom(stream);
+
+        registry.registerAll(gedcom);
+        assertEquals(1, registry.getId(RecordType.INDI, "I262"));
+        assertEquals(2, registry.getId(RecordType.INDI, "@I265@"));
+    }
+}
@@ -1,6 +1,8 @@
 package be.allersma.gedcom.migrator.utils;
 
+import org.folg.gedcom.model.Gedcom;
 import org.folg.gedcom.model.Name;
+import org.folg.gedcom.model.Person;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -201,4 +203,33 @@ class FormattedNameUtilTest {
         assertEquals("Attie ( Antie", name.getGiven());
         assertEquals("PIJTERS", name.getSurname());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parseNameValuesTest() {
+        Gedcom gedcom = new Gedcom();
+        for (int i = 0; i < 1000; i++) {
+            Name personName = new Name();
+            personName.setValue("William Lee /Parry" + i + "/ Jr.");
+            Person person = new Person();
+            person.addName(personName);
+            gedcom.addPerson(person);
+        }
+
+        FormattedNameUtil.parseNameValues(gedcom, true);
+
+        for (int i = 0; i < 1000; i++) {
+            Name personName = gedcom.getPeople().get(i).getNames().get(0);
+            assertEquals("William Lee", personName.getGiven());
+            assertEquals("Parry" + i, personName.getSurname());
+            assertEquals("Jr.", personName.getSuffix());
+        }
+    }
+
+    @Test
+    public void missingValueTest() {
+        FormattedNameUtil.parseNameValue(name);
+        assertNull(name.getGiven());
+        assertNull(name.getSurname());
+        assertNull(name.getSuffix());
+    }
+}
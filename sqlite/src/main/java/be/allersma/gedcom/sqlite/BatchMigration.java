@@ -0,0 +1,141 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.MigrationMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Migrates every Gedcom file of a directory into a SQLite database of its own, a shard, with a
+ * {@link StreamingMigration} per file. A fixed amount of workers migrate one file each at the same time, so
+ * the memory used depends on the amount of workers and not on the amount of files. The shards can be merged
+ * into one database with {@link ShardMerger}.
+ * <p>
+ * The shard of <code>smith.ged</code> is <code>smith.db</code>. Shards are kept between batches, so a file that
+ * hasn't changed since the last batch is read, but not migrated again.
+ */
+public class BatchMigration {
+    private static final Logger logger = LogManager.getLogger(BatchMigration.class);
+    private static final String EXTENSION = ".ged";
+
+    private final Path directory;
+    private final Path shards;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private BulkLoader.Settings settings = BulkLoader.Settings.defaults();
+    private boolean full = false;
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param directory The directory with the Gedcom files, which have the extension <code>.ged</code>
+     * @param shards The directory for the shards, which is created if it doesn't exist
+     */
+    public BatchMigration(Path directory, Path shards) {
+        this.directory = directory;
+        this.shards = shards;
+    }
+
+    public BatchMigration workers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed, got " + workers);
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public BatchMigration settings(BulkLoader.Settings settings) {
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * @see StreamingMigration#full(boolean)
+     */
+    public BatchMigration full(boolean full) {
+        this.full = full;
+        return this;
+    }
+
+    /**
+     * Migrates all files. A file that can't be migrated is logged and counted in {@link BatchMigration#getFailed()},
+     * the other files are migrated anyway. Its shard is left out of the result, so the shards should not be
+     * merged when a file has failed.
+     * @param timer Measures the migration of every file
+     * @return The shards of the files that have been migrated, in the order of the names of the files
+     */
+    public List<Path> run(MigrationMetrics.Timer timer) throws IOException {
+        failed.set(0);
+        List<Path> files = findFiles(directory);
+        Files.createDirectories(shards);
+        logger.info("Migrating {} files with {} workers", files.size(), workers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, Math.max(files.size(), 1)));
+        try {
+            List<Future<Path>> migrations = new ArrayList<>(files.size());
+            for (Path file : files) {
+                migrations.add(executor.submit(() -> migrate(file, timer)));
+            }
+
+            List<Path> result = new ArrayList<>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    result.add(migrations.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.error("Unable to migrate '{}': {}", files.get(i), e.getCause().getMessage());
+                    failed.incrementAndGet();
+                }
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while migrating the files in " + directory, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return How many files of the last run could not be migrated
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return The Gedcom files in the directory, but not in its subdirectories, by name
+     */
+    static List<Path> findFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path migrate(Path file, MigrationMetrics.Timer timer) throws Exception {
+        String name = file.getFileName().toString();
+        Path shard = shards.resolve(name.substring(0, name.length() - EXTENSION.length()) + ".db");
+        long start = timer.begin();
+        StreamingMigration migration = new StreamingMigration(file.toUri().toURL(), shard.toString())
+                .settings(settings)
+                .full(full);
+        migration.run();
+        timer.end(start, 1);
+        logger.debug("Written {} marriages of '{}' to '{}'", migration.getWritten(), file, shard);
+        return shard;
+    }
+}
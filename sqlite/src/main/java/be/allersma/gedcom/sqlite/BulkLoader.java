@@ -0,0 +1,247 @@
+package be.allersma.gedcom.sqlite;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Loads rows straight into a SQLite database. Rows are inserted with batched {@link PreparedStatement}s
+ * inside large transactions, and indexes are only created once all rows have been loaded, which is far
+ * quicker than maintaining them for every insert.
+ */
+public class BulkLoader implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(BulkLoader.class);
+    private static final Pattern pragmaValue = Pattern.compile("^-?[A-Za-z0-9_]+$");
+
+    private final Connection connection;
+    private final Settings settings;
+    private final List<Inserter> inserters = new ArrayList<>();
+    private final List<String> deferredIndexes = new ArrayList<>();
+    private final List<CommitListener> commitListeners = new ArrayList<>();
+    private long uncommittedRows = 0;
+
+    public BulkLoader(Connection connection, Settings settings) throws SQLException {
+        this.connection = connection;
+        this.settings = settings;
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = " + checked(settings.journalMode));
+            statement.execute("PRAGMA synchronous = " + checked(settings.synchronous));
+            statement.execute("PRAGMA cache_size = " + settings.cacheSize);
+        }
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Opens (or creates) the SQLite database at the given path.
+     */
+    public static BulkLoader open(String path, Settings settings) throws SQLException {
+        return new BulkLoader(DriverManager.getConnection("jdbc:sqlite:" + path), settings);
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Executes a statement directly, like <code>CREATE TABLE</code>.
+     */
+    public void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    /**
+     * Remembers a statement like <code>CREATE INDEX</code> until all rows have been loaded.
+     */
+    public void deferIndex(String sql) {
+        deferredIndexes.add(sql);
+    }
+
+    /**
+     * @param sql An insert statement with parameters
+     */
+    public Inserter prepare(String sql) throws SQLException {
+        Inserter inserter = new Inserter(connection.prepareStatement(sql));
+        inserters.add(inserter);
+        return inserter;
+    }
+
+    /**
+     * Lets the listener add its own statements to every transaction, right before it is committed.
+     */
+    public void beforeCommit(CommitListener listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Inserts all pending rows and commits them.
+     */
+    public void flush() throws SQLException {
+        for (Inserter inserter : inserters) {
+            inserter.executePending();
+        }
+        for (CommitListener listener : commitListeners) {
+            listener.beforeCommit(connection);
+        }
+        connection.commit();
+        uncommittedRows = 0;
+    }
+
+    /**
+     * Creates the deferred indexes as part of the transaction that is going on, so they can be committed along
+     * with whatever marks the load as done.
+     */
+    public void createIndexes() throws SQLException {
+        for (String index : deferredIndexes) {
+            logger.debug("Creating index: {}", index);
+            execute(index);
+        }
+        deferredIndexes.clear();
+    }
+
+    /**
+     * Flushes the pending rows, creates the deferred indexes that are left and closes the connection.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+            createIndexes();
+            connection.commit();
+            for (Inserter inserter : inserters) {
+                inserter.statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void rowAdded() throws SQLException {
+        if (++uncommittedRows >= settings.rowsPerTransaction) {
+            flush();
+        }
+    }
+
+    private static String checked(String value) {
+        if (!pragmaValue.matcher(value).matches()) {
+            throw new IllegalArgumentException("Invalid pragma value '" + value + "'");
+        }
+        return value;
+    }
+
+    /**
+     * Called with all rows of a transaction inserted, but not committed yet.
+     */
+    @FunctionalInterface
+    public interface CommitListener {
+        void beforeCommit(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Inserts rows using one prepared statement. Set the parameters of a row on {@link Inserter#getStatement()}
+     * and call {@link Inserter#addRow()}, the loader takes care of batching and committing.
+     */
+    public class Inserter {
+        private final PreparedStatement statement;
+        private int pendingRows = 0;
+
+        private Inserter(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        public PreparedStatement getStatement() {
+            return statement;
+        }
+
+        public void addRow() throws SQLException {
+            statement.addBatch();
+            if (++pendingRows >= settings.batchSize) {
+                executePending();
+            }
+            rowAdded();
+        }
+
+        private void executePending() throws SQLException {
+            if (pendingRows > 0) {
+                statement.executeBatch();
+                pendingRows = 0;
+            }
+        }
+    }
+
+    /**
+     * Tuning of the loader. Settings are immutable, every setter returns a new instance.
+     * See the SQLite documentation of the pragmas for their possible values.
+     */
+    public static final class Settings {
+        private final String journalMode;
+        private final String synchronous;
+        private final int cacheSize;
+        private final int batchSize;
+        private final int rowsPerTransaction;
+
+        private Settings(String journalMode, String synchronous, int cacheSize, int batchSize, int rowsPerTransaction) {
+            this.journalMode = journalMode;
+            this.synchronous = synchronous;
+            this.cacheSize = cacheSize;
+            this.batchSize = batchSize;
+            this.rowsPerTransaction = rowsPerTransaction;
+        }
+
+        /**
+         * Defaults for a one-off load: a write-ahead log without syncing every commit, and 64 MiB of page cache.
+         */
+        public static Settings defaults() {
+            return new Settings("WAL", "NORMAL", -65536, 10_000, 500_000);
+        }
+
+        /**
+         * Defaults, overridden by the system properties <code>sqlite.journal_mode</code>,
+         * <code>sqlite.synchronous</code>, <code>sqlite.cache_size</code>, <code>sqlite.batch_size</code>
+         * and <code>sqlite.rows_per_transaction</code> when they are set.
+         */
+        public static Settings fromSystemProperties() {
+            Settings defaults = defaults();
+            return new Settings(
+                    System.getProperty("sqlite.journal_mode", defaults.journalMode),
+                    System.getProperty("sqlite.synchronous", defaults.synchronous),
+                    Integer.getInteger("sqlite.cache_size", defaults.cacheSize),
+                    Integer.getInteger("sqlite.batch_size", defaults.batchSize),
+                    Integer.getInteger("sqlite.rows_per_transaction", defaults.rowsPerTransaction)
+            );
+        }
+
+        public Settings journalMode(String journalMode) {
+            return new Settings(journalMode, synchronous, cacheSize, batchSize, rowsPerTransaction);
+        }
+
+        public Settings synchronous(String synchronous) {
+            return new Settings(journalMode, synchronous, cacheSize, batchSize, rowsPerTransaction);
+        }
+
+        /**
+         * @param cacheSize Positive for an amount of pages, negative for an amount of KiB
+         */
+        public Settings cacheSize(int cacheSize) {
+            return new Settings(journalMode, synchronous, cacheSize, batchSize, rowsPerTransaction);
+        }
+
+        public Settings batchSize(int batchSize) {
+            return new Settings(journalMode, synchronous, cacheSize, batchSize, rowsPerTransaction);
+        }
+
+        public Settings rowsPerTransaction(int rowsPerTransaction) {
+            return new Settings(journalMode, synchronous, cacheSize, batchSize, rowsPerTransaction);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package be.allersma.gedcom.sqlite;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes UTF-8 to a channel through two large buffers: characters are collected in one and encoded into the
+ * other, which is only written to the channel when it is full. Nothing is flushed until the buffers are full
+ * or the writer is closed. Not thread-safe.
+ */
+final class ChannelWriter extends Writer {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE / 4);
+    private final ByteBuffer bytes;
+
+    ChannelWriter(WritableByteChannel channel, ByteBuffer bytes) {
+        this.channel = channel;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Creates or truncates the file.
+     * @param gzip Whether to compress what is written
+     */
+    static ChannelWriter open(Path file, boolean gzip) throws IOException {
+        if (gzip) {
+            GZIPOutputStream stream = new GZIPOutputStream(Files.newOutputStream(file), 1 << 16);
+            return new ChannelWriter(Channels.newChannel(stream), ByteBuffer.allocate(BUFFER_SIZE));
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new ChannelWriter(channel, ByteBuffer.allocateDirect(BUFFER_SIZE));
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encode(false);
+        }
+        chars.put((char) c);
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(length, chars.remaining());
+            chars.put(buffer, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void write(String value, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(length, chars.remaining());
+            int position = chars.position();
+            value.getChars(offset, offset + count, chars.array(), chars.arrayOffset() + position);
+            chars.position(position + count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encode(false);
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Moves the collected characters into the byte buffer, writing that to the channel whenever it is full.
+     * A trailing high surrogate stays behind until its other half has been written.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                break;
+            }
+        }
+        chars.compact();
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
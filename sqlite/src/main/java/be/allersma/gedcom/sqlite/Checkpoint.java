@@ -0,0 +1,158 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.RecordType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32C;
+
+/**
+ * How far a streaming migration got: for every record type, how many records of the file have been completed
+ * and the xref of the last one. It is stored in the same transaction as the rows of those records, so after a
+ * run has been killed, the stored checkpoint and the stored rows always match, and the next run can skip
+ * everything up to it.
+ * <p>
+ * A checkpoint belongs to one source file, identified by a fingerprint of its size and its first
+ * {@value FINGERPRINT_BYTES} bytes, and to one kind of run: one that migrates everything or one that only
+ * migrates what has changed.
+ */
+public class Checkpoint {
+    public static final String TABLE = "checkpoints";
+    private static final int FINGERPRINT_BYTES = 1 << 20;
+
+    private final String source;
+    private final boolean full;
+    private final Map<RecordType, Long> records = new EnumMap<>(RecordType.class);
+    private final Map<RecordType, String> xrefs = new EnumMap<>(RecordType.class);
+
+    /**
+     * @param source The fingerprint of the source file
+     * @param full Whether the run migrates everything
+     */
+    public Checkpoint(String source, boolean full) {
+        this.source = source;
+        this.full = full;
+    }
+
+    /**
+     * @return The size of the file and a checksum of its start, which changes when the file is replaced by
+     * another export in almost all cases
+     */
+    public static String fingerprint(URL file) throws IOException {
+        URLConnection connection = file.openConnection();
+        long size = connection.getContentLengthLong();
+        CRC32C checksum = new CRC32C();
+        byte[] buffer = new byte[8192];
+        int total = 0;
+        try (InputStream input = connection.getInputStream()) {
+            int read;
+            while (total < FINGERPRINT_BYTES
+                    && (read = input.read(buffer, 0, Math.min(buffer.length, FINGERPRINT_BYTES - total))) >= 0) {
+                checksum.update(buffer, 0, read);
+                total += read;
+            }
+        }
+        return size + ":" + Long.toHexString(checksum.getValue());
+    }
+
+    public static void createTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE
+                    + " (type TEXT PRIMARY KEY, records INTEGER NOT NULL, xref TEXT, source TEXT NOT NULL,"
+                    + " full INTEGER NOT NULL)");
+        }
+    }
+
+    /**
+     * @return The stored checkpoint, which is only there if the last run didn't finish
+     */
+    public static Optional<Checkpoint> load(Connection connection) throws SQLException {
+        createTable(connection);
+        Checkpoint checkpoint = null;
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT type, records, xref, source, full FROM " + TABLE)) {
+            while (result.next()) {
+                if (checkpoint == null) {
+                    checkpoint = new Checkpoint(result.getString(4), result.getBoolean(5));
+                }
+                checkpoint.complete(RecordType.valueOf(result.getString(1)), result.getLong(2), result.getString(3));
+            }
+        }
+        return Optional.ofNullable(checkpoint);
+    }
+
+    /**
+     * Removes the stored checkpoint, after a run has finished, and commits.
+     */
+    public static void clear(Connection connection) throws SQLException {
+        createTable(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM " + TABLE);
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Stores this checkpoint as part of the transaction that is going on, replacing the one that was stored.
+     */
+    public void save(Connection connection) throws SQLException {
+        createTable(connection);
+        try (Statement statement = connection.createStatement();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + TABLE + " (type, records, xref, source, full) VALUES (?, ?, ?, ?, ?)")) {
+            statement.executeUpdate("DELETE FROM " + TABLE);
+            for (Map.Entry<RecordType, Long> entry : records.entrySet()) {
+                insert.setString(1, entry.getKey().name());
+                insert.setLong(2, entry.getValue());
+                insert.setString(3, xrefs.get(entry.getKey()));
+                insert.setString(4, source);
+                insert.setBoolean(5, full);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * @param records How many records of the type, from the start of the file, have been completed
+     * @param xref The xref of the last of them
+     */
+    public void complete(RecordType type, long records, String xref) {
+        this.records.put(type, records);
+        this.xrefs.put(type, xref);
+    }
+
+    /**
+     * @return How many records of the type have been completed, or 0 if none
+     */
+    public long getRecords(RecordType type) {
+        return records.getOrDefault(type, 0L);
+    }
+
+    /**
+     * @return The xref of the last record of the type that has been completed, or null if none
+     */
+    public String getXref(RecordType type) {
+        return xrefs.get(type);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+}
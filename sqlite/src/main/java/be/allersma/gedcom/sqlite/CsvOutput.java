@@ -0,0 +1,83 @@
+package be.allersma.gedcom.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes every table to <code>&lt;table&gt;.csv</code> (or <code>.csv.gz</code>) in a directory, in the
+ * RFC 4180 form that <code>sqlite3</code> reads with <code>.import --csv file table</code>. The first line
+ * holds the column names, and null values are written as empty fields.
+ */
+public class CsvOutput implements OutputSink {
+    private final Path directory;
+    private final boolean gzip;
+    private ChannelWriter writer;
+
+    public CsvOutput(Path directory, boolean gzip) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.gzip = gzip;
+    }
+
+    @Override
+    public void begin(TableSchema table) throws IOException {
+        closeTable();
+        writer = ChannelWriter.open(directory.resolve(table.getName() + (gzip ? ".csv.gz" : ".csv")), gzip);
+        row(table.getColumns().toArray());
+    }
+
+    @Override
+    public void row(Object... values) throws IOException {
+        if (writer == null) {
+            throw new IllegalStateException("No table has been started");
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (values[i] != null) {
+                writeField(values[i].toString());
+            }
+        }
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeTable();
+    }
+
+    private void closeTable() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Only quotes a field when it has to, doubling the quotes inside it.
+     */
+    private void writeField(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                writer.write(value, start, i + 1 - start);
+                start = i;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+}
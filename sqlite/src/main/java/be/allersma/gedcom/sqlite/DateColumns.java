@@ -0,0 +1,45 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.GedcomDate;
+
+/**
+ * The columns that make a date column searchable: the first and last day it can be as Julian day numbers, with
+ * an index on both, and how exact it is. Events in a range of years are found with
+ * <pre>
+ * SELECT * FROM events WHERE date_lower &gt;= 2378497 AND date_upper &lt;= 2396758
+ * </pre>
+ * Bounds that are open, like the lower bound of "BEF 1850", and all columns of a date that can't be parsed are
+ * null.
+ */
+final class DateColumns {
+    private DateColumns() {
+    }
+
+    /**
+     * Adds the columns after the columns that are already in the schema.
+     */
+    static TableSchema addTo(TableSchema schema) {
+        return schema
+                .column("date_lower", "INTEGER")
+                .column("date_upper", "INTEGER")
+                .column("date_precision", "TEXT")
+                .column("date_modifier", "TEXT")
+                .index("date_lower", "date_upper");
+    }
+
+    /**
+     * @param date The parsed date, or null
+     * @return The values of the columns of {@link DateColumns#addTo(TableSchema)}
+     */
+    static Object[] values(GedcomDate date) {
+        if (date == null) {
+            return new Object[4];
+        }
+        return new Object[]{
+                date.hasLower() ? date.getLower() : null,
+                date.hasUpper() ? date.getUpper() : null,
+                date.getPrecision().name(),
+                date.getModifier().name()
+        };
+    }
+}
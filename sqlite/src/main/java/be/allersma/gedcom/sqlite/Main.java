@@ -1,126 +1,433 @@
 package be.allersma.gedcom.sqlite;
 
+import be.allersma.gedcom.migrator.FamilyGraph;
 import be.allersma.gedcom.migrator.FunctionMarker;
+import be.allersma.gedcom.migrator.MigrationMetrics;
+import be.allersma.gedcom.migrator.PathCoverage;
+import be.allersma.gedcom.migrator.Pipeline;
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordHashes;
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folg.gedcom.model.*;
 import org.folg.gedcom.parser.ModelParser;
+import org.xml.sax.SAXParseException;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 
 public class Main {
     private static final Logger logger = LogManager.getLogger(Main.class);
 
     public static void main(String[] args) {
-        Gedcom gedcom = initialize().orElseGet(() -> {
+        String database = args.length > 0 ? args[0] : "/tmp/gedcom.db";
+        MigrationMetrics metrics = new MigrationMetrics();
+        if (Boolean.getBoolean("gedcom.streaming")) {
+            if (!holdsTree(database)) {
+                stream(database, metrics);
+                System.out.print(metrics.summary());
+                System.exit(0);
+            }
+            logger.warn("'{}' holds the tree tables, which a streaming run doesn't update, so it is migrated without"
+                    + " streaming.", database);
+        }
+        if (System.getProperty("gedcom.batch") != null) {
+            batch(Paths.get(System.getProperty("gedcom.batch")), database, metrics);
+            System.out.print(metrics.summary());
+            System.exit(0);
+        }
+
+        // A database with the tables of the last run only gets the people and families that have changed since
+        String output = System.getProperty("gedcom.output", database);
+        RecordHashes hashes = null;
+        Optional<RecordHashes.Delta> changes = Optional.empty();
+        if (output.equals(database)) {
+            try (MigrationMetrics.Stage stage = metrics.start("hashes")) {
+                hashes = StreamingMigration.hash(Main.class.getClassLoader().getResource("fokkens.ged"),
+                        TreeTables.recordTypes());
+                for (RecordType type : TreeTables.recordTypes()) {
+                    stage.addRecords(hashes.size(type));
+                }
+            } catch (IOException | SAXParseException e) {
+                logger.error("Unable to hash the records: {}", e.getMessage());
+                System.exit(1);
+            }
+            if (!Boolean.getBoolean("gedcom.full")) {
+                changes = changes(database, hashes);
+            }
+        }
+        if (changes.isPresent() && changes.get().isEmpty()) {
+            logger.info("Nothing has changed since '{}' has been written.", database);
+            System.exit(0);
+        }
+
+        Gedcom gedcom = initialize(metrics).orElseGet(() -> {
             logger.error("Error in initialization. Aborting ...");
             System.exit(1);
             return null;
         });
 
-        FunctionMarker.Branch<Gedcom> functionMarker = FunctionMarker.createMarkerTree(gedcom, true);
+        XrefRegistry registry = new XrefRegistry();
+        PlaceGazetteer places = new PlaceGazetteer();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             MigrationMetrics.Stage stage = metrics.start("registry")) {
+            if (output.equals(database) && changes.isEmpty()) {
+                RecordHashStore.clear(connection);
+            }
+            XrefStore.load(connection, registry);
+            PlaceStore.load(connection, places);
+            registry.registerAll(gedcom);
+            XrefStore.save(connection, registry);
+            stage.addRecords(registry.size(RecordType.INDI) + registry.size(RecordType.FAM));
+        } catch (SQLException e) {
+            logger.error("Unable to store xrefs in '{}': {}", database, e.getMessage());
+            System.exit(1);
+        }
+        logger.debug("Registered xrefs");
+
+        // Tracking a sample of the records, like -Dgedcom.sample=0.01, keeps the coverage check cheap
+        FunctionMarker.Options options = FunctionMarker.Options.defaults()
+                .ignoreNullFields(true)
+                .perPath(true)
+                .sample(Double.parseDouble(System.getProperty("gedcom.sample", "1")),
+                        Integer.getInteger("gedcom.sample_first", 1000));
+        FunctionMarker.Branch<Gedcom> functionMarker;
+        List<FunctionMarker.Branch<Person>> people;
+        List<FunctionMarker.Branch<Family>> families;
+        try (MigrationMetrics.Stage stage = metrics.start("markerTree")) {
+            functionMarker = FunctionMarker.createMarkerTree(gedcom, options);
+
+            // People
+            people = Optional
+                    .<List<FunctionMarker.Branch<Person>>>ofNullable(functionMarker.get("getPeople"))
+                    .orElse(Collections.emptyList());
+
+            // Families
+            families = Optional
+                    .<List<FunctionMarker.Branch<Family>>>ofNullable(functionMarker.get("getFamilies"))
+                    .orElse(Collections.emptyList());
+            stage.addRecords(people.size() + families.size());
+        }
         logger.debug("Created Field marker");
 
-        // People
-        List<Object> peopleRaw = (List<Object>) functionMarker.invoke("getPeople").orElse(new ArrayList<>());
-        List<FunctionMarker.Branch<Person>> people = peopleRaw
-                .stream()
-                .map(branch -> (FunctionMarker.Branch<Person>)branch)
-                .collect(Collectors.toList());
-
-        // Families
-        List<Object> famliiesRaw = (List<Object>) functionMarker.invoke("getFamilies").orElse(new ArrayList<>());
-        List<FunctionMarker.Branch<Family>> families = famliiesRaw
-                .stream()
-                .map(branch -> (FunctionMarker.Branch<Family>)branch)
-                .collect(Collectors.toList());
-
-        // Family events facts
-        List<FunctionMarker.Branch<EventFact>> familyEventsFacts = families.stream()
-                .flatMap(familyBranch -> familyBranch.invoke("getEventsFacts").stream())
-                .map(object -> (ArrayList<FunctionMarker.Branch<EventFact>>) object)
-                .flatMap(list -> list.stream())
-                .collect(Collectors.toList());
-
-
-        // Marriages
-        List<Marriage> marriages = new ArrayList<>();
-        List<Family> familyValues = families.stream()
-                .map(FunctionMarker.Branch::getValue)
-                .collect(Collectors.toList());
-        for (Family family : familyValues) {
+        FamilyGraph graph;
+        try (MigrationMetrics.Stage stage = metrics.start("graph")) {
+            graph = FamilyGraph.of(gedcom, registry);
+            stage.addRecords(families.size());
+        }
+        logger.debug("Built family graph");
+
+        // Marriages, generated in parallel. The gedcom, the registry and the graph are only read from here on.
+        MigrationMetrics.Timer transformTimer = metrics.timer("transform");
+        MigrationMetrics.Timer writeTimer = metrics.timer("write");
+        Pipeline.Transform<Family, Marriage> generateMarriages = (family, result) -> {
+            long start = transformTimer.begin();
+            int familyId = registry.getId(RecordType.FAM, family.getId());
             for (EventFact fact : family.getEventsFacts()) {
-                Marriage.generateMarriage(gedcom, family, fact).ifPresent(marriages::add);
+                Marriage.generateMarriage(graph, places, familyId, fact).ifPresent(result);
+            }
+            transformTimer.end(start, 1);
+        };
+
+        boolean sqlite = false;
+        if (changes.isPresent()) {
+            try (MigrationMetrics.Stage stage = metrics.start("update")) {
+                families.forEach(family -> family.mark("getEventsFacts").mark("getNotes"));
+                stage.addRecords(update(database, gedcom, registry, places, graph, changes.get()));
+            } catch (IOException | SQLException e) {
+                logger.error("Unable to update '{}': {}", database, e.getMessage());
+                System.exit(1);
+            }
+            sqlite = true;
+        } else {
+            // The stage ends after the sink has been closed, which is when the last rows and the indexes are written
+            try (MigrationMetrics.Stage stage = metrics.start("migrate");
+                 OutputSink sink = openOutput(output)) {
+                sqlite = sink instanceof SqliteOutput;
+                sink.begin(Marriage.schema("marriages"));
+                try (Pipeline<Family, Marriage> pipeline = new Pipeline<>(generateMarriages, marriage -> {
+                    long start = writeTimer.begin();
+                    marriage.write(sink);
+                    writeTimer.end(start, 1);
+                }, Pipeline.Options.defaults())) {
+                    for (FunctionMarker.Branch<Family> familyBranch : families) {
+                        pipeline.submit(familyBranch.getValue());
+                        familyBranch.mark("getEventsFacts").mark("getNotes");
+                    }
+                    pipeline.close();
+                    stage.addRecords(pipeline.getWritten());
+                }
+
+                try (MigrationMetrics.Stage treeStage = metrics.start("tree")) {
+                    new TreeTables(gedcom, registry, places).write(sink);
+                    treeStage.addRecords(people.size() + families.size());
+                }
+
+            } catch (CompletionException | IOException e) {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                logger.error("Unable to write marriages to '{}': {}", output, cause.getMessage());
+                System.exit(1);
+            }
+        }
+        logger.info("Written marriages data to '{}'.", output);
+
+        // Lets the next run only migrate what has changed since. The hashes are only stored once all tables have
+        // been written, and the file is decoded the same way as in a streaming run.
+        if (sqlite && output.equals(database)) {
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+                if (changes.isPresent()) {
+                    RecordHashStore.update(connection, hashes, changes.get());
+                } else {
+                    RecordHashStore.replace(connection, hashes);
+                }
+            } catch (SQLException e) {
+                logger.error("Unable to store the hashes of the records in '{}': {}", database, e.getMessage());
+                System.exit(1);
             }
         }
-        families.forEach(family -> family.mark("getEventsFacts").mark("getNotes"));
 
-        try (PrintWriter writer = new PrintWriter("/tmp/marriages.sql")) {
-            String table = "marriages";
-            String columns = " (partner1 INTEGER, partner2 INTEGER, children TEXT, date TEXT, place TEXT, notes TEXT);";
-            writer.println("CREATE TABLE " + table + columns);
-            marriages.forEach(marriage -> writer.println(marriage.toQuery(table)));
-        } catch (FileNotFoundException e) {
-            logger.error(e.getMessage());
+        // The places table of another output doesn't end up in the database, but the next run needs the same ids
+        if (!output.equals(database)) {
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+                PlaceStore.save(connection, places);
+            } catch (SQLException e) {
+                logger.error("Unable to store places in '{}': {}", database, e.getMessage());
+                System.exit(1);
+            }
         }
-        logger.info("Written marriages data to '/tmp/marriages.sql'.");
 
 //        // Family events facts tagg
 //        System.out.println("-------------------------------------");
 //        System.out.println("Unique Family Events Facts tags:");
 //        System.out.println();
-//        familyEventsFacts.stream()
+//        families.stream()
+//                .flatMap(familyBranch -> familyBranch.<EventFact>stream("getEventsFacts"))
 //                .map(fact -> fact.invoke("getTag") + " -- " + fact.invoke("getDisplayType"))
 //                .distinct()
 //                .forEach(System.out::println);
 
-        if (!people.isEmpty()) {
-            summarize(people);
+        // What the tree tables contain
+        people.forEach(person -> person.mark("getId").mark("getNames").mark("getEventsFacts").mark("getNotes")
+                .mark("getNoteRefs").mark("getSourceCitations").mark("getParentFamilyRefs").mark("getSpouseFamilyRefs"));
+        families.forEach(family -> family.mark("getId").mark("getHusbandRefs").mark("getWifeRefs")
+                .mark("getChildRefs").mark("getNoteRefs").mark("getSourceCitations"));
+
+        summarize(functionMarker.getCoverage());
+        metrics.recordCoverage(functionMarker.getCoverage());
+        System.out.print(metrics.summary());
+
+        System.exit(0);
+    }
+
+    /**
+     * @return Whether the database holds the {@link TreeTables}, which only a run without streaming writes
+     */
+    private static boolean holdsTree(String database) {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            return TreeTables.exist(connection);
+        } catch (SQLException e) {
+            logger.error("Unable to read '{}': {}", database, e.getMessage());
+            System.exit(1);
+            return false;
         }
-        if (!families.isEmpty()) {
-            summarize(families);
+    }
+
+    /**
+     * @return The records that have changed since the last run that wrote the tables of the database, when
+     * {@link TreeTables#update(SqliteOutput, RecordHashes.Delta)} can apply them, or nothing when everything has to
+     * be migrated again
+     */
+    private static Optional<RecordHashes.Delta> changes(String database, RecordHashes hashes) {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            if (!TreeTables.exist(connection) || !Marriage.hasAllColumns(connection, "marriages")) {
+                return Optional.empty();
+            }
+            // No hashes means the tables of the last run may not have been written completely
+            RecordHashes previous = RecordHashStore.load(connection);
+            if (previous.size(RecordType.INDI) == 0 && previous.size(RecordType.FAM) == 0) {
+                return Optional.empty();
+            }
+            RecordHashes.Delta delta = hashes.compareTo(previous);
+            return TreeTables.canUpdate(delta) ? Optional.of(delta) : Optional.empty();
+        } catch (SQLException e) {
+            logger.warn("Unable to compare '{}' with the file: {}", database, e.getMessage());
+            return Optional.empty();
         }
-        summarize(Collections.singletonList(functionMarker));
+    }
 
-        System.exit(0);
+    /**
+     * Applies the people and families that have changed to the tables of the database, and the marriages of the
+     * families. The hashes are stored afterwards, so a run that didn't finish applies the same changes again.
+     *
+     * @return The amount of people and families that have been migrated again
+     */
+    private static int update(String database, Gedcom gedcom, XrefRegistry registry, PlaceGazetteer places,
+                              FamilyGraph graph, RecordHashes.Delta delta) throws IOException, SQLException {
+        Set<String> families = new HashSet<>(delta.getAdded(RecordType.FAM));
+        families.addAll(delta.getChanged(RecordType.FAM));
+        try (SqliteOutput sink = SqliteOutput.appending(
+                BulkLoader.open(database, BulkLoader.Settings.fromSystemProperties()))) {
+            for (Set<String> xrefs : List.of(families, delta.getDeleted(RecordType.FAM))) {
+                for (String xref : xrefs) {
+                    Marriage.deleteFamily(sink.getConnection(), "marriages", registry.getId(RecordType.FAM, xref));
+                }
+            }
+            sink.begin(Marriage.schema("marriages"));
+            for (Family family : gedcom.getFamilies()) {
+                if (families.contains(family.getId())) {
+                    int familyId = registry.getId(RecordType.FAM, family.getId());
+                    for (EventFact fact : family.getEventsFacts()) {
+                        Optional<Marriage> marriage = Marriage.generateMarriage(graph, places, familyId, fact);
+                        if (marriage.isPresent()) {
+                            marriage.get().write(sink);
+                        }
+                    }
+                }
+            }
+            new TreeTables(gedcom, registry, places).update(sink, delta);
+        }
+
+        for (RecordType type : List.of(RecordType.INDI, RecordType.FAM)) {
+            logger.info("{}: {} added, {} changed, {} deleted", type, delta.getAdded(type).size(),
+                    delta.getChanged(type).size(), delta.getDeleted(type).size());
+        }
+        return delta.getAdded(RecordType.INDI).size() + delta.getChanged(RecordType.INDI).size() + families.size();
     }
 
-    private static Optional<Gedcom> initialize() {
+    /**
+     * Migrates the marriages with a {@link StreamingMigration}. There is no marker tree, so no summary is printed
+     * in this mode. Set <code>gedcom.full</code> to migrate everything again, and <code>gedcom.restart</code> to
+     * not resume a run that didn't finish.
+     */
+    private static void stream(String database, MigrationMetrics metrics) {
+        URL source = Main.class.getClassLoader().getResource("fokkens.ged");
+        if (source == null) {
+            logger.error("Error in initialization. Aborting ...");
+            System.exit(1);
+        }
+
+        StreamingMigration migration = new StreamingMigration(source, database)
+                .settings(BulkLoader.Settings.fromSystemProperties())
+                .full(Boolean.getBoolean("gedcom.full"))
+                .restart(Boolean.getBoolean("gedcom.restart"));
+        try (MigrationMetrics.Stage stage = metrics.start("stream")) {
+            migration.run();
+            stage.addRecords(migration.getHandled());
+        } catch (IllegalStateException | SQLException | IOException | SAXParseException e) {
+            logger.error("Unable to stream marriages to '{}': {}", database, e.getMessage());
+            System.exit(1);
+        }
+
+        RecordHashes.Delta delta = migration.getDelta();
+        for (RecordType type : List.of(RecordType.INDI, RecordType.FAM)) {
+            logger.info("{}: {} added, {} changed, {} deleted", type, delta.getAdded(type).size(),
+                    delta.getChanged(type).size(), delta.getDeleted(type).size());
+        }
+        logger.info("Written {} marriages to '{}'.", migration.getWritten(), database);
+    }
+
+    /**
+     * Migrates every Gedcom file in a directory into a shard of its own with a {@link BatchMigration}, and merges
+     * the shards into the database. The shards are kept in <code>gedcom.shards</code>, next to the database by
+     * default, so the next batch only migrates what has changed. <code>gedcom.workers</code> sets how many
+     * files are migrated at the same time, which is one per processor by default.
+     */
+    private static void batch(Path directory, String database, MigrationMetrics metrics) {
+        Path shards = Paths.get(System.getProperty("gedcom.shards", database + ".shards"));
+        BatchMigration batch = new BatchMigration(directory, shards)
+                .workers(Integer.getInteger("gedcom.workers", Runtime.getRuntime().availableProcessors()))
+                .settings(BulkLoader.Settings.fromSystemProperties())
+                .full(Boolean.getBoolean("gedcom.full"));
+
+        List<Path> migrated;
+        try (MigrationMetrics.Stage stage = metrics.start("batch")) {
+            migrated = batch.run(metrics.timer("file"));
+            stage.addRecords(migrated.size());
+        } catch (IOException e) {
+            logger.error("Unable to migrate the files in '{}': {}", directory, e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        // Merging rebuilds the database from the shards, so leaving out the shard of a file would drop its rows
+        if (batch.getFailed() > 0) {
+            logger.error("{} files could not be migrated, so the shards are not merged into '{}'", batch.getFailed(),
+                    database);
+            System.out.print(metrics.summary());
+            System.exit(1);
+        }
+        try (MigrationMetrics.Stage stage = metrics.start("merge")) {
+            stage.addRecords(ShardMerger.merge(migrated, database));
+        } catch (SQLException e) {
+            logger.error("Unable to merge the shards into '{}': {}", database, e.getMessage());
+            System.exit(1);
+        }
+        logger.info("Merged {} shards into '{}'.", migrated.size(), database);
+    }
+
+    /**
+     * Opens the sink at the given path. The format follows from the path unless <code>gedcom.format</code>
+     * (sqlite, sql or csv) is set, and the output is compressed when the path ends in <code>.gz</code>
+     * or <code>gedcom.gzip</code> is set.
+     */
+    private static OutputSink openOutput(String path) throws IOException {
+        String format = System.getProperty("gedcom.format");
+        return OutputSink.open(path,
+                format == null ? OutputSink.Format.fromPath(path) : OutputSink.Format.valueOf(format.toUpperCase(Locale.ROOT)),
+                Boolean.getBoolean("gedcom.gzip") || path.endsWith(".gz"));
+    }
+
+    private static Optional<Gedcom> initialize(MigrationMetrics metrics) {
         try {
             Gedcom gedcom;
-            InputStream file = Main.class.getClassLoader().getResourceAsStream("fokkens.ged");
-            ModelParser parser = new ModelParser();
-            gedcom = parser.parseGedcom(file);
-            gedcom.createIndexes();
-            gedcom.updateReferences();
+            try (InputStream file = Main.class.getClassLoader().getResourceAsStream("fokkens.ged");
+                 MigrationMetrics.Stage stage = metrics.start("parse")) {
+                ModelParser parser = new ModelParser();
+                gedcom = parser.parseGedcom(file);
+                stage.addRecords(gedcom.getPeople().size() + gedcom.getFamilies().size());
+            }
+            try (MigrationMetrics.Stage stage = metrics.start("index")) {
+                gedcom.createIndexes();
+            }
+            try (MigrationMetrics.Stage stage = metrics.start("references")) {
+                gedcom.updateReferences();
+            }
             return Optional.of(gedcom);
         } catch (Exception e) {
             return Optional.empty();
         }
     }
 
-    private static <T> void summarize(List<FunctionMarker.Branch<T>> branches) {
-        if (branches.isEmpty())
-            return;
-        branches.forEach(branch -> branch
-                .mark("toString")
+    private static void summarize(PathCoverage coverage) {
+        coverage.mark("toString")
                 .mark("hashCode")
-                .mark("getClass"));
-
-        System.out.println("-------------------------------------");
-        System.out.printf("At: %s%n", branches.get(0).getPath().isEmpty() ? "/" : branches.get(0).getPath());
-        System.out.println("Functions that have not been called:");
-        System.out.println();
-        branches.stream()
-                .flatMap(branch -> branch.getUnmarkedItems().stream())
-                .distinct()
-                .forEach(System.out::println);
+                .mark("getClass");
+
+        coverage.getUnmarkedItems().forEach((path, items) -> {
+            System.out.println("-------------------------------------");
+            System.out.printf("At: %s%n", path.isEmpty() ? "/" : path);
+            if (coverage.isSampled()) {
+                System.out.printf("Sampled: %d of %d records%n", coverage.getSampledRecords(path),
+                        coverage.getRecords(path));
+            }
+            System.out.println("Functions that have not been called:");
+            System.out.println();
+            items.forEach(System.out::println);
+        });
     }
-}
\ No newline at end of file
+}
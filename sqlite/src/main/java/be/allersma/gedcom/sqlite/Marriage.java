@@ -1,131 +1,301 @@
 package be.allersma.gedcom.sqlite;
 
+import be.allersma.gedcom.migrator.FamilyGraph;
+import be.allersma.gedcom.migrator.GedcomDate;
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.folg.gedcom.model.ChildRef;
 import org.folg.gedcom.model.EventFact;
 import org.folg.gedcom.model.Family;
 import org.folg.gedcom.model.Gedcom;
 import org.folg.gedcom.model.Person;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Marriage {
+    private final int family;
     private final int partner1;
     private final int partner2;
     private final List<Integer> children;
     private final String date;
-    private final String place;
+    private final GedcomDate parsedDate;
+    private final int place;
+    private final String address;
     private final String notes;
 
     private static final Logger logger = LogManager.getLogger(Marriage.class);
-    private static final Pattern idPattern = Pattern.compile("^I[0-9]+");
 
-    public Marriage(int partner1, int partner2, List<Integer> children, String date, String place, String notes) {
+    /**
+     * @param date The date as it is in the Gedcom, which is also stored as the range of days it can be
+     * @param place The id of the place in a {@link PlaceGazetteer}, or {@link PlaceGazetteer#NONE}
+     * @param address The address as text, or null
+     */
+    public Marriage(int family, int partner1, int partner2, List<Integer> children, String date, int place,
+                    String address, String notes) {
+        this.family = family;
         this.partner1 = partner1;
         this.partner2 = partner2;
         this.children = children;
         this.date = date;
+        this.parsedDate = GedcomDate.parse(date).orElse(null);
         this.place = place;
+        this.address = address;
         this.notes = notes;
     }
 
-    public static Optional<Marriage> generateMarriage(Gedcom gedcom, Family family, EventFact marriage) {
-        if (marriage.getTag().equals("MARR")) {
-            int partnerIndex = 0;
-            int[] partners = new int[2];
-            String date = marriage.getDate() == null ? "" : marriage.getDate();
-            String place = "";
-            String notes;
-            List<Integer> children;
+    public static Optional<Marriage> generateMarriage(Gedcom gedcom, XrefRegistry registry, PlaceGazetteer places,
+                                                      Family family, EventFact marriage) {
+        List<Integer> partners = new ArrayList<>();
+        Stream.concat(family.getHusbands(gedcom).stream(), family.getWives(gedcom).stream())
+                .map(person -> indiIdToInt(registry, person.getId()))
+                .filter(id -> id != XrefRegistry.NONE)
+                .forEach(partners::add);
 
-            if (marriage.getNoteRefs().isEmpty()) {
-                notes = "";
-            } else {
-                notes = marriage.getNoteRefs()
-                        .stream()
-                        .map(note -> note + " ")
-                        .collect(Collectors.joining());
+        List<Integer> children = new ArrayList<>();
+        for (Person child : family.getChildren(gedcom)) {
+            int id = indiIdToInt(registry, child.getId());
+            if (id != XrefRegistry.NONE) {
+                children.add(id);
             }
+        }
 
-            if (marriage.getPlace() != null) {
-                place += marriage.getPlace();
-            }
-            if (marriage.getAddress() != null) {
-                place += place.isEmpty() ? marriage.getAddress() : " " + marriage.getAddress();
-            }
+        return generateMarriage(registry.getId(RecordType.FAM, family.getId()), partners, children, places, marriage);
+    }
 
-            for (Person husband : family.getHusbands(gedcom)) {
-                if (partnerIndex > 1) {
-                    logger.error("Marriage with more than two persons found. What to do?");
-                    return Optional.empty();
-                } else {
-                    Optional<Integer> id = indiIdToInt(husband.getId());
-                    if (id.isPresent()) {
-                        partners[partnerIndex++] = id.get();
-                    }
-                }
-            }
+    /**
+     * Same as {@link Marriage#generateMarriage(Gedcom, XrefRegistry, PlaceGazetteer, Family, EventFact)}, but the people are
+     * looked up in a graph, which doesn't allocate any model objects.
+     * @param family The id of the family in the registry the graph has been built with
+     */
+    public static Optional<Marriage> generateMarriage(FamilyGraph graph, PlaceGazetteer places, int family, EventFact marriage) {
+        List<Integer> partners = new ArrayList<>();
+        for (int partner : graph.getFamilyPartners(family)) {
+            partners.add(partner);
+        }
+        List<Integer> children = new ArrayList<>();
+        for (int child : graph.getFamilyChildren(family)) {
+            children.add(child);
+        }
+        return generateMarriage(family, partners, children, places, marriage);
+    }
+
+    /**
+     * Same as {@link Marriage#generateMarriage(Gedcom, XrefRegistry, PlaceGazetteer, Family, EventFact)}, but for a family that
+     * is not part of a parsed Gedcom, like the ones of a {@link be.allersma.gedcom.migrator.GedcomStreamReader}.
+     * The people are resolved by their xrefs, which are registered when they haven't been seen yet.
+     */
+    public static Optional<Marriage> generateMarriage(XrefRegistry registry, PlaceGazetteer places, Family family, EventFact marriage) {
+        List<Integer> partners = new ArrayList<>();
+        Stream.concat(family.getHusbandRefs().stream(), family.getWifeRefs().stream())
+                .map(ref -> registry.register(RecordType.INDI, ref.getRef()))
+                .filter(id -> id != XrefRegistry.NONE)
+                .forEach(partners::add);
 
-            for (Person wife : family.getWives(gedcom)) {
-                if (partnerIndex > 1) {
-                    logger.error("Marriage with more than two persons found. What to do?");
-                    return Optional.empty();
-                } else {
-                    Optional<Integer> id = indiIdToInt(wife.getId());
-                    if (id.isPresent()) {
-                        partners[partnerIndex++] = id.get();
-                    }
-                }
+        List<Integer> children = new ArrayList<>();
+        for (ChildRef child : family.getChildRefs()) {
+            int id = registry.register(RecordType.INDI, child.getRef());
+            if (id != XrefRegistry.NONE) {
+                children.add(id);
             }
+        }
 
-            children = family.getChildren(gedcom)
+        return generateMarriage(registry.register(RecordType.FAM, family.getId()), partners, children, places, marriage);
+    }
+
+    /**
+     * The place is looked up in the gazetteer, and the address is kept as text next to it.
+     */
+    private static Optional<Marriage> generateMarriage(int family, List<Integer> partners, List<Integer> children,
+                                                       PlaceGazetteer places, EventFact marriage) {
+        if (!marriage.getTag().equals("MARR")) {
+            logger.error("Unknown tag '{}' found", marriage.getTag());
+            return Optional.empty();
+        }
+        if (partners.size() > 2) {
+            logger.error("Marriage with more than two persons found. What to do?");
+            return Optional.empty();
+        }
+
+        String date = marriage.getDate() == null ? "" : marriage.getDate();
+        String notes;
+
+        if (marriage.getNoteRefs().isEmpty()) {
+            notes = "";
+        } else {
+            notes = marriage.getNoteRefs()
                     .stream()
-                    .map(Person::getId)
-                    .map(Marriage::indiIdToInt)
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .collect(Collectors.toList());
-
-            while (partnerIndex < 2) {
-                partners[partnerIndex++] = -1;
+                    .map(note -> note + " ")
+                    .collect(Collectors.joining());
+        }
+
+        int place = places.getId(marriage.getPlace());
+        String address = marriage.getAddress() == null ? null : marriage.getAddress().getDisplayValue().trim();
+
+        int partner1 = partners.size() > 0 ? partners.get(0) : -1;
+        int partner2 = partners.size() > 1 ? partners.get(1) : -1;
+        return Optional.of(new Marriage(family, partner1, partner2, children, date, place, address, notes));
+    }
+
+    public static TableSchema schema(String table) {
+        return DateColumns.addTo(TableSchema.of(table)
+                        .column("family", "INTEGER")
+                        .column("partner1", "INTEGER")
+                        .column("partner2", "INTEGER")
+                        .column("children", "TEXT")
+                        .column("date", "TEXT"))
+                .column("place", "INTEGER")
+                .column("address", "TEXT")
+                .column("notes", "TEXT")
+                .index("family")
+                .index("partner1")
+                .index("partner2");
+    }
+
+    public static void createTable(BulkLoader loader, String table) throws SQLException {
+        TableSchema schema = schema(table);
+        loader.execute(schema.toDropSql());
+        loader.execute(schema.toCreateSql());
+        schema.toIndexSql().forEach(loader::deferIndex);
+    }
+
+    /**
+     * Creates the indexes of an existing table once all rows have been loaded, unless they already exist, for
+     * example when a run that was killed before it got to them is resumed.
+     */
+    public static void deferIndexes(BulkLoader loader, String table) {
+        schema(table).toIndexSql(true).forEach(loader::deferIndex);
+    }
+
+    /**
+     * @return Whether the table has all columns of {@link Marriage#schema(String)}, which a table of an older version
+     * may not have. A table that doesn't exist has nothing missing.
+     */
+    public static boolean hasAllColumns(Connection connection, String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (result.next()) {
+                columns.add(result.getString("name"));
             }
+        }
+        return columns.isEmpty() || columns.containsAll(schema(table).getColumns());
+    }
+
+    public static BulkLoader.Inserter prepareInsert(BulkLoader loader, String table) throws SQLException {
+        return loader.prepare(schema(table).toInsertSql());
+    }
 
-            return Optional.of(new Marriage(partners[0], partners[1], children, date, place, notes));
+    /**
+     * Deletes the marriages of a family right away, so they can be replaced when the family has changed.
+     */
+    public static void deleteFamily(Connection connection, String table, int family) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + table + " WHERE family = ?")) {
+            statement.setInt(1, family);
+            statement.executeUpdate();
+        }
+    }
+
+    public void insert(BulkLoader.Inserter inserter) throws SQLException {
+        PreparedStatement statement = inserter.getStatement();
+        statement.setInt(1, family);
+        statement.setInt(2, partner1);
+        statement.setInt(3, partner2);
+        statement.setString(4, joinChildren());
+        statement.setString(5, date);
+        Object[] dateColumns = DateColumns.values(parsedDate);
+        for (int i = 0; i < dateColumns.length; i++) {
+            statement.setObject(6 + i, dateColumns[i]);
+        }
+        if (place == PlaceGazetteer.NONE) {
+            statement.setNull(10, Types.INTEGER);
         } else {
-            logger.error("Unknown tag '{}' found", marriage.getTag());
-            return Optional.empty();
+            statement.setInt(10, place);
         }
+        statement.setString(11, address);
+        statement.setString(12, notes);
+        inserter.addRow();
     }
 
-    public String toQuery(String table) {
-        String separator = " ";
-        String childrenRaw = this.children.stream().map(childId -> childId + separator).collect(Collectors.joining());
-        String children = childrenRaw.length() >= separator.length() ? childrenRaw.substring(0, childrenRaw.length() - separator.length()) : childrenRaw;
+    /**
+     * Writes this marriage as a row of the table of {@link Marriage#schema(String)}.
+     */
+    public void write(OutputSink sink) throws IOException {
+        Object[] dateColumns = DateColumns.values(parsedDate);
+        sink.row(family, partner1, partner2, joinChildren(), date, dateColumns[0], dateColumns[1], dateColumns[2],
+                dateColumns[3], place == PlaceGazetteer.NONE ? null : place, address, notes);
+    }
 
+    public String toQuery(String table) {
         StringBuilder query = new StringBuilder();
-        query.append("INSERT INTO ").append(table).append(" (partner1, partner2, children, date, place, notes)\n");
+        query.append("INSERT INTO ").append(table)
+                .append(" (family, partner1, partner2, children, date, date_lower, date_upper, date_precision, date_modifier, place, address, notes)\n");
         query.append("VALUES (")
+                .append(family).append(", ")
                 .append(partner1).append(", ")
-                .append(partner2).append(", '")
-                .append(children).append("', '")
-                .append(date).append("', '")
-                .append(place).append("', '")
-                .append(notes).append("');");
+                .append(partner2).append(", ");
+        appendLiteral(query, joinChildren()).append(", ");
+        appendLiteral(query, date).append(", ");
+        for (Object value : DateColumns.values(parsedDate)) {
+            if (value == null) {
+                query.append("NULL");
+            } else if (value instanceof String) {
+                appendLiteral(query, (String) value);
+            } else {
+                query.append(value);
+            }
+            query.append(", ");
+        }
+        query.append(place == PlaceGazetteer.NONE ? "NULL" : String.valueOf(place)).append(", ");
+        if (address == null) {
+            query.append("NULL, ");
+        } else {
+            appendLiteral(query, address).append(", ");
+        }
+        appendLiteral(query, notes).append(");");
 
         return query.toString();
     }
 
-    private static Optional<Integer> indiIdToInt(String id) {
-        Matcher matcher = idPattern.matcher(id);
-        if (matcher.find()) {
-            return Optional.of(Integer.parseInt(id.substring(1)));
-        } else {
-            logger.error("Invalid INDI id found: " + id);
-            return Optional.empty();
+    private String joinChildren() {
+        return children.stream().map(String::valueOf).collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Appends a string literal, with quotes in the value doubled as SQL requires.
+     */
+    private static StringBuilder appendLiteral(StringBuilder query, String value) {
+        query.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\'') {
+                query.append('\'');
+            }
+            query.append(c);
+        }
+        return query.append('\'');
+    }
+
+    private static int indiIdToInt(XrefRegistry registry, String id) {
+        int result = registry.getId(RecordType.INDI, id);
+        if (result == XrefRegistry.NONE) {
+            logger.error("Unknown INDI id found: {}", id);
         }
+        return result;
     }
 }
@@ -0,0 +1,77 @@
+package be.allersma.gedcom.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+/**
+ * Where the migrated rows go to. Tables are written one after the other: {@link OutputSink#begin(TableSchema)}
+ * starts a table, after which every {@link OutputSink#row(Object...)} adds a row to it.
+ * <p>
+ * Values can be null, a {@link Number} or anything else, which is written as text.
+ */
+public interface OutputSink extends AutoCloseable {
+    /**
+     * Starts a new table, which replaces any existing table with the same name.
+     */
+    void begin(TableSchema table) throws IOException;
+
+    /**
+     * @param values One value for every column of the current table, in the same order
+     */
+    void row(Object... values) throws IOException;
+
+    /**
+     * Finishes the current table and writes everything that is still buffered.
+     */
+    @Override
+    void close() throws IOException;
+
+    enum Format {
+        /** Straight into a SQLite database */
+        SQLITE,
+        /** A SQL script, which can be read with <code>sqlite3 db &lt; dump.sql</code> */
+        SQL,
+        /** A directory with a CSV file per table, which can be read with <code>.import --csv</code> */
+        CSV;
+
+        /**
+         * @return {@link Format#SQL} for paths ending in <code>.sql</code> or <code>.sql.gz</code>,
+         * {@link Format#SQLITE} otherwise
+         */
+        public static Format fromPath(String path) {
+            return stripGzip(path).endsWith(".sql") ? SQL : SQLITE;
+        }
+    }
+
+    /**
+     * Opens a sink with the format that follows from the path, compressed when the path ends in <code>.gz</code>.
+     */
+    static OutputSink open(String path) throws IOException {
+        return open(path, Format.fromPath(path), path.endsWith(".gz"));
+    }
+
+    /**
+     * @param gzip Whether to compress the output. Ignored for SQLite databases.
+     */
+    static OutputSink open(String path, Format format, boolean gzip) throws IOException {
+        Path file = Paths.get(path);
+        switch (format) {
+            case SQL:
+                return new SqlDumpOutput(file, gzip);
+            case CSV:
+                return new CsvOutput(file, gzip);
+            default:
+                try {
+                    return new SqliteOutput(BulkLoader.open(path, BulkLoader.Settings.fromSystemProperties()));
+                } catch (SQLException e) {
+                    throw new IOException("Unable to open database '" + path + "'", e);
+                }
+        }
+    }
+
+    private static String stripGzip(String path) {
+        return path.endsWith(".gz") ? path.substring(0, path.length() - 3) : path;
+    }
+}
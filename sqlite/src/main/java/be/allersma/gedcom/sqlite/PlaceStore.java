@@ -0,0 +1,123 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Stores the places of a {@link PlaceGazetteer} in the database, so a rerun gives every place the same id.
+ * The full name is stored along with the name of the level, so a place can be found without walking its parents.
+ */
+public class PlaceStore {
+    public static final TableSchema SCHEMA = TableSchema.of("places")
+            .column("id", "INTEGER PRIMARY KEY")
+            .column("name", "TEXT NOT NULL")
+            .column("parent", "INTEGER")
+            .column("full_name", "TEXT NOT NULL")
+            .index("parent")
+            .index("full_name")
+            .index("name");
+
+    /**
+     * Creates the table without its indexes, which {@link PlaceStore#save(Connection, PlaceGazetteer)} creates
+     * once the places have been stored.
+     */
+    public static void createTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(SCHEMA.toCreateSql(true));
+        }
+    }
+
+    private static void createIndexes(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String index : SCHEMA.toIndexSql(true)) {
+                statement.executeUpdate(index);
+            }
+        }
+    }
+
+    /**
+     * Puts all stored places in the gazetteer. Must be done before looking up the places of a new run.
+     */
+    public static void load(Connection connection, PlaceGazetteer places) throws SQLException {
+        createTable(connection);
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(
+                     "SELECT id, name, parent FROM " + SCHEMA.getName() + " ORDER BY id")) {
+            while (result.next()) {
+                int parent = result.getInt(3);
+                if (result.wasNull()) {
+                    parent = PlaceGazetteer.NONE;
+                }
+                places.put(result.getInt(1), result.getString(2), parent);
+            }
+        }
+    }
+
+    /**
+     * Stores all places of the gazetteer, and creates the indexes that don't exist yet. Places that have been
+     * stored before get the name they have now.
+     */
+    public static void save(Connection connection, PlaceGazetteer places) throws SQLException {
+        createTable(connection);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            insert(connection, places, 1);
+            createIndexes(connection);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Stores the places from the given id on, as part of the transaction that is going on.
+     */
+    static void insert(Connection connection, PlaceGazetteer places, int firstId) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT OR REPLACE INTO " + SCHEMA.getName()
+                + " (id, name, parent, full_name) VALUES (?, ?, ?, ?)")) {
+            int maxId = places.getMaxId();
+            for (int id = firstId; id <= maxId; id++) {
+                if (places.getName(id) == null) {
+                    continue;
+                }
+                int parent = places.getParent(id);
+                insert.setInt(1, id);
+                insert.setString(2, places.getName(id));
+                if (parent == PlaceGazetteer.NONE) {
+                    insert.setNull(3, Types.INTEGER);
+                } else {
+                    insert.setInt(3, parent);
+                }
+                insert.setString(4, places.getFullName(id));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Writes all places of the gazetteer as the table of {@link PlaceStore#SCHEMA}, for outputs that are not a
+     * database of their own.
+     */
+    public static void write(OutputSink sink, PlaceGazetteer places) throws IOException {
+        sink.begin(SCHEMA);
+        int maxId = places.getMaxId();
+        for (int id = 1; id <= maxId; id++) {
+            if (places.getName(id) != null) {
+                int parent = places.getParent(id);
+                sink.row(id, places.getName(id), parent == PlaceGazetteer.NONE ? null : parent, places.getFullName(id));
+            }
+        }
+    }
+}
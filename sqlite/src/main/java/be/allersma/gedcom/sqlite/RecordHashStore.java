@@ -0,0 +1,138 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.RecordHashes;
+import be.allersma.gedcom.migrator.RecordType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores the {@link RecordHashes} of the last migrated file, so the next run only has to migrate the records
+ * that have changed since.
+ */
+public class RecordHashStore {
+    public static final String TABLE = "record_hashes";
+
+    public static void createTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE
+                    + " (type TEXT NOT NULL, xref TEXT NOT NULL, hash INTEGER NOT NULL, PRIMARY KEY (type, xref))");
+        }
+    }
+
+    public static RecordHashes load(Connection connection) throws SQLException {
+        createTable(connection);
+        RecordHashes hashes = new RecordHashes();
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT type, xref, hash FROM " + TABLE)) {
+            while (result.next()) {
+                hashes.put(RecordType.valueOf(result.getString(1)), result.getString(2), result.getLong(3));
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Removes all stored hashes, before a migration that rewrites the tables, so the hashes of a migration that
+     * didn't finish don't tell that its tables are up to date.
+     */
+    public static void clear(Connection connection) throws SQLException {
+        createTable(connection);
+        inTransaction(connection, () -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM " + TABLE);
+            }
+        });
+    }
+
+    /**
+     * Replaces all stored hashes, after a full migration.
+     */
+    public static void replace(Connection connection, RecordHashes hashes) throws SQLException {
+        createTable(connection);
+        inTransaction(connection, () -> {
+            try (Statement statement = connection.createStatement();
+                 PreparedStatement insert = prepareInsert(connection)) {
+                statement.executeUpdate("DELETE FROM " + TABLE);
+                for (RecordType type : RecordType.values()) {
+                    SQLException[] failure = new SQLException[1];
+                    hashes.forEach(type, (xref, hash) -> {
+                        if (failure[0] != null) {
+                            return;
+                        }
+                        try {
+                            addRow(insert, type, xref, hash);
+                        } catch (SQLException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) {
+                        throw failure[0];
+                    }
+                }
+                insert.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Only stores the hashes of the records in the delta, after an incremental migration.
+     */
+    public static void update(Connection connection, RecordHashes hashes, RecordHashes.Delta delta) throws SQLException {
+        createTable(connection);
+        inTransaction(connection, () -> {
+            try (PreparedStatement insert = prepareInsert(connection);
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE type = ? AND xref = ?")) {
+                for (RecordType type : RecordType.values()) {
+                    for (Set<String> xrefs : List.of(delta.getAdded(type), delta.getChanged(type))) {
+                        for (String xref : xrefs) {
+                            addRow(insert, type, xref, hashes.getHash(type, xref).orElseThrow());
+                        }
+                    }
+                    for (String xref : delta.getDeleted(type)) {
+                        delete.setString(1, type.name());
+                        delete.setString(2, xref);
+                        delete.addBatch();
+                    }
+                }
+                insert.executeBatch();
+                delete.executeBatch();
+            }
+        });
+    }
+
+    private static PreparedStatement prepareInsert(Connection connection) throws SQLException {
+        return connection.prepareStatement("INSERT OR REPLACE INTO " + TABLE + " (type, xref, hash) VALUES (?, ?, ?)");
+    }
+
+    private static void addRow(PreparedStatement insert, RecordType type, String xref, long hash) throws SQLException {
+        insert.setString(1, type.name());
+        insert.setString(2, xref);
+        insert.setLong(3, hash);
+        insert.addBatch();
+    }
+
+    private static void inTransaction(Connection connection, Work work) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            work.run();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Work {
+        void run() throws SQLException;
+    }
+}
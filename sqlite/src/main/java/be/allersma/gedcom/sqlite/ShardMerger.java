@@ -0,0 +1,207 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sqlite.Function;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the shards of a {@link BatchMigration} into one database. Every shard numbers its people and families
+ * from 1, so the ids of a shard are moved up by the highest ids of the shards before it: the people of the
+ * second shard come after those of the first one, and so on. Places with the same full name are the same place
+ * in every shard, so they are merged with a {@link PlaceGazetteer}.
+ * <p>
+ * Next to <code>marriages</code> and <code>places</code>, the database gets <code>shards</code>, with the path
+ * of every shard and how far its ids have been moved up, and <code>shard_xrefs</code>, with the xrefs of every
+ * shard and their ids in the database. The shards are attached one at a time and copied with
+ * <code>INSERT ... SELECT</code>, so their rows don't pass through Java. The database is replaced on every merge.
+ */
+public final class ShardMerger {
+    private static final Logger logger = LogManager.getLogger(ShardMerger.class);
+
+    public static final TableSchema SHARDS = TableSchema.of("shards")
+            .column("id", "INTEGER PRIMARY KEY")
+            .column("path", "TEXT NOT NULL")
+            .column("indi_offset", "INTEGER NOT NULL")
+            .column("fam_offset", "INTEGER NOT NULL");
+    public static final TableSchema SHARD_XREFS = TableSchema.of("shard_xrefs")
+            .column("shard", "INTEGER NOT NULL")
+            .column("type", "TEXT NOT NULL")
+            .column("xref", "TEXT NOT NULL")
+            .column("id", "INTEGER NOT NULL")
+            .index("shard", "type", "xref")
+            .index("type", "id");
+    private static final String MARRIAGES = "marriages";
+
+    private ShardMerger() {
+    }
+
+    /**
+     * @param shards The shards, in the order in which they get their ids
+     * @return The amount of marriages in the database
+     */
+    public static long merge(List<Path> shards, String database) throws SQLException {
+        long rows = 0;
+        try (BulkLoader loader = BulkLoader.open(database, BulkLoader.Settings.fromSystemProperties())) {
+            Connection connection = loader.getConnection();
+            Function.create(connection, "offset_ids", new OffsetIds());
+            for (TableSchema table : List.of(Marriage.schema(MARRIAGES), PlaceStore.SCHEMA, SHARDS, SHARD_XREFS)) {
+                loader.execute(table.toDropSql());
+                loader.execute(table.toCreateSql());
+                table.toIndexSql().forEach(loader::deferIndex);
+            }
+            loader.execute("CREATE TEMP TABLE place_map (shard_place INTEGER PRIMARY KEY, place INTEGER NOT NULL)");
+            loader.flush();
+
+            PlaceGazetteer places = new PlaceGazetteer();
+            Map<RecordType, Integer> offsets = new EnumMap<>(RecordType.class);
+            for (RecordType type : RecordType.values()) {
+                offsets.put(type, 0);
+            }
+            for (int i = 0; i < shards.size(); i++) {
+                attach(connection, shards.get(i));
+                try {
+                    rows += copy(connection, i + 1, shards.get(i), offsets, places);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw new SQLException("Unable to merge shard " + shards.get(i) + ": " + e.getMessage(), e);
+                } finally {
+                    detach(connection);
+                }
+            }
+
+            PlaceStore.insert(connection, places, 1);
+        }
+        logger.debug("Merged {} marriages of {} shards", rows, shards.size());
+        return rows;
+    }
+
+    /**
+     * Copies the rows of one shard, and moves the offsets up by its highest ids.
+     * @return The amount of marriages that have been copied
+     */
+    private static long copy(Connection connection, int shard, Path path, Map<RecordType, Integer> offsets,
+                             PlaceGazetteer places) throws SQLException {
+        Map<RecordType, Integer> maxIds = new EnumMap<>(RecordType.class);
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet result = statement.executeQuery("SELECT type, max(id) FROM shard.xrefs GROUP BY type")) {
+                while (result.next()) {
+                    maxIds.put(RecordType.valueOf(result.getString(1)), result.getInt(2));
+                }
+            }
+
+            statement.executeUpdate("DELETE FROM temp.place_map");
+            try (ResultSet result = statement.executeQuery("SELECT id, full_name FROM shard.places");
+                 PreparedStatement insert = connection.prepareStatement(
+                         "INSERT INTO temp.place_map (shard_place, place) VALUES (?, ?)")) {
+                while (result.next()) {
+                    insert.setInt(1, result.getInt(1));
+                    insert.setInt(2, places.getId(result.getString(2)));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        int indiOffset = offsets.get(RecordType.INDI);
+        int famOffset = offsets.get(RecordType.FAM);
+        long rows;
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO main." + MARRIAGES
+                + " (family, partner1, partner2, children, date, date_lower, date_upper, date_precision,"
+                + " date_modifier, place, address, notes)"
+                + " SELECT m.family + ?,"
+                + " CASE WHEN m.partner1 < 0 THEN m.partner1 ELSE m.partner1 + ? END,"
+                + " CASE WHEN m.partner2 < 0 THEN m.partner2 ELSE m.partner2 + ? END,"
+                + " offset_ids(m.children, ?), m.date, m.date_lower, m.date_upper, m.date_precision,"
+                + " m.date_modifier, p.place, m.address, m.notes"
+                + " FROM shard." + MARRIAGES + " m LEFT JOIN temp.place_map p ON p.shard_place = m.place")) {
+            insert.setInt(1, famOffset);
+            insert.setInt(2, indiOffset);
+            insert.setInt(3, indiOffset);
+            insert.setInt(4, indiOffset);
+            rows = insert.executeUpdate();
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO main." + SHARD_XREFS.getName()
+                + " (shard, type, xref, id) SELECT ?, type, xref, id + ? FROM shard.xrefs WHERE type = ?")) {
+            for (RecordType type : maxIds.keySet()) {
+                insert.setInt(1, shard);
+                insert.setInt(2, offsets.get(type));
+                insert.setString(3, type.name());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO main." + SHARDS.getName()
+                + " (id, path, indi_offset, fam_offset) VALUES (?, ?, ?, ?)")) {
+            insert.setInt(1, shard);
+            insert.setString(2, path.toString());
+            insert.setInt(3, indiOffset);
+            insert.setInt(4, famOffset);
+            insert.executeUpdate();
+        }
+
+        maxIds.forEach((type, maxId) -> offsets.merge(type, maxId, Integer::sum));
+        return rows;
+    }
+
+    /**
+     * Attaches a shard as <code>shard</code>. A database can't be attached inside a transaction, so the
+     * connection is in auto-commit mode for a moment.
+     */
+    private static void attach(Connection connection, Path shard) throws SQLException {
+        connection.setAutoCommit(true);
+        try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS shard")) {
+            attach.setString(1, shard.toString());
+            attach.executeUpdate();
+        } finally {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    private static void detach(Connection connection) throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DETACH DATABASE shard");
+        } finally {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * <code>offset_ids(ids, offset)</code> adds the offset to every id in a list of ids separated by spaces, like
+     * the children of a marriage.
+     */
+    private static final class OffsetIds extends Function {
+        @Override
+        protected void xFunc() throws SQLException {
+            String ids = value_text(0);
+            if (ids == null || ids.isEmpty()) {
+                result(ids);
+                return;
+            }
+            int offset = value_int(1);
+            StringBuilder result = new StringBuilder(ids.length() + 8);
+            for (String id : ids.split(" ")) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append(Integer.parseInt(id) + offset);
+            }
+            result(result.toString());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package be.allersma.gedcom.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes a SQL script that recreates the tables. Everything is in one transaction, rows are grouped into
+ * inserts of {@value ROWS_PER_INSERT} rows, and indexes are created after the rows of their table, so
+ * loading the script is about as quick as it gets with the <code>sqlite3</code> shell.
+ */
+public class SqlDumpOutput implements OutputSink {
+    static final int ROWS_PER_INSERT = 500;
+
+    private final ChannelWriter writer;
+    private TableSchema table;
+    private String insert;
+    private int rowsInInsert = 0;
+
+    public SqlDumpOutput(Path file, boolean gzip) throws IOException {
+        this.writer = ChannelWriter.open(file, gzip);
+        writer.write("BEGIN TRANSACTION;\n");
+    }
+
+    @Override
+    public void begin(TableSchema table) throws IOException {
+        finishTable();
+        this.table = table;
+        this.insert = "INSERT INTO " + table.getName() + " (" + String.join(", ", table.getColumns()) + ") VALUES\n(";
+        writer.write(table.toDropSql());
+        writer.write(";\n");
+        writer.write(table.toCreateSql());
+        writer.write(";\n");
+    }
+
+    @Override
+    public void row(Object... values) throws IOException {
+        if (table == null) {
+            throw new IllegalStateException("No table has been started");
+        }
+
+        if (rowsInInsert == 0) {
+            writer.write(insert);
+        } else {
+            writer.write(",\n(");
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(", ");
+            }
+            writeLiteral(values[i]);
+        }
+        writer.write(')');
+
+        if (++rowsInInsert == ROWS_PER_INSERT) {
+            writer.write(";\n");
+            rowsInInsert = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finishTable();
+            writer.write("COMMIT;\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void finishTable() throws IOException {
+        if (table == null) {
+            return;
+        }
+        if (rowsInInsert > 0) {
+            writer.write(";\n");
+            rowsInInsert = 0;
+        }
+        for (String index : table.toIndexSql()) {
+            writer.write(index);
+            writer.write(";\n");
+        }
+        table = null;
+    }
+
+    /**
+     * Writes the value straight into the buffer, with quotes in text doubled as SQL requires.
+     */
+    private void writeLiteral(Object value) throws IOException {
+        if (value == null) {
+            writer.write("NULL");
+            return;
+        }
+        if (value instanceof Number) {
+            writer.write(value.toString());
+            return;
+        }
+
+        String text = value.toString();
+        writer.write('\'');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\'') {
+                writer.write(text, start, i + 1 - start);
+                start = i;
+            }
+        }
+        writer.write(text, start, text.length() - start);
+        writer.write('\'');
+    }
+}
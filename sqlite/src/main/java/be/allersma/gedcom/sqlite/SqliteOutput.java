@@ -0,0 +1,78 @@
+package be.allersma.gedcom.sqlite;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Writes the tables straight into a SQLite database with a {@link BulkLoader}.
+ */
+public class SqliteOutput implements OutputSink {
+    private final BulkLoader loader;
+    private final boolean append;
+    private BulkLoader.Inserter inserter;
+
+    public SqliteOutput(BulkLoader loader) {
+        this(loader, false);
+    }
+
+    private SqliteOutput(BulkLoader loader, boolean append) {
+        this.loader = loader;
+        this.append = append;
+    }
+
+    /**
+     * @return An output that adds the rows to the tables that are there, instead of replacing them
+     */
+    public static SqliteOutput appending(BulkLoader loader) {
+        return new SqliteOutput(loader, true);
+    }
+
+    /**
+     * For things that are not rows of a table, like the stored xrefs.
+     */
+    public Connection getConnection() {
+        return loader.getConnection();
+    }
+
+    @Override
+    public void begin(TableSchema table) throws IOException {
+        try {
+            if (!append) {
+                loader.execute(table.toDropSql());
+                loader.execute(table.toCreateSql());
+                table.toIndexSql().forEach(loader::deferIndex);
+            }
+            inserter = loader.prepare(table.toInsertSql());
+        } catch (SQLException e) {
+            throw new IOException("Unable to create table " + table.getName(), e);
+        }
+    }
+
+    @Override
+    public void row(Object... values) throws IOException {
+        if (inserter == null) {
+            throw new IllegalStateException("No table has been started");
+        }
+
+        try {
+            PreparedStatement statement = inserter.getStatement();
+            for (int i = 0; i < values.length; i++) {
+                statement.setObject(i + 1, values[i]);
+            }
+            inserter.addRow();
+        } catch (SQLException e) {
+            throw new IOException("Unable to insert row", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            loader.close();
+        } catch (SQLException e) {
+            throw new IOException("Unable to finish database", e);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.GedcomStreamReader;
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordHashes;
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folg.gedcom.model.EventFact;
+import org.folg.gedcom.model.Family;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * Migrates the marriages of one file into one database while reading the file one record at a time, so only one
+ * record is parsed at a time. What is kept in memory does grow with the amount of records, though: the
+ * {@link XrefRegistry}, and the {@link RecordHashes} of the file and of the last run, which is a few hundred bytes
+ * per person and family.
+ * <p>
+ * Only the families that have been added or changed since the last run are parsed and migrated, and the
+ * marriages of deleted families are removed, unless the migration is {@link StreamingMigration#full(boolean)}.
+ * The stored hashes tell which records the tables are up to date with, and only <code>marriages</code> is kept up
+ * to date, so a database with the {@link TreeTables} is refused.
+ * <p>
+ * Every transaction of the {@link BulkLoader} stores a {@link Checkpoint}, along with the xrefs and places
+ * that are new. When a run is killed, the next run with the same file skips the families up to the
+ * checkpoint without parsing them, unless it is {@link StreamingMigration#restart(boolean)}ed.
+ */
+public class StreamingMigration {
+    private static final Logger logger = LogManager.getLogger(StreamingMigration.class);
+    private static final String TABLE = "marriages";
+
+    private final URL source;
+    private final String database;
+    private BulkLoader.Settings settings = BulkLoader.Settings.defaults();
+    private boolean full = false;
+    private boolean restart = false;
+    private long handled = 0;
+    private long written = 0;
+    private RecordHashes.Delta delta = null;
+
+    public StreamingMigration(URL source, String database) {
+        this.source = source;
+        this.database = database;
+    }
+
+    public StreamingMigration settings(BulkLoader.Settings settings) {
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * @param full Whether to migrate all families, instead of those that have changed since the last run
+     */
+    public StreamingMigration full(boolean full) {
+        this.full = full;
+        return this;
+    }
+
+    /**
+     * @param restart Whether to migrate everything again when the last run didn't finish, instead of resuming it
+     */
+    public StreamingMigration restart(boolean restart) {
+        this.restart = restart;
+        return this;
+    }
+
+    /**
+     * @throws SQLException If a row can't be written
+     * @throws IllegalStateException If the file has changed since the checkpoint of the run that is resumed, or if
+     * the database holds the {@link TreeTables}
+     */
+    public void run() throws IOException, SQLException, SAXParseException {
+        handled = 0;
+        written = 0;
+        delta = null;
+        XrefRegistry registry = new XrefRegistry();
+        PlaceGazetteer places = new PlaceGazetteer();
+        RecordHashes hashes = new RecordHashes();
+
+        try (BulkLoader loader = BulkLoader.open(database, settings)) {
+            Connection connection = loader.getConnection();
+            if (TreeTables.exist(connection)) {
+                throw new IllegalStateException("'" + database + "' holds the tree tables, which a streaming migration"
+                        + " doesn't update. Migrate it without streaming.");
+            }
+            XrefStore.load(connection, registry);
+            PlaceStore.load(connection, places);
+
+            String fingerprint = Checkpoint.fingerprint(source);
+            Checkpoint checkpoint = new Checkpoint(fingerprint, full);
+            Optional<Checkpoint> stored = Checkpoint.load(connection);
+            boolean resumed = false;
+            if (stored.isPresent()) {
+                if (!restart && stored.get().getSource().equals(fingerprint)) {
+                    checkpoint = stored.get();
+                    resumed = true;
+                    logger.info("Resuming '{}' after {} families, the last one being {}", database,
+                            checkpoint.getRecords(RecordType.FAM), checkpoint.getXref(RecordType.FAM));
+                } else {
+                    // The rows of the unfinished run don't match the stored hashes anymore
+                    logger.warn("The last run of '{}' didn't finish, so everything is migrated again", database);
+                    checkpoint = new Checkpoint(fingerprint, true);
+                }
+            }
+            if (!resumed && !checkpoint.isFull() && !Marriage.hasAllColumns(connection, TABLE)) {
+                logger.warn("'{}' has the marriages of an older version, so everything is migrated again", database);
+                checkpoint = new Checkpoint(fingerprint, true);
+            }
+            if (!resumed) {
+                checkpoint.complete(RecordType.INDI, 0, null);
+                checkpoint.complete(RecordType.FAM, 0, null);
+            }
+
+            RecordHashes previous = checkpoint.isFull() ? new RecordHashes() : RecordHashStore.load(connection);
+            if (!resumed && previous.size(RecordType.FAM) == 0) {
+                Marriage.createTable(loader, TABLE);
+            } else {
+                // A run that was killed before it got to the indexes may have left the table without them
+                Marriage.deferIndexes(loader, TABLE);
+            }
+            BulkLoader.Inserter inserter = Marriage.prepareInsert(loader, TABLE);
+
+            Checkpoint progress = checkpoint;
+            long resumeAfter = checkpoint.getRecords(RecordType.FAM);
+            int[] savedIds = new int[RecordType.values().length];
+            for (RecordType type : RecordType.values()) {
+                savedIds[type.ordinal()] = registry.getMaxId(type);
+            }
+            int[] savedPlaces = {places.getMaxId()};
+            boolean[] finished = new boolean[1];
+            loader.beforeCommit(transaction -> {
+                // Closing the loader commits once more, after the checkpoint has been cleared
+                if (finished[0]) {
+                    return;
+                }
+                for (RecordType type : RecordType.values()) {
+                    XrefStore.insert(transaction, registry, type, savedIds[type.ordinal()] + 1);
+                    savedIds[type.ordinal()] = registry.getMaxId(type);
+                }
+                PlaceStore.insert(transaction, places, savedPlaces[0] + 1);
+                savedPlaces[0] = places.getMaxId();
+                progress.save(transaction);
+            });
+
+            long[] seen = new long[RecordType.values().length];
+            // Whether the family that is being read has to be migrated, and whether the killed run did some of it
+            boolean[] dirty = new boolean[1];
+            boolean[] partial = new boolean[1];
+            boolean resuming = resumed;
+            GedcomStreamReader reader = new GedcomStreamReader()
+                    .onText(RecordType.INDI, (xref, text) -> {
+                        registry.register(RecordType.INDI, xref);
+                        hashes.put(RecordType.INDI, xref, RecordHashes.hash(text));
+                        progress.complete(RecordType.INDI, ++seen[RecordType.INDI.ordinal()], xref);
+                    })
+                    .onText(RecordType.FAM, (xref, text) -> {
+                        registry.register(RecordType.FAM, xref);
+                        long hash = RecordHashes.hash(text);
+                        hashes.put(RecordType.FAM, xref, hash);
+                        long position = ++seen[RecordType.FAM.ordinal()];
+                        dirty[0] = false;
+                        if (position < resumeAfter) {
+                            return;
+                        } else if (position == resumeAfter) {
+                            if (!xref.equals(progress.getXref(RecordType.FAM))) {
+                                throw new IllegalStateException("Family " + position + " is " + xref + " instead of "
+                                        + progress.getXref(RecordType.FAM) + ", so the file has changed since the "
+                                        + "checkpoint. Set gedcom.restart to migrate everything again.");
+                            }
+                            return;
+                        }
+                        if (previous.getHash(RecordType.FAM, xref).orElse(~hash) != hash) {
+                            dirty[0] = true;
+                            // Its transaction may have been committed halfway before the last run was killed
+                            partial[0] = resuming && position == resumeAfter + 1;
+                        } else {
+                            progress.complete(RecordType.FAM, position, xref);
+                        }
+                    })
+                    // The filter is called right after the text handlers of the same family
+                    .on(Family.class, xref -> dirty[0], family -> {
+                        try {
+                            if (partial[0] || previous.contains(RecordType.FAM, family.getId())) {
+                                Marriage.deleteFamily(connection, TABLE, registry.getId(RecordType.FAM, family.getId()));
+                            }
+                            for (EventFact fact : family.getEventsFacts()) {
+                                Optional<Marriage> marriage = Marriage.generateMarriage(registry, places, family, fact);
+                                if (marriage.isPresent()) {
+                                    marriage.get().insert(inserter);
+                                    written++;
+                                }
+                            }
+                            progress.complete(RecordType.FAM, seen[RecordType.FAM.ordinal()], family.getId());
+                        } catch (SQLException e) {
+                            throw new RowException(e);
+                        }
+                    });
+            try {
+                handled = read(reader, source);
+            } catch (RowException e) {
+                throw e.getCause();
+            }
+
+            delta = hashes.compareTo(previous);
+            for (String xref : delta.getDeleted(RecordType.FAM)) {
+                Marriage.deleteFamily(connection, TABLE, registry.getId(RecordType.FAM, xref));
+            }
+            loader.flush();
+            XrefStore.save(connection, registry);
+            PlaceStore.save(connection, places);
+            RecordHashStore.update(connection, hashes, delta);
+            finished[0] = true;
+            // The checkpoint is only cleared once the indexes are there, in the same transaction
+            loader.createIndexes();
+            Checkpoint.clear(connection);
+        }
+    }
+
+    /**
+     * Hashes the records of the given types the same way as a streaming migration, so the hashes of another kind
+     * of run can be compared with those of a streaming run.
+     */
+    public static RecordHashes hash(URL source, RecordType... types) throws IOException, SAXParseException {
+        if ("file".equals(source.getProtocol())) {
+            return RecordHashes.read(toPath(source), types);
+        }
+        try (Reader input = new InputStreamReader(source.openStream(), StandardCharsets.UTF_8)) {
+            return RecordHashes.read(input, types);
+        }
+    }
+
+    /**
+     * A file is memory-mapped and read in the encoding of its header, anything else is read as UTF-8.
+     */
+    private static long read(GedcomStreamReader reader, URL source) throws IOException, SAXParseException {
+        if ("file".equals(source.getProtocol())) {
+            return reader.read(toPath(source));
+        }
+        try (Reader input = new InputStreamReader(source.openStream(), StandardCharsets.UTF_8)) {
+            return reader.read(input);
+        }
+    }
+
+    private static Path toPath(URL file) throws IOException {
+        try {
+            return Paths.get(file.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid path " + file, e);
+        }
+    }
+
+    /**
+     * Carries a {@link SQLException} out of the handlers of the {@link GedcomStreamReader}, which can't throw it.
+     */
+    private static final class RowException extends RuntimeException {
+        RowException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+
+    /**
+     * @return The amount of records that have been read by the last run
+     */
+    public long getHandled() {
+        return handled;
+    }
+
+    /**
+     * @return The amount of marriages that have been written by the last run
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return What has changed in the file since the run before the last one, or null if it didn't finish
+     */
+    public RecordHashes.Delta getDelta() {
+        return delta;
+    }
+}
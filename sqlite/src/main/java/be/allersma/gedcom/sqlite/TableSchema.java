@@ -0,0 +1,109 @@
+package be.allersma.gedcom.sqlite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The name, columns and indexes of a table, so every {@link OutputSink} can create it in its own way.
+ * Schemas are immutable, every method that changes something returns a new instance.
+ */
+public final class TableSchema {
+    private final String name;
+    private final List<String> columns;
+    private final List<String> types;
+    private final List<String> indexes;
+
+    private TableSchema(String name, List<String> columns, List<String> types, List<String> indexes) {
+        this.name = name;
+        this.columns = Collections.unmodifiableList(columns);
+        this.types = Collections.unmodifiableList(types);
+        this.indexes = Collections.unmodifiableList(indexes);
+    }
+
+    public static TableSchema of(String name) {
+        return new TableSchema(name, List.of(), List.of(), List.of());
+    }
+
+    public TableSchema column(String column, String type) {
+        return new TableSchema(name, appended(columns, column), appended(types, type), indexes);
+    }
+
+    /**
+     * Adds an index, which is created after the rows have been written. An index on more than one column
+     * can answer queries that only need those columns without reading the table, like an index on
+     * <code>(child, family)</code> for the families a person is a child of.
+     * @param columns The columns of the index, in order
+     */
+    public TableSchema index(String... columns) {
+        return new TableSchema(name, this.columns, types, appended(indexes, String.join(", ", columns)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<String> getTypes() {
+        return types;
+    }
+
+    /**
+     * @return The columns of every index, separated by commas
+     */
+    public List<String> getIndexes() {
+        return indexes;
+    }
+
+    public String toCreateSql() {
+        return toCreateSql(false);
+    }
+
+    /**
+     * @param ifNotExists Whether to leave the table as it is when it already exists, instead of failing
+     */
+    public String toCreateSql(boolean ifNotExists) {
+        List<String> definitions = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            definitions.add(columns.get(i) + " " + types.get(i));
+        }
+        String create = ifNotExists ? "CREATE TABLE IF NOT EXISTS " : "CREATE TABLE ";
+        return create + name + " (" + String.join(", ", definitions) + ")";
+    }
+
+    public String toDropSql() {
+        return "DROP TABLE IF EXISTS " + name;
+    }
+
+    public List<String> toIndexSql() {
+        return toIndexSql(false);
+    }
+
+    /**
+     * @param ifNotExists Whether to leave indexes that already exist as they are, instead of failing
+     */
+    public List<String> toIndexSql(boolean ifNotExists) {
+        String create = ifNotExists ? "CREATE INDEX IF NOT EXISTS " : "CREATE INDEX ";
+        return indexes.stream()
+                .map(columns -> create + name + "_" + columns.replace(", ", "_") + " ON " + name + " (" + columns + ")")
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return An insert statement with a parameter for every column
+     */
+    public String toInsertSql() {
+        return "INSERT INTO " + name + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+    }
+
+    private static List<String> appended(List<String> list, String value) {
+        List<String> result = new ArrayList<>(list);
+        result.add(value);
+        return result;
+    }
+}
@@ -0,0 +1,539 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.GedcomDate;
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordHashes;
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import be.allersma.gedcom.migrator.utils.FormattedNameUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folg.gedcom.model.ChildRef;
+import org.folg.gedcom.model.EventFact;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Name;
+import org.folg.gedcom.model.Note;
+import org.folg.gedcom.model.NoteRef;
+import org.folg.gedcom.model.Person;
+import org.folg.gedcom.model.Source;
+import org.folg.gedcom.model.SourceCitation;
+import org.folg.gedcom.model.SourceCitationContainer;
+import org.folg.gedcom.model.SpouseRef;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The whole tree in normalized tables: people, their names, families, events, places, notes and sources.
+ * Every record gets the id of the {@link XrefRegistry}, and links between records are integer columns,
+ * so questions like "the children of X" are joins over indexes:
+ * <pre>
+ * SELECT c.child FROM family_partners p JOIN family_children c ON c.family = p.family WHERE p.person = ?
+ * </pre>
+ * Events, and notes that are not a record of their own, are numbered in the order they appear in the file.
+ * <p>
+ * The tables are written one after the other, every table with its own pass over the Gedcom, so nothing is
+ * kept in memory apart from the places in the {@link PlaceGazetteer}. When only people and families have changed
+ * since, {@link TreeTables#update(SqliteOutput, RecordHashes.Delta)} only writes those again.
+ */
+public class TreeTables {
+    private static final Logger logger = LogManager.getLogger(TreeTables.class);
+
+    public static final TableSchema PERSONS = TableSchema.of("persons")
+            .column("id", "INTEGER PRIMARY KEY")
+            .column("xref", "TEXT NOT NULL")
+            .column("sex", "TEXT");
+    public static final TableSchema NAMES = TableSchema.of("names")
+            .column("person", "INTEGER NOT NULL")
+            .column("position", "INTEGER NOT NULL")
+            .column("value", "TEXT")
+            .column("given", "TEXT")
+            .column("surname", "TEXT")
+            .column("prefix", "TEXT")
+            .column("suffix", "TEXT")
+            .column("nickname", "TEXT")
+            .column("type", "TEXT")
+            .index("person")
+            .index("surname", "given", "person");
+    public static final TableSchema FAMILIES = TableSchema.of("families")
+            .column("id", "INTEGER PRIMARY KEY")
+            .column("xref", "TEXT NOT NULL");
+    public static final TableSchema FAMILY_PARTNERS = TableSchema.of("family_partners")
+            .column("family", "INTEGER NOT NULL")
+            .column("person", "INTEGER NOT NULL")
+            .column("role", "TEXT NOT NULL")
+            .index("family", "person")
+            .index("person", "family");
+    public static final TableSchema FAMILY_CHILDREN = TableSchema.of("family_children")
+            .column("family", "INTEGER NOT NULL")
+            .column("child", "INTEGER NOT NULL")
+            .column("position", "INTEGER NOT NULL")
+            .index("family", "child")
+            .index("child", "family");
+    public static final TableSchema EVENTS = DateColumns.addTo(TableSchema.of("events")
+                    .column("id", "INTEGER PRIMARY KEY")
+                    .column("person", "INTEGER")
+                    .column("family", "INTEGER")
+                    .column("tag", "TEXT NOT NULL")
+                    .column("type", "TEXT")
+                    .column("value", "TEXT")
+                    .column("date", "TEXT"))
+            .column("place", "INTEGER")
+            .column("cause", "TEXT")
+            .index("person", "tag")
+            .index("family", "tag")
+            .index("tag")
+            .index("place");
+    public static final TableSchema PLACES = PlaceStore.SCHEMA;
+    public static final TableSchema NOTES = TableSchema.of("notes")
+            .column("id", "INTEGER PRIMARY KEY")
+            .column("xref", "TEXT")
+            .column("text", "TEXT");
+    public static final TableSchema NOTE_LINKS = TableSchema.of("note_links")
+            .column("note", "INTEGER NOT NULL")
+            .column("person", "INTEGER")
+            .column("family", "INTEGER")
+            .column("event", "INTEGER")
+            .index("note")
+            .index("person", "note")
+            .index("family", "note")
+            .index("event", "note");
+    public static final TableSchema SOURCES = TableSchema.of("sources")
+            .column("id", "INTEGER PRIMARY KEY")
+            .column("xref", "TEXT NOT NULL")
+            .column("title", "TEXT")
+            .column("author", "TEXT")
+            .column("publication", "TEXT")
+            .column("text", "TEXT");
+    public static final TableSchema CITATIONS = TableSchema.of("citations")
+            .column("source", "INTEGER")
+            .column("person", "INTEGER")
+            .column("family", "INTEGER")
+            .column("event", "INTEGER")
+            .column("page", "TEXT")
+            .column("quality", "TEXT")
+            .column("text", "TEXT")
+            .index("source")
+            .index("person", "source")
+            .index("family", "source")
+            .index("event", "source");
+
+    private final Gedcom gedcom;
+    private final XrefRegistry registry;
+    private final PlaceGazetteer places;
+
+    /**
+     * @param registry A registry in which all records of the Gedcom have been registered
+     * @param places The places that are already known, like those of the marriages. Places of the events are
+     *               added to it.
+     */
+    public TreeTables(Gedcom gedcom, XrefRegistry registry, PlaceGazetteer places) {
+        this.gedcom = gedcom;
+        this.registry = registry;
+        this.places = places;
+    }
+
+    /**
+     * @return The types of the records the tables are made of
+     */
+    public static RecordType[] recordTypes() {
+        return new RecordType[]{RecordType.INDI, RecordType.FAM, RecordType.NOTE, RecordType.SOUR};
+    }
+
+    /**
+     * @return Whether the database holds the tables, or some of them when they have not all been written
+     */
+    public static boolean exist(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, PERSONS.getName());
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
+            }
+        }
+    }
+
+    public static List<TableSchema> schemas() {
+        return List.of(PERSONS, NAMES, FAMILIES, FAMILY_PARTNERS, FAMILY_CHILDREN, EVENTS, PLACES, NOTES,
+                NOTE_LINKS, SOURCES, CITATIONS);
+    }
+
+    /**
+     * Writes all tables of {@link TreeTables#schemas()}.
+     */
+    public void write(OutputSink sink) throws IOException {
+        Owners owners = new Owners(gedcom.getPeople(), gedcom.getFamilies(), 1, registry.getMaxId(RecordType.NOTE) + 1);
+        sink.begin(PERSONS);
+        writePersons(sink, owners.people);
+        sink.begin(NAMES);
+        writeNames(sink, owners.people);
+        writeFamilies(sink, owners.families);
+        sink.begin(EVENTS);
+        writeEvents(sink, owners);
+        writePlaces(sink);
+        sink.begin(NOTES);
+        for (Note note : gedcom.getNotes()) {
+            sink.row(registry.getId(RecordType.NOTE, note.getId()), note.getId(), note.getValue());
+        }
+        writeNotes(sink, owners);
+        writeSources(sink);
+        writeCitations(sink, owners);
+    }
+
+    /**
+     * @return Whether {@link TreeTables#update(SqliteOutput, RecordHashes.Delta)} can apply the changes, which is
+     * when only people and families have changed
+     */
+    public static boolean canUpdate(RecordHashes.Delta delta) {
+        for (RecordType type : recordTypes()) {
+            if (type != RecordType.INDI && type != RecordType.FAM && !touched(delta, type).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the changes to the people and families since the tables were written, in tables that are left as
+     * they are otherwise. The rows of the people and families that have been added, changed or deleted are
+     * removed, along with the notes that are part of them, and the ones that are in the Gedcom are written again.
+     * Their events and notes are numbered after the ones that were in the tables, so the ids differ from those of
+     * {@link TreeTables#write(OutputSink)}. Places that are new are added.
+     * <p>
+     * Removing the rows of added records too means a run that didn't get to store its hashes can be repeated.
+     *
+     * @param sink An output that adds rows to the tables, see {@link SqliteOutput#appending(BulkLoader)}
+     * @throws IllegalArgumentException If other records have changed as well, see
+     * {@link TreeTables#canUpdate(RecordHashes.Delta)}
+     */
+    public void update(SqliteOutput sink, RecordHashes.Delta delta) throws IOException, SQLException {
+        if (!canUpdate(delta)) {
+            throw new IllegalArgumentException("Only changes to people and families can be applied to the tables");
+        }
+
+        Connection connection = sink.getConnection();
+        Set<String> people = touched(delta, RecordType.INDI);
+        Set<String> families = touched(delta, RecordType.FAM);
+        int firstEvent = maxId(connection, EVENTS) + 1;
+        int firstNote = Math.max(maxId(connection, NOTES), registry.getMaxId(RecordType.NOTE)) + 1;
+        int firstPlace = maxId(connection, PLACES) + 1;
+        delete(connection, PERSONS, "person", List.of(NOTE_LINKS, CITATIONS, EVENTS, NAMES),
+                ids(RecordType.INDI, people));
+        delete(connection, FAMILIES, "family", List.of(NOTE_LINKS, CITATIONS, EVENTS, FAMILY_PARTNERS, FAMILY_CHILDREN),
+                ids(RecordType.FAM, families));
+
+        Owners owners = new Owners(
+                gedcom.getPeople().stream()
+                        .filter(person -> people.contains(person.getId()))
+                        .collect(Collectors.toList()),
+                gedcom.getFamilies().stream()
+                        .filter(family -> families.contains(family.getId()))
+                        .collect(Collectors.toList()),
+                firstEvent, firstNote);
+        sink.begin(PERSONS);
+        writePersons(sink, owners.people);
+        sink.begin(NAMES);
+        writeNames(sink, owners.people);
+        writeFamilies(sink, owners.families);
+        sink.begin(EVENTS);
+        writeEvents(sink, owners);
+        PlaceStore.insert(connection, places, firstPlace);
+        sink.begin(NOTES);
+        writeNotes(sink, owners);
+        writeCitations(sink, owners);
+    }
+
+    /**
+     * @return The xrefs of the records of the type that have been added, changed or deleted
+     */
+    private static Set<String> touched(RecordHashes.Delta delta, RecordType type) {
+        Set<String> result = new HashSet<>(delta.getAdded(type));
+        result.addAll(delta.getChanged(type));
+        result.addAll(delta.getDeleted(type));
+        return result;
+    }
+
+    private List<Integer> ids(RecordType type, Set<String> xrefs) {
+        List<Integer> result = new ArrayList<>();
+        for (String xref : xrefs) {
+            int id = registry.getId(type, xref);
+            if (id != XrefRegistry.NONE) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes people or families, and the rows of the tables that belong to them by the given column. Notes that
+     * are part of them go first, while their links are still there.
+     */
+    private static void delete(Connection connection, TableSchema records, String column, List<TableSchema> tables,
+                               List<Integer> ids) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        statements.add("DELETE FROM " + NOTES.getName() + " WHERE xref IS NULL AND id IN (SELECT note FROM "
+                + NOTE_LINKS.getName() + " WHERE " + column + " = ?)");
+        for (TableSchema table : tables) {
+            statements.add("DELETE FROM " + table.getName() + " WHERE " + column + " = ?");
+        }
+        statements.add("DELETE FROM " + records.getName() + " WHERE id = ?");
+
+        for (String sql : statements) {
+            try (PreparedStatement delete = connection.prepareStatement(sql)) {
+                for (int id : ids) {
+                    delete.setInt(1, id);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * @return The highest id in the table, or 0 when it is empty
+     */
+    private static int maxId(Connection connection, TableSchema table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT max(id) FROM " + table.getName())) {
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+
+    private void writePersons(OutputSink sink, List<Person> people) throws IOException {
+        for (Person person : people) {
+            String sex = null;
+            for (EventFact fact : person.getEventsFacts()) {
+                if (isSex(fact)) {
+                    sex = fact.getValue();
+                }
+            }
+            sink.row(personId(person.getId()), person.getId(), sex);
+        }
+    }
+
+    /**
+     * Names that only have a value get the parts that {@link FormattedNameUtil} finds in it. The names of the
+     * Gedcom are left as they are, since the hashes and the coverage are taken from the same model.
+     */
+    private void writeNames(OutputSink sink, List<Person> people) throws IOException {
+        for (Person person : people) {
+            int id = personId(person.getId());
+            List<Name> names = person.getNames();
+            for (int i = 0; i < names.size(); i++) {
+                Name name = FormattedNameUtil.parseNameValue(columns(names.get(i)));
+                sink.row(id, i, name.getValue(), name.getGiven(), name.getSurname(), name.getPrefix(), name.getSuffix(),
+                        name.getNickname(), name.getType());
+            }
+        }
+    }
+
+    /**
+     * @return A new name with the parts of the given name that end up in <code>names</code>
+     */
+    private static Name columns(Name name) {
+        Name copy = new Name();
+        copy.setValue(name.getValue());
+        copy.setGiven(name.getGiven());
+        copy.setSurname(name.getSurname());
+        copy.setPrefix(name.getPrefix());
+        copy.setSuffix(name.getSuffix());
+        copy.setNickname(name.getNickname());
+        copy.setType(name.getType());
+        return copy;
+    }
+
+    private void writeFamilies(OutputSink sink, List<Family> families) throws IOException {
+        sink.begin(FAMILIES);
+        for (Family family : families) {
+            sink.row(familyId(family.getId()), family.getId());
+        }
+
+        sink.begin(FAMILY_PARTNERS);
+        for (Family family : families) {
+            int id = familyId(family.getId());
+            writePartners(sink, id, family.getHusbandRefs(), "HUSB");
+            writePartners(sink, id, family.getWifeRefs(), "WIFE");
+        }
+
+        sink.begin(FAMILY_CHILDREN);
+        for (Family family : families) {
+            int id = familyId(family.getId());
+            int position = 0;
+            for (ChildRef child : family.getChildRefs()) {
+                int childId = reference(RecordType.INDI, child.getRef());
+                if (childId != XrefRegistry.NONE) {
+                    sink.row(id, childId, position++);
+                }
+            }
+        }
+    }
+
+    private void writePartners(OutputSink sink, int family, List<SpouseRef> partners, String role) throws IOException {
+        for (SpouseRef partner : partners) {
+            int partnerId = reference(RecordType.INDI, partner.getRef());
+            if (partnerId != XrefRegistry.NONE) {
+                sink.row(family, partnerId, role);
+            }
+        }
+    }
+
+    /**
+     * Places that are new to the gazetteer are numbered while the events are written, in the order they are
+     * first used.
+     */
+    private void writeEvents(OutputSink sink, Owners owners) throws IOException {
+        forEachOwner(owners, (owner, person, family, event) -> {
+            if (event == null) {
+                return;
+            }
+            EventFact fact = (EventFact) owner;
+            Object[] date = DateColumns.values(GedcomDate.parse(fact.getDate()).orElse(null));
+            sink.row(event, person, family, fact.getTag(), fact.getType(), fact.getValue(), fact.getDate(),
+                    date[0], date[1], date[2], date[3], placeId(fact.getPlace()), fact.getCause());
+        });
+    }
+
+    private void writePlaces(OutputSink sink) throws IOException {
+        PlaceStore.write(sink, places);
+    }
+
+    /**
+     * Adds the notes that are part of the owners to the notes table that has been started, and writes the links
+     * of the owners to all their notes.
+     */
+    private void writeNotes(OutputSink sink, Owners owners) throws IOException {
+        int[] next = {owners.firstNote};
+        forEachOwner(owners, (owner, person, family, event) -> {
+            for (Note note : owner.getNotes()) {
+                sink.row(next[0]++, null, note.getValue());
+            }
+        });
+
+        sink.begin(NOTE_LINKS);
+        next[0] = owners.firstNote;
+        forEachOwner(owners, (owner, person, family, event) -> {
+            for (NoteRef ref : owner.getNoteRefs()) {
+                int note = reference(RecordType.NOTE, ref.getRef());
+                if (note != XrefRegistry.NONE) {
+                    sink.row(note, person, family, event);
+                }
+            }
+            for (int i = 0; i < owner.getNotes().size(); i++) {
+                sink.row(next[0]++, person, family, event);
+            }
+        });
+    }
+
+    private void writeSources(OutputSink sink) throws IOException {
+        sink.begin(SOURCES);
+        for (Source source : gedcom.getSources()) {
+            sink.row(registry.getId(RecordType.SOUR, source.getId()), source.getId(), source.getTitle(),
+                    source.getAuthor(), source.getPublicationFacts(), source.getText());
+        }
+    }
+
+    private void writeCitations(OutputSink sink, Owners owners) throws IOException {
+        sink.begin(CITATIONS);
+        forEachOwner(owners, (owner, person, family, event) -> {
+            for (SourceCitation citation : owner.getSourceCitations()) {
+                Integer source = null;
+                if (citation.getRef() != null) {
+                    int id = reference(RecordType.SOUR, citation.getRef());
+                    if (id == XrefRegistry.NONE) {
+                        continue;
+                    }
+                    source = id;
+                }
+                sink.row(source, person, family, event, citation.getPage(), citation.getQuality(),
+                        citation.getTextOrValue());
+            }
+        });
+    }
+
+    /**
+     * Visits every person, family and event of the owners, always in the same order, with the ids of the person
+     * or family it belongs to and the id of the event. Ids that don't apply are null.
+     */
+    private void forEachOwner(Owners owners, OwnerVisitor visitor) throws IOException {
+        int event = owners.firstEvent - 1;
+        for (Person person : owners.people) {
+            Integer id = personId(person.getId());
+            visitor.accept(person, id, null, null);
+            for (EventFact fact : person.getEventsFacts()) {
+                if (!isSex(fact)) {
+                    visitor.accept(fact, id, null, ++event);
+                }
+            }
+        }
+        for (Family family : owners.families) {
+            Integer id = familyId(family.getId());
+            visitor.accept(family, null, id, null);
+            for (EventFact fact : family.getEventsFacts()) {
+                visitor.accept(fact, null, id, ++event);
+            }
+        }
+    }
+
+    private Integer placeId(String place) {
+        int id = places.getId(place);
+        return id == PlaceGazetteer.NONE ? null : id;
+    }
+
+    private int personId(String xref) {
+        return registry.getId(RecordType.INDI, xref);
+    }
+
+    private int familyId(String xref) {
+        return registry.getId(RecordType.FAM, xref);
+    }
+
+    /**
+     * @return The id of the record the xref points to, or {@link XrefRegistry#NONE} if it doesn't exist
+     */
+    private int reference(RecordType type, String xref) {
+        int result = registry.getId(type, xref);
+        if (result == XrefRegistry.NONE) {
+            logger.warn("Unknown {} id found: {}", type, xref);
+        }
+        return result;
+    }
+
+    /**
+     * The sex of a person is a fact in the model, but a column of the person here.
+     */
+    private static boolean isSex(EventFact fact) {
+        return "SEX".equals(fact.getTag());
+    }
+
+    /**
+     * People and families, with the ids of their first event and of their first note that is not a record.
+     */
+    private static final class Owners {
+        private final List<Person> people;
+        private final List<Family> families;
+        private final int firstEvent;
+        private final int firstNote;
+
+        private Owners(List<Person> people, List<Family> families, int firstEvent, int firstNote) {
+            this.people = people;
+            this.families = families;
+            this.firstEvent = firstEvent;
+            this.firstNote = firstNote;
+        }
+    }
+
+    @FunctionalInterface
+    private interface OwnerVisitor {
+        void accept(SourceCitationContainer owner, Integer person, Integer family, Integer event) throws IOException;
+    }
+}
@@ -0,0 +1,96 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Stores the ids of an {@link XrefRegistry} in the database, so a rerun gives every record the same id.
+ */
+public class XrefStore {
+    public static final String TABLE = "xrefs";
+
+    public static void createTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE
+                    + " (type TEXT NOT NULL, xref TEXT NOT NULL, id INTEGER NOT NULL, PRIMARY KEY (type, xref))");
+        }
+    }
+
+    /**
+     * Puts all stored ids in the registry. Must be done before registering the records of a new run.
+     */
+    public static void load(Connection connection, XrefRegistry registry) throws SQLException {
+        createTable(connection);
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT type, xref, id FROM " + TABLE + " ORDER BY type, id")) {
+            while (result.next()) {
+                registry.put(RecordType.valueOf(result.getString(1)), result.getString(2), result.getInt(3));
+            }
+        }
+    }
+
+    /**
+     * Stores the ids of a type from the given id on, as part of the transaction that is going on. Ids that have
+     * been stored before are left as they are.
+     */
+    static void insert(Connection connection, XrefRegistry registry, RecordType type, int firstId) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR IGNORE INTO " + TABLE + " (type, xref, id) VALUES (?, ?, ?)")) {
+            int maxId = registry.getMaxId(type);
+            for (int id = Math.max(firstId, 1); id <= maxId; id++) {
+                String xref = registry.getXref(type, id);
+                if (xref != null) {
+                    insert.setString(1, type.name());
+                    insert.setString(2, xref);
+                    insert.setInt(3, id);
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Stores all ids of the registry. Ids that have been stored before are left as they are.
+     */
+    public static void save(Connection connection, XrefRegistry registry) throws SQLException {
+        createTable(connection);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR IGNORE INTO " + TABLE + " (type, xref, id) VALUES (?, ?, ?)")) {
+            for (RecordType type : RecordType.values()) {
+                SQLException[] failure = new SQLException[1];
+                registry.forEach(type, (xref, id) -> {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        insert.setString(1, type.name());
+                        insert.setString(2, xref);
+                        insert.setInt(3, id);
+                        insert.addBatch();
+                    } catch (SQLException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
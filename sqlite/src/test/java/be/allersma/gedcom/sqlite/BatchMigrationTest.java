@@ -0,0 +1,74 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.MigrationMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchMigrationTest {
+    private static final String SMITH = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME John /Smith/\n0 @I2@ INDI\n1 NAME Mary /Jones/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 MARR\n2 DATE 1 MAY 1875\n2 PLAC London\n"
+            + "0 TRLR\n";
+    private static final String FOKKENS = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Fokkens/\n0 @I2@ INDI\n1 NAME Grietje /Smit/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 MARR\n2 DATE 3 JUN 1901\n2 PLAC Delfzijl\n"
+            + "0 TRLR\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void runTest() throws IOException, SQLException {
+        Path files = Files.createDirectory(directory.resolve("files"));
+        write(files.resolve("smith.ged"), SMITH);
+        write(files.resolve("fokkens.ged"), FOKKENS);
+        write(files.resolve("notes.txt"), SMITH);
+        Path shards = directory.resolve("shards");
+
+        BatchMigration batch = new BatchMigration(files, shards).workers(2);
+        List<Path> migrated = batch.run(new MigrationMetrics().timer("file"));
+        assertEquals(List.of(shards.resolve("fokkens.db"), shards.resolve("smith.db")), migrated);
+        assertEquals(0, batch.getFailed());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + migrated.get(1));
+             Statement statement = connection.createStatement()) {
+            assertEquals("1 1 2 1 MAY 1875", TreeTablesTest.rows(statement,
+                    "SELECT family, partner1, partner2, date FROM marriages"));
+        }
+    }
+
+    @Test
+    public void failedTest() throws IOException, SQLException {
+        Path files = Files.createDirectory(directory.resolve("files"));
+        write(files.resolve("smith.ged"), SMITH);
+        write(files.resolve("fokkens.ged"), FOKKENS);
+        Path shards = Files.createDirectory(directory.resolve("shards"));
+        // A shard with the tree tables is refused by a streaming migration
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + shards.resolve("fokkens.db"));
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE persons (id INTEGER PRIMARY KEY)");
+        }
+
+        BatchMigration batch = new BatchMigration(files, shards).workers(1);
+        MigrationMetrics.Timer timer = new MigrationMetrics().timer("file");
+        assertEquals(List.of(shards.resolve("smith.db")), batch.run(timer));
+        assertEquals(1, batch.getFailed());
+        assertEquals(List.of(shards.resolve("smith.db")), batch.run(timer));
+        assertEquals(1, batch.getFailed());
+    }
+
+    private static void write(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,84 @@
+package be.allersma.gedcom.sqlite;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkLoaderTest {
+    private static final String CREATE = "CREATE TABLE rows (id INTEGER PRIMARY KEY, name TEXT)";
+    private static final String INSERT = "INSERT INTO rows (id, name) VALUES (?, ?)";
+    private static final String INDEX = "CREATE INDEX rows_name ON rows (name)";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void batchingTest() throws SQLException {
+        String database = directory.resolve("rows.db").toString();
+        try (BulkLoader loader = BulkLoader.open(database, BulkLoader.Settings.defaults()
+                .batchSize(3)
+                .rowsPerTransaction(5));
+             Connection reader = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = reader.createStatement()) {
+            loader.execute(CREATE);
+            loader.flush();
+            BulkLoader.Inserter inserter = loader.prepare(INSERT);
+            for (int id = 1; id <= 7; id++) {
+                inserter.getStatement().setInt(1, id);
+                inserter.getStatement().setString(2, "row " + id);
+                inserter.addRow();
+                if (id == 4) {
+                    assertEquals("0", value(statement, "SELECT count(*) FROM rows"));
+                }
+            }
+            assertEquals("5", value(statement, "SELECT count(*) FROM rows"));
+
+            loader.flush();
+            assertEquals("7", value(statement, "SELECT count(*) FROM rows"));
+        }
+    }
+
+    @Test
+    public void deferredIndexTest() throws SQLException {
+        String database = directory.resolve("rows.db").toString();
+        String indexes = "SELECT group_concat(name) FROM sqlite_master WHERE type = 'index' AND tbl_name = 'rows'";
+        try (Connection reader = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = reader.createStatement()) {
+            try (BulkLoader loader = BulkLoader.open(database, BulkLoader.Settings.defaults())) {
+                loader.execute(CREATE);
+                loader.deferIndex(INDEX);
+                BulkLoader.Inserter inserter = loader.prepare(INSERT);
+                inserter.getStatement().setInt(1, 1);
+                inserter.getStatement().setString(2, "row 1");
+                inserter.addRow();
+                loader.flush();
+                assertNull(value(statement, indexes));
+            }
+            assertEquals("rows_name", value(statement, indexes));
+            assertEquals("row 1", value(statement, "SELECT name FROM rows WHERE id = 1"));
+        }
+    }
+
+    @Test
+    public void invalidPragmaTest() {
+        assertThrows(IllegalArgumentException.class, () -> BulkLoader.open(directory.resolve("rows.db").toString(),
+                BulkLoader.Settings.defaults().journalMode("WAL; DROP TABLE rows")));
+    }
+
+    /**
+     * @return The first column of the first row
+     */
+    private static String value(Statement statement, String query) throws SQLException {
+        try (ResultSet result = statement.executeQuery(query)) {
+            return result.next() ? result.getString(1) : null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import org.folg.gedcom.model.Family;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MarriageTest {
+    private static final String FAMILIES = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Fokkens/\n0 @I2@ INDI\n1 NAME Grietje /Smit/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 MARR\n2 DATE 1 MAY 1875\n2 PLAC Delfzijl, Groningen\n"
+            + "2 ADDR Raadhuis\n3 ADR1 Markt 1\n"
+            + "0 @F2@ FAM\n1 HUSB @I1@\n1 MARR\n2 ADDR Kerkstraat 3\n"
+            + "0 TRLR\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void placeAndAddressTest() throws IOException, SAXParseException, SQLException {
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(FAMILIES));
+        XrefRegistry registry = new XrefRegistry();
+        PlaceGazetteer places = new PlaceGazetteer();
+        String database = directory.resolve("marriages.db").toString();
+        try (OutputSink sink = OutputSink.open(database)) {
+            sink.begin(Marriage.schema("marriages"));
+            for (Family family : gedcom.getFamilies()) {
+                Marriage marriage = Marriage.generateMarriage(registry, places, family,
+                        family.getEventsFacts().get(0)).orElseThrow();
+                marriage.write(sink);
+            }
+            PlaceStore.write(sink, places);
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("1 Delfzijl, Groningen Raadhuis\nMarkt 1|2 null Kerkstraat 3", TreeTablesTest.rows(statement,
+                    "SELECT m.family, p.full_name, m.address FROM marriages m LEFT JOIN places p ON p.id = m.place"
+                            + " ORDER BY m.family"));
+        }
+    }
+
+    @Test
+    public void hasAllColumnsTest() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("old.db"));
+             Statement statement = connection.createStatement()) {
+            assertTrue(Marriage.hasAllColumns(connection, "marriages"));
+            statement.executeUpdate("CREATE TABLE marriages (family INTEGER, place INTEGER, notes TEXT)");
+            assertFalse(Marriage.hasAllColumns(connection, "marriages"));
+            statement.executeUpdate("DROP TABLE marriages");
+            statement.executeUpdate(Marriage.schema("marriages").toCreateSql());
+            assertTrue(Marriage.hasAllColumns(connection, "marriages"));
+        }
+    }
+}
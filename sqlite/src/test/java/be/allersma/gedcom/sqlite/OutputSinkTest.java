@@ -0,0 +1,81 @@
+package be.allersma.gedcom.sqlite;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutputSinkTest {
+    private static final TableSchema NOTES = TableSchema.of("notes")
+            .column("id", "INTEGER PRIMARY KEY")
+            .column("text", "TEXT")
+            .index("text");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void sqlQuotingTest() throws IOException {
+        Path file = directory.resolve("notes.sql");
+        try (OutputSink sink = OutputSink.open(file.toString())) {
+            assertTrue(sink instanceof SqlDumpOutput);
+            sink.begin(NOTES);
+            sink.row(1, "Jan's note");
+            sink.row(2, null);
+            sink.row(3, "''");
+        }
+
+        assertEquals("BEGIN TRANSACTION;\n"
+                + "DROP TABLE IF EXISTS notes;\n"
+                + "CREATE TABLE notes (id INTEGER PRIMARY KEY, text TEXT);\n"
+                + "INSERT INTO notes (id, text) VALUES\n(1, 'Jan''s note'),\n(2, NULL),\n(3, '''''');\n"
+                + "CREATE INDEX notes_text ON notes (text);\n"
+                + "COMMIT;\n", Files.readString(file));
+    }
+
+    @Test
+    public void sqlRowsPerInsertTest() throws IOException {
+        Path file = directory.resolve("notes.sql.gz");
+        try (OutputSink sink = OutputSink.open(file.toString())) {
+            sink.begin(NOTES);
+            for (int id = 1; id <= SqlDumpOutput.ROWS_PER_INSERT + 1; id++) {
+                sink.row(id, "note");
+            }
+        }
+
+        String script;
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+            script = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals(2, script.split("INSERT INTO", -1).length - 1);
+        assertTrue(script.endsWith("(" + (SqlDumpOutput.ROWS_PER_INSERT + 1) + ", 'note');\n"
+                + "CREATE INDEX notes_text ON notes (text);\nCOMMIT;\n"));
+    }
+
+    @Test
+    public void csvEscapingTest() throws IOException {
+        Path csv = directory.resolve("csv");
+        try (OutputSink sink = OutputSink.open(csv.toString(), OutputSink.Format.CSV, false)) {
+            sink.begin(NOTES);
+            sink.row(1, "plain");
+            sink.row(2, "Delfzijl, Groningen");
+            sink.row(3, "He said \"yes\"");
+            sink.row(4, "two\nlines");
+            sink.row(5, null);
+        }
+
+        assertEquals("id,text\n"
+                + "1,plain\n"
+                + "2,\"Delfzijl, Groningen\"\n"
+                + "3,\"He said \"\"yes\"\"\"\n"
+                + "4,\"two\nlines\"\n"
+                + "5,\n", Files.readString(csv.resolve("notes.csv")));
+    }
+}
@@ -0,0 +1,67 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlaceStoreTest {
+    private static final String INDEXES = "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = '"
+            + PlaceStore.SCHEMA.getName() + "' ORDER BY name";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void roundTripTest() throws SQLException {
+        PlaceGazetteer places = new PlaceGazetteer();
+        int delfzijl = places.getId("Delfzijl, Groningen");
+        int appingedam = places.getId("Appingedam, Groningen");
+
+        try (Connection connection = connect()) {
+            PlaceStore.save(connection, places);
+            PlaceGazetteer loaded = new PlaceGazetteer();
+            PlaceStore.load(connection, loaded);
+
+            assertEquals(places.getMaxId(), loaded.getMaxId());
+            assertEquals(delfzijl, loaded.getId("Delfzijl, Groningen"));
+            assertEquals(appingedam, loaded.getId("Appingedam , groningen"));
+            assertEquals(loaded.getParent(delfzijl), loaded.getParent(appingedam));
+            assertEquals("Groningen", loaded.getName(loaded.getParent(delfzijl)));
+
+            loaded.getId("Winschoten, Groningen");
+            PlaceStore.save(connection, loaded);
+            PlaceGazetteer reloaded = new PlaceGazetteer();
+            PlaceStore.load(connection, reloaded);
+            assertEquals("Winschoten, Groningen", reloaded.getFullName(reloaded.getMaxId()));
+        }
+    }
+
+    @Test
+    public void indexesTest() throws SQLException {
+        PlaceGazetteer places = new PlaceGazetteer();
+        places.getId("Delfzijl, Groningen");
+
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement()) {
+            PlaceStore.load(connection, new PlaceGazetteer());
+            assertEquals("", TreeTablesTest.rows(statement, INDEXES));
+
+            PlaceStore.save(connection, places);
+            assertEquals("places_full_name|places_name|places_parent", TreeTablesTest.rows(statement, INDEXES));
+            PlaceStore.save(connection, places);
+            assertEquals("2", TreeTablesTest.rows(statement, "SELECT count(*) FROM places"));
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("places.db"));
+    }
+}
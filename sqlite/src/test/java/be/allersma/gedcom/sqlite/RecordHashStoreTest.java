@@ -0,0 +1,56 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.RecordHashes;
+import be.allersma.gedcom.migrator.RecordType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordHashStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void updateTest() throws SQLException {
+        RecordHashes before = new RecordHashes();
+        before.put(RecordType.FAM, "F1", 1);
+        before.put(RecordType.FAM, "F2", 2);
+        before.put(RecordType.INDI, "I1", 3);
+        RecordHashes after = new RecordHashes();
+        after.put(RecordType.FAM, "F1", 10);
+        after.put(RecordType.FAM, "F3", 30);
+        after.put(RecordType.INDI, "I1", 3);
+
+        try (Connection connection = connect()) {
+            RecordHashStore.replace(connection, before);
+            assertTrue(RecordHashStore.load(connection).compareTo(before).isEmpty());
+
+            RecordHashStore.update(connection, after, after.compareTo(before));
+            RecordHashes stored = RecordHashStore.load(connection);
+            assertTrue(stored.compareTo(after).isEmpty());
+            assertEquals(10, stored.getHash(RecordType.FAM, "F1").getAsLong());
+            assertFalse(stored.contains(RecordType.FAM, "F2"));
+        }
+    }
+
+    @Test
+    public void clearTest() throws SQLException {
+        RecordHashes hashes = new RecordHashes();
+        hashes.put(RecordType.INDI, "I1", 1);
+        try (Connection connection = connect()) {
+            RecordHashStore.replace(connection, hashes);
+            RecordHashStore.clear(connection);
+            assertEquals(0, RecordHashStore.load(connection).size(RecordType.INDI));
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("hashes.db"));
+    }
+}
@@ -0,0 +1,68 @@
+package be.allersma.gedcom.sqlite;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMergerTest {
+    private static final String SMITH = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME John /Smith/\n0 @I2@ INDI\n1 NAME Mary /Jones/\n0 @I3@ INDI\n1 NAME Ann /Smith/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 CHIL @I3@\n1 MARR\n2 DATE 1875\n2 PLAC Delfzijl, Groningen\n"
+            + "0 TRLR\n";
+    // The same xrefs as SMITH, for other people
+    private static final String FOKKENS = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Fokkens/\n0 @I2@ INDI\n1 NAME Pieter /Fokkens/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 CHIL @I2@\n1 MARR\n2 DATE 1901\n2 PLAC Winschoten, Groningen\n"
+            + "0 @F2@ FAM\n1 HUSB @I2@\n1 MARR\n2 DATE 1930\n2 PLAC Delfzijl, Groningen\n"
+            + "0 TRLR\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void mergeTest() throws IOException, SAXParseException, SQLException {
+        Path smith = migrate("smith", SMITH);
+        Path fokkens = migrate("fokkens", FOKKENS);
+        String database = directory.resolve("merged.db").toString();
+
+        assertEquals(3, ShardMerger.merge(List.of(smith, fokkens), database));
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("1 1 2 3 1875|2 4 -1 5 1901|3 5 -1  1930", TreeTablesTest.rows(statement,
+                    "SELECT family, partner1, partner2, children, date FROM marriages ORDER BY family"));
+            assertEquals("1 0 0|2 3 1", TreeTablesTest.rows(statement,
+                    "SELECT id, indi_offset, fam_offset FROM shards ORDER BY id"));
+            assertEquals("1 I1 1|1 I2 2|1 I3 3|2 I1 4|2 I2 5", TreeTablesTest.rows(statement,
+                    "SELECT shard, xref, id FROM shard_xrefs WHERE type = 'INDI' ORDER BY shard, id"));
+            assertEquals("2 F1 2|2 F2 3", TreeTablesTest.rows(statement,
+                    "SELECT shard, xref, id FROM shard_xrefs WHERE type = 'FAM' AND shard = 2 ORDER BY id"));
+
+            // Delfzijl of both shards is one place
+            assertEquals("Delfzijl, Groningen|Winschoten, Groningen|Delfzijl, Groningen", TreeTablesTest.rows(statement,
+                    "SELECT p.full_name FROM marriages m JOIN places p ON p.id = m.place ORDER BY m.family"));
+            assertEquals("1", TreeTablesTest.rows(statement,
+                    "SELECT count(DISTINCT place) FROM marriages WHERE family IN (1, 3)"));
+            assertEquals("1", TreeTablesTest.rows(statement, "SELECT count(*) FROM places WHERE name = 'Groningen'"));
+        }
+    }
+
+    private Path migrate(String name, String text) throws IOException, SAXParseException, SQLException {
+        Path file = directory.resolve(name + ".ged");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        Path shard = directory.resolve(name + ".db");
+        new StreamingMigration(file.toUri().toURL(), shard.toString()).run();
+        return shard;
+    }
+}
@@ -0,0 +1,248 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordHashes;
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingMigrationTest {
+    private static final String FAMILIES = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Fokkens/\n0 @I2@ INDI\n1 NAME Grietje /Smit/\n"
+            + "0 @I3@ INDI\n1 NAME Pieter /Fokkens/\n0 @I4@ INDI\n1 NAME Antje /Bakker/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 MARR\n2 DATE 1 MAY 1875\n2 PLAC Delfzijl\n"
+            + "0 @F2@ FAM\n1 HUSB @I3@\n1 WIFE @I4@\n1 MARR\n2 DATE 3 JUN 1901\n2 PLAC Appingedam\n"
+            + "0 TRLR\n";
+
+    // F1 has changed, F2 has been deleted and F3 has been added
+    private static final String CHANGED = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Fokkens/\n0 @I2@ INDI\n1 NAME Grietje /Smit/\n"
+            + "0 @I3@ INDI\n1 NAME Pieter /Fokkens/\n0 @I4@ INDI\n1 NAME Antje /Bakker/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 MARR\n2 DATE 2 MAY 1875\n2 PLAC Delfzijl\n"
+            + "0 @F3@ FAM\n1 HUSB @I3@\n1 WIFE @I2@\n1 MARR\n2 DATE 1910\n2 PLAC Winschoten\n"
+            + "0 TRLR\n";
+
+    // F2 has two marriages, so a transaction of one row can end halfway through it
+    private static final String REMARRIED = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Fokkens/\n0 @I2@ INDI\n1 NAME Grietje /Smit/\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 MARR\n2 DATE 1875\n"
+            + "0 @F2@ FAM\n1 HUSB @I2@\n1 WIFE @I1@\n1 MARR\n2 DATE 1880\n1 MARR\n2 DATE 1881\n"
+            + "0 @F3@ FAM\n1 HUSB @I1@\n1 MARR\n2 DATE 1890\n"
+            + "0 TRLR\n";
+
+    private static final String MARRIAGES = "SELECT family, partner1, partner2, date FROM marriages ORDER BY family";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void treeTablesTest() throws IOException, SAXParseException, SQLException {
+        Path file = write("tree.ged", FAMILIES);
+        String database = directory.resolve("tree.db").toString();
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(FAMILIES));
+        gedcom.createIndexes();
+        try (OutputSink sink = OutputSink.open(database)) {
+            new TreeTables(gedcom, new XrefRegistry().registerAll(gedcom), new PlaceGazetteer()).write(sink);
+        }
+
+        StreamingMigration migration = new StreamingMigration(file.toUri().toURL(), database);
+        assertThrows(IllegalStateException.class, migration::run);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("", TreeTablesTest.rows(statement,
+                    "SELECT name FROM sqlite_master WHERE name IN ('marriages', '" + Checkpoint.TABLE + "')"));
+        }
+    }
+
+    @Test
+    public void incrementalTest() throws IOException, SAXParseException, SQLException {
+        Path file = write("families.ged", FAMILIES);
+        String database = directory.resolve("families.db").toString();
+        StreamingMigration migration = new StreamingMigration(file.toUri().toURL(), database);
+        migration.run();
+        assertEquals(2, migration.getWritten());
+        assertEquals(Set.of("F1", "F2"), migration.getDelta().getAdded(RecordType.FAM));
+
+        write("families.ged", CHANGED);
+        migration.run();
+        RecordHashes.Delta delta = migration.getDelta();
+        assertEquals(Set.of("F3"), delta.getAdded(RecordType.FAM));
+        assertEquals(Set.of("F1"), delta.getChanged(RecordType.FAM));
+        assertEquals(Set.of("F2"), delta.getDeleted(RecordType.FAM));
+        assertEquals(2, migration.getWritten());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("1 1 2 2 MAY 1875|3 3 2 1910", TreeTablesTest.rows(statement, MARRIAGES));
+            assertTrue(RecordHashStore.load(connection)
+                    .compareTo(RecordHashes.read(new StringReader(CHANGED), RecordType.INDI, RecordType.FAM))
+                    .isEmpty());
+        }
+
+        migration.run();
+        assertTrue(migration.getDelta().isEmpty());
+        assertEquals(0, migration.getWritten());
+    }
+
+    @Test
+    public void hashTest() throws IOException, SAXParseException, SQLException {
+        Path file = directory.resolve("ansi.ged");
+        Files.write(file, FAMILIES.replace("UTF-8", "ANSI").replace("Grietje", "Gr\u00e9tje")
+                .getBytes(Charset.forName("windows-1252")));
+        String database = directory.resolve("ansi.db").toString();
+        new StreamingMigration(file.toUri().toURL(), database).run();
+
+        RecordHashes hashes = StreamingMigration.hash(file.toUri().toURL(), RecordType.INDI, RecordType.FAM);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            assertTrue(hashes.compareTo(RecordHashStore.load(connection)).isEmpty());
+        }
+        assertEquals(4, hashes.size(RecordType.INDI));
+    }
+
+    @Test
+    public void resumeTest() throws IOException, SAXParseException, SQLException {
+        Path file = write("remarried.ged", REMARRIED);
+        String database = directory.resolve("remarried.db").toString();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            Checkpoint.createTable(connection);
+            // Fails the commit of the second marriage of F2, like a run that is killed halfway through F2
+            statement.executeUpdate("CREATE TRIGGER kill BEFORE INSERT ON " + Checkpoint.TABLE
+                    + " WHEN (SELECT count(*) FROM marriages) >= 3 BEGIN SELECT RAISE(ABORT, 'killed'); END");
+        }
+        BulkLoader.Settings settings = BulkLoader.Settings.defaults().rowsPerTransaction(1);
+        StreamingMigration migration = new StreamingMigration(file.toUri().toURL(), database).settings(settings);
+        SQLException failure = assertThrows(SQLException.class, migration::run);
+        assertTrue(failure.getMessage().contains("killed"), failure.getMessage());
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("1 1 2 1875|2 2 1 1880", TreeTablesTest.rows(statement, MARRIAGES));
+            Checkpoint checkpoint = Checkpoint.load(connection).orElseThrow();
+            assertEquals(1, checkpoint.getRecords(RecordType.FAM));
+            assertEquals("F1", checkpoint.getXref(RecordType.FAM));
+            assertEquals(0, RecordHashStore.load(connection).size(RecordType.FAM));
+            statement.executeUpdate("DROP TRIGGER kill");
+        }
+
+        migration.run();
+        assertEquals(3, migration.getWritten());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("1 1 2 1875|2 2 1 1880|2 2 1 1881|3 1 -1 1890",
+                    TreeTablesTest.rows(statement, MARRIAGES + ", date"));
+            assertFalse(Checkpoint.load(connection).isPresent());
+            assertEquals(3, RecordHashStore.load(connection).size(RecordType.FAM));
+            assertEquals("F1 1|F2 2|F3 3", TreeTablesTest.rows(statement,
+                    "SELECT xref, id FROM xrefs WHERE type = 'FAM' ORDER BY id"));
+        }
+    }
+
+    @Test
+    public void indexesTest() throws IOException, SAXParseException, SQLException {
+        Path file = write("families.ged", FAMILIES);
+        String database = directory.resolve("families.db").toString();
+        String indexes = "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'marriages' ORDER BY name";
+        StreamingMigration migration = new StreamingMigration(file.toUri().toURL(), database);
+        migration.run();
+        String created;
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            created = TreeTablesTest.rows(statement, indexes);
+            assertFalse(created.isEmpty());
+            // Like a run that was killed while creating the indexes, after the checkpoint had been cleared
+            statement.executeUpdate("DROP INDEX marriages_family");
+        }
+
+        migration.run();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals(created, TreeTablesTest.rows(statement, indexes));
+            statement.executeUpdate("DROP INDEX marriages_family");
+            // Fails the commit that clears the checkpoint, so the indexes of that commit aren't there either
+            statement.executeUpdate("CREATE TRIGGER kill BEFORE DELETE ON " + Checkpoint.TABLE
+                    + " BEGIN SELECT RAISE(ABORT, 'killed'); END");
+        }
+
+        write("families.ged", CHANGED);
+        assertThrows(SQLException.class, migration::run);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertTrue(Checkpoint.load(connection).isPresent());
+            statement.executeUpdate("DROP TRIGGER kill");
+        }
+
+        migration.run();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertFalse(Checkpoint.load(connection).isPresent());
+            assertEquals(created, TreeTablesTest.rows(statement, indexes));
+            assertEquals("1 1 2 2 MAY 1875|3 3 2 1910", TreeTablesTest.rows(statement, MARRIAGES));
+        }
+    }
+
+    @Test
+    public void olderTableTest() throws IOException, SAXParseException, SQLException {
+        Path file = write("families.ged", FAMILIES);
+        String database = directory.resolve("families.db").toString();
+        StreamingMigration migration = new StreamingMigration(file.toUri().toURL(), database);
+        migration.run();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE marriages DROP COLUMN address");
+        }
+
+        migration.run();
+        assertEquals(2, migration.getWritten());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertTrue(Marriage.hasAllColumns(connection, "marriages"));
+            assertEquals("1 1 2 1 MAY 1875|2 3 4 3 JUN 1901", TreeTablesTest.rows(statement, MARRIAGES));
+        }
+    }
+
+    @Test
+    public void restartTest() throws IOException, SAXParseException, SQLException {
+        Path file = write("families.ged", FAMILIES);
+        String database = directory.resolve("families.db").toString();
+        new StreamingMigration(file.toUri().toURL(), database).run();
+        // A checkpoint of the same file that doesn't match its families
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            Checkpoint checkpoint = new Checkpoint(Checkpoint.fingerprint(file.toUri().toURL()), false);
+            checkpoint.complete(RecordType.FAM, 1, "F2");
+            checkpoint.save(connection);
+        }
+
+        StreamingMigration migration = new StreamingMigration(file.toUri().toURL(), database);
+        assertThrows(IllegalStateException.class, migration::run);
+        migration.restart(true).run();
+        assertEquals(2, migration.getWritten());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("1 1 2 1 MAY 1875|2 3 4 3 JUN 1901", TreeTablesTest.rows(statement, MARRIAGES));
+        }
+    }
+
+    private Path write(String name, String text) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,182 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.PlaceGazetteer;
+import be.allersma.gedcom.migrator.RecordHashes;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import org.folg.gedcom.model.Gedcom;
+import org.folg.gedcom.model.Name;
+import org.folg.gedcom.parser.ModelParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeTablesTest {
+    private static final String TREE = "0 HEAD\n1 CHAR UTF-8\n"
+            + "0 @I1@ INDI\n1 NAME Jan /Fokkens/ Sr.\n1 SEX M\n1 BIRT\n2 DATE ABT 1850\n2 PLAC Delfzijl, Groningen\n"
+            + "1 FAMS @F1@\n1 NOTE Inline note\n"
+            + "0 @I2@ INDI\n1 NAME Grietje /Smit/\n2 GIVN Griet\n1 FAMS @F1@\n"
+            + "0 @I3@ INDI\n1 NAME Pieter /Fokkens/\n1 FAMC @F1@\n1 SOUR @S1@\n2 PAGE 12\n"
+            + "0 @F1@ FAM\n1 HUSB @I1@\n1 WIFE @I2@\n1 CHIL @I3@\n1 MARR\n2 DATE 1 MAY 1875\n2 PLAC Delfzijl, Groningen\n"
+            + "1 NOTE @N1@\n"
+            + "0 @N1@ NOTE A note record\n"
+            + "0 @S1@ SOUR\n1 TITL Burgerlijke stand\n"
+            + "0 TRLR\n";
+    // I1 and F1 have changed, I3 has been deleted and I4 has been added
+    private static final String CHANGED_TREE = TREE
+            .replace("2 DATE ABT 1850\n", "2 DATE ABT 1851\n")
+            .replace("0 @I3@ INDI\n1 NAME Pieter /Fokkens/\n1 FAMC @F1@\n1 SOUR @S1@\n2 PAGE 12\n",
+                    "0 @I4@ INDI\n1 NAME Aaltje /Fokkens/\n1 SEX F\n1 BIRT\n2 PLAC Appingedam, Groningen\n"
+                            + "2 NOTE Born at home\n1 FAMC @F1@\n1 SOUR @S1@\n2 PAGE 13\n")
+            .replace("1 CHIL @I3@\n", "1 CHIL @I4@\n");
+    // The same rows, whatever ids the events, notes and places got
+    private static final List<String> CONTENTS = List.of(
+            "SELECT xref, sex FROM persons ORDER BY xref",
+            "SELECT p.xref, n.position, n.given, n.surname FROM names n JOIN persons p ON p.id = n.person"
+                    + " ORDER BY 1, 2",
+            "SELECT f.xref, p.xref, r.role FROM family_partners r JOIN families f ON f.id = r.family"
+                    + " JOIN persons p ON p.id = r.person ORDER BY 1, 2",
+            "SELECT f.xref, p.xref, c.position FROM family_children c JOIN families f ON f.id = c.family"
+                    + " JOIN persons p ON p.id = c.child ORDER BY 1, 2",
+            "SELECT coalesce(p.xref, f.xref), e.tag, e.date, l.full_name FROM events e"
+                    + " LEFT JOIN persons p ON p.id = e.person LEFT JOIN families f ON f.id = e.family LEFT JOIN places l ON l.id = e.place ORDER BY 1, 2",
+            "SELECT coalesce(p.xref, f.xref), e.tag, n.text FROM note_links l JOIN notes n ON n.id = l.note"
+                    + " LEFT JOIN persons p ON p.id = l.person LEFT JOIN families f ON f.id = l.family"
+                    + " LEFT JOIN events e ON e.id = l.event ORDER BY 1, 3",
+            "SELECT count(*) FROM notes",
+            "SELECT p.xref, s.xref, c.page FROM citations c JOIN sources s ON s.id = c.source"
+                    + " JOIN persons p ON p.id = c.person ORDER BY 1");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void writeTest() throws IOException, SAXParseException, SQLException {
+        Gedcom gedcom = parse();
+        String database = directory.resolve("tree.db").toString();
+        PlaceGazetteer places = new PlaceGazetteer();
+        try (OutputSink sink = OutputSink.open(database)) {
+            new TreeTables(gedcom, new XrefRegistry().registerAll(gedcom), places).write(sink);
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            assertEquals("I1 M|I2 null|I3 null", rows(statement, "SELECT xref, sex FROM persons ORDER BY id"));
+            assertEquals("Jan Fokkens Sr.|Griet Smit|Pieter Fokkens",
+                    rows(statement, "SELECT given, surname, suffix FROM names ORDER BY person, position")
+                            .replace(" null", ""));
+            assertEquals("1 HUSB|2 WIFE", rows(statement, "SELECT person, role FROM family_partners ORDER BY person"));
+            assertEquals("3", rows(statement, "SELECT c.child FROM family_partners p"
+                    + " JOIN family_children c ON c.family = p.family WHERE p.person = 1"));
+            assertEquals("1 null BIRT ABT 1850 2|null 1 MARR 1 MAY 1875 2",
+                    rows(statement, "SELECT person, family, tag, date, place FROM events ORDER BY id"));
+            assertEquals("Delfzijl, Groningen", rows(statement, "SELECT full_name FROM places WHERE id = 2"));
+            assertEquals("1 N1 A note record|2 null Inline note", rows(statement, "SELECT id, xref, text FROM notes"));
+            assertEquals("1 null 1 null|2 1 null null",
+                    rows(statement, "SELECT note, person, family, event FROM note_links ORDER BY note"));
+            assertEquals("1 3 12", rows(statement, "SELECT source, person, page FROM citations"));
+        }
+    }
+
+    @Test
+    public void modelUnchangedTest() throws IOException, SAXParseException {
+        Gedcom gedcom = parse();
+        try (OutputSink sink = OutputSink.open(directory.resolve("tree.db").toString())) {
+            new TreeTables(gedcom, new XrefRegistry().registerAll(gedcom), new PlaceGazetteer()).write(sink);
+        }
+
+        Name name = gedcom.getPerson("I1").getNames().get(0);
+        assertEquals("Jan /Fokkens/ Sr.", name.getValue());
+        assertNull(name.getGiven());
+        assertNull(name.getSurname());
+        assertNull(name.getSuffix());
+        assertEquals("Griet", gedcom.getPerson("I2").getNames().get(0).getGiven());
+    }
+
+    @Test
+    public void updateTest() throws IOException, SAXParseException, SQLException {
+        Gedcom gedcom = parse();
+        XrefRegistry registry = new XrefRegistry().registerAll(gedcom);
+        String database = directory.resolve("tree.db").toString();
+        try (OutputSink sink = OutputSink.open(database)) {
+            new TreeTables(gedcom, registry, new PlaceGazetteer()).write(sink);
+        }
+
+        Gedcom changed = parse(CHANGED_TREE);
+        RecordHashes.Delta delta = hash(CHANGED_TREE).compareTo(hash(TREE));
+        assertTrue(TreeTables.canUpdate(delta));
+        PlaceGazetteer places = new PlaceGazetteer();
+        try (SqliteOutput sink = SqliteOutput.appending(BulkLoader.open(database, BulkLoader.Settings.defaults()))) {
+            PlaceStore.load(sink.getConnection(), places);
+            new TreeTables(changed, registry.registerAll(changed), places).update(sink, delta);
+        }
+
+        String expected = directory.resolve("expected.db").toString();
+        try (OutputSink sink = OutputSink.open(expected)) {
+            new TreeTables(changed, new XrefRegistry().registerAll(changed), new PlaceGazetteer()).write(sink);
+        }
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement();
+             Connection expectedConnection = DriverManager.getConnection("jdbc:sqlite:" + expected);
+             Statement expectedStatement = expectedConnection.createStatement()) {
+            for (String query : CONTENTS) {
+                assertEquals(rows(expectedStatement, query), rows(statement, query), query);
+            }
+            // The events of the changed records are numbered after the ones that were there
+            assertEquals("3 I1 BIRT|4 I4 BIRT|5 F1 MARR", rows(statement, "SELECT e.id, coalesce(p.xref, f.xref), e.tag"
+                    + " FROM events e LEFT JOIN persons p ON p.id = e.person LEFT JOIN families f ON f.id = e.family"
+                    + " ORDER BY e.id"));
+        }
+    }
+
+    @Test
+    public void canUpdateTest() throws IOException, SAXParseException {
+        assertTrue(TreeTables.canUpdate(hash(TREE).compareTo(hash(TREE))));
+        assertFalse(TreeTables.canUpdate(hash(TREE.replace("A note record", "Another note")).compareTo(hash(TREE))));
+        assertFalse(TreeTables.canUpdate(hash(TREE.replace("Burgerlijke stand", "Kerkboek")).compareTo(hash(TREE))));
+    }
+
+    private static RecordHashes hash(String text) throws IOException, SAXParseException {
+        return RecordHashes.read(new StringReader(text), TreeTables.recordTypes());
+    }
+
+    private static Gedcom parse() throws IOException, SAXParseException {
+        return parse(TREE);
+    }
+
+    private static Gedcom parse(String text) throws IOException, SAXParseException {
+        Gedcom gedcom = new ModelParser().parseGedcom(new StringReader(text));
+        gedcom.createIndexes();
+        return gedcom;
+    }
+
+    /**
+     * @return The rows separated by <code>|</code>, with the values of a row separated by spaces
+     */
+    static String rows(Statement statement, String query) throws SQLException {
+        StringBuilder result = new StringBuilder();
+        try (ResultSet rows = statement.executeQuery(query)) {
+            int columns = rows.getMetaData().getColumnCount();
+            while (rows.next()) {
+                if (result.length() > 0) {
+                    result.append('|');
+                }
+                for (int i = 1; i <= columns; i++) {
+                    result.append(i > 1 ? " " : "").append(rows.getString(i));
+                }
+            }
+        }
+        return result.toString();
+    }
+}
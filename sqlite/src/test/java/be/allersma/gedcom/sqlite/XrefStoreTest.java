@@ -0,0 +1,45 @@
+package be.allersma.gedcom.sqlite;
+
+import be.allersma.gedcom.migrator.RecordType;
+import be.allersma.gedcom.migrator.XrefRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XrefStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void roundTripTest() throws SQLException {
+        XrefRegistry registry = new XrefRegistry();
+        registry.register(RecordType.INDI, "I1");
+        registry.register(RecordType.INDI, "I7");
+        registry.register(RecordType.FAM, "F1");
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("xrefs.db"))) {
+            XrefStore.save(connection, registry);
+            XrefRegistry loaded = new XrefRegistry();
+            XrefStore.load(connection, loaded);
+            assertEquals(2, loaded.getId(RecordType.INDI, "I7"));
+            assertEquals(1, loaded.getId(RecordType.FAM, "F1"));
+            assertEquals(2, loaded.getMaxId(RecordType.INDI));
+
+            // Ids of a rerun follow those of the stored xrefs, and stored ids are kept
+            assertEquals(3, loaded.register(RecordType.INDI, "I2"));
+            XrefStore.save(connection, loaded);
+            XrefStore.save(connection, loaded);
+            XrefRegistry reloaded = new XrefRegistry();
+            XrefStore.load(connection, reloaded);
+            assertEquals(1, reloaded.getId(RecordType.INDI, "I1"));
+            assertEquals(3, reloaded.getId(RecordType.INDI, "I2"));
+            assertEquals(3, reloaded.size(RecordType.INDI));
+        }
+    }
+}